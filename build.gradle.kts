@@ -6,6 +6,7 @@ plugins {
     java
     application
     id("com.gradleup.shadow") version "9.4.2"
+    id("me.champeau.jmh") version "0.7.3"
     kotlin("jvm") version "2.3.21"
 }
 
@@ -64,6 +65,47 @@ dependencies {
     implementation("org.apache.logging.log4j:log4j-core:$log4jVersion")
 
     implementation(project(":jsgl"))
+
+    testImplementation("org.junit.jupiter:junit-jupiter:5.13.4")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
+// Benchmarks in src/jmh, run with "./gradlew jmh". A subset can be selected with a regular
+// expression, e.g. "./gradlew jmh -Pjmh.includes=SceneGraph". Set the system property
+// roboviz.benchmark.log to a logfile to use its frames instead of the generated ones.
+jmh {
+    jmhVersion.set("1.37")
+    (project.findProperty("jmh.includes") as String?)?.let { includes.set(listOf(it)) }
+    System.getProperty("roboviz.benchmark.log")?.let { jvmArgsAppend.add("-Droboviz.benchmark.log=$it") }
+    resultFormat.set("CSV")
+}
+
+// Serves a logfile like rcssserver3d, e.g. ./gradlew logServer --args="--speed=max sparkmonitor.log"
+tasks.register<JavaExec>("logServer") {
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("rv.comm.rcssserver.LogServer")
+}
+
+// Converts a logfile to the seekable block format, e.g. ./gradlew convertLogfile --args="match.tar.bz2"
+tasks.register<JavaExec>("convertLogfile") {
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("rv.comm.rcssserver.LogfileConverter")
+}
+
+// Extracts match statistics from logfiles, e.g. ./gradlew analyzeLogfiles --args="--format=json logs/"
+tasks.register<JavaExec>("analyzeLogfiles") {
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("rv.comm.rcssserver.LogBatchAnalyzer")
+}
+
+// Exports the poses of all agents and the ball, e.g. ./gradlew exportTrajectories --args="game.log"
+tasks.register<JavaExec>("exportTrajectories") {
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("rv.comm.rcssserver.TrajectoryExporter")
 }
 
 tasks.jar {
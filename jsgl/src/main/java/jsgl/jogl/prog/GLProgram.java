@@ -19,6 +19,8 @@ public abstract class GLProgram implements GLEventListener
 	protected double fpsTimer = 0;
 	protected double fpsCheckTimeMS = 1000;
 	protected double fps = 0;
+	private double averageFrameTimeMS = 0;
+	private double frameTimeJitterMS = 0;
 
 	public GLAutoDrawable getCanvas()
 	{
@@ -35,6 +37,23 @@ public abstract class GLProgram implements GLEventListener
 		return fps;
 	}
 
+	/**
+	 * Returns the moving average of the time between two frames
+	 */
+	public double getAverageFrameTimeMS()
+	{
+		return averageFrameTimeMS;
+	}
+
+	/**
+	 * Returns the moving average of the deviation of the time between two
+	 * frames from its average
+	 */
+	public double getFrameTimeJitterMS()
+	{
+		return frameTimeJitterMS;
+	}
+
 	public Viewport getScreen()
 	{
 		return screen;
@@ -69,8 +88,11 @@ public abstract class GLProgram implements GLEventListener
 		GL gl = drawable.getGL();
 
 		long nanoTime = System.nanoTime();
-		if (lastNanoTime > 0)
+		if (lastNanoTime > 0) {
 			elapsedMS = (nanoTime - lastNanoTime) / 10e5;
+			averageFrameTimeMS += (elapsedMS - averageFrameTimeMS) * 0.05;
+			frameTimeJitterMS += (Math.abs(elapsedMS - averageFrameTimeMS) - frameTimeJitterMS) * 0.05;
+		}
 		lastNanoTime = nanoTime;
 
 		fpsTimer += elapsedMS;
@@ -0,0 +1,57 @@
+package jsgl.math.vector;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matrix operations done for every node of the scene graph when world transforms are updated
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatrixBenchmark
+{
+	private Matrix a;
+	private Matrix b;
+	private Vec3f v3;
+	private Vec4f v4;
+
+	@Setup
+	public void setUp()
+	{
+		a = Matrix.createYawPitchRoll(0.3, -0.2, 0.1).times(Matrix.createTranslation(1, 2, 3));
+		b = Matrix.createRotationZ(1.2).times(Matrix.createTranslation(-4, 0.5, 0.35));
+		v3 = new Vec3f(0.1f, 0.2f, 0.3f);
+		v4 = new Vec4f(0.1f, 0.2f, 0.3f, 1);
+	}
+
+	@Benchmark
+	public Matrix times()
+	{
+		return a.times(b);
+	}
+
+	@Benchmark
+	public Vec3f transformVec3f()
+	{
+		return a.transform(v3);
+	}
+
+	@Benchmark
+	public Vec4f transformVec4f()
+	{
+		return a.transform(v4);
+	}
+}
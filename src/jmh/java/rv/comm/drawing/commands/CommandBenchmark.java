@@ -0,0 +1,109 @@
+package rv.comm.drawing.commands;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.magmaoffenburg.roboviz.rendering.Renderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import rv.comm.drawing.Drawings;
+
+/**
+ * Parsing a draw packet like an agent sends it every cycle: lines, circles, points and spheres of
+ * one shape set, followed by the buffer swap
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmark
+{
+	private static final String SET = "magma.1.path";
+	private static final int SHAPES_PER_TYPE = 50;
+
+	private byte[] packet;
+
+	@Setup
+	public void setUp()
+	{
+		// draw commands look up the drawings when they are created
+		Renderer.Companion.setDrawings(new Drawings());
+
+		Random random = new Random(42);
+		ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+		for (int i = 0; i < SHAPES_PER_TYPE; i++) {
+			shape(buf, 1);
+			floats(buf, random, 6);
+			Command.writeFloat(buf, 2);
+			color(buf);
+
+			shape(buf, 0);
+			floats(buf, random, 2);
+			Command.writeFloat(buf, 0.5f);
+			Command.writeFloat(buf, 1);
+			color(buf);
+
+			shape(buf, 2);
+			floats(buf, random, 3);
+			Command.writeFloat(buf, 3);
+			color(buf);
+
+			shape(buf, 3);
+			floats(buf, random, 3);
+			Command.writeFloat(buf, 0.1f);
+			color(buf);
+		}
+		buf.put((byte) Command.DRAW_OPTION);
+		buf.put((byte) 0);
+		string(buf, SET);
+
+		packet = new byte[buf.position()];
+		buf.flip();
+		buf.get(packet);
+	}
+
+	private static void shape(ByteBuffer buf, int type)
+	{
+		buf.put((byte) Command.DRAW_SHAPE);
+		buf.put((byte) type);
+	}
+
+	private static void floats(ByteBuffer buf, Random random, int n)
+	{
+		for (int i = 0; i < n; i++)
+			Command.writeFloat(buf, random.nextFloat() * 10 - 5);
+	}
+
+	private static void color(ByteBuffer buf)
+	{
+		buf.put((byte) 255);
+		buf.put((byte) 128);
+		buf.put((byte) 0);
+		string(buf, SET);
+	}
+
+	private static void string(ByteBuffer buf, String s)
+	{
+		buf.put(s.getBytes());
+		buf.put((byte) 0);
+	}
+
+	@Benchmark
+	public void parsePacket(Blackhole blackhole)
+	{
+		ByteBuffer buf = ByteBuffer.wrap(packet);
+		while (buf.hasRemaining())
+			blackhole.consume(Command.parse(buf));
+	}
+}
@@ -0,0 +1,56 @@
+package rv.comm.rcssserver;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Updating the game state from the entries of a full frame, which contain all field dimensions and
+ * rules, and from the time entry that diff frames contain
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GameStateBenchmark
+{
+	@Param({"LEGACY", "RSMP"})
+	private MonitorFrames.Protocol protocol;
+
+	private final GameState gameState = new GameState();
+	private List<SExp> fullEntries;
+	private List<SExp> timeEntries;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		fullEntries = MonitorFrames.create(MonitorFrames.Robot.NAO, protocol).getFullGameStateExpressions();
+		timeEntries = SExp.parse("(time 123.46)");
+	}
+
+	@Benchmark
+	public GameState parseFull()
+	{
+		gameState.parse(fullEntries);
+		return gameState;
+	}
+
+	@Benchmark
+	public GameState parseTime()
+	{
+		gameState.parse(timeEntries);
+		return gameState;
+	}
+}
@@ -0,0 +1,83 @@
+package rv.comm.rcssserver;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rv.world.WorldModel;
+
+/**
+ * Decoding monitor messages, and decoding plus applying them to a world model that is not
+ * attached to a renderer. Diff frames are cycled, so consecutive updates differ.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageParserBenchmark
+{
+	@Param({"NAO", "T1", "K1"})
+	private MonitorFrames.Robot robot;
+
+	@Param({"LEGACY", "RSMP"})
+	private MonitorFrames.Protocol protocol;
+
+	private MessageParser parser;
+	private byte[] fullFrame;
+	private byte[][] diffFrames;
+	private int nextDiff;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		MonitorFrames frames = MonitorFrames.create(robot, protocol);
+		fullFrame = frames.getFullFrame().getBytes(StandardCharsets.UTF_8);
+		List<String> diffs = frames.getDiffFrames();
+		diffFrames = new byte[diffs.size()][];
+		for (int i = 0; i < diffFrames.length; i++)
+			diffFrames[i] = diffs.get(i).getBytes(StandardCharsets.UTF_8);
+
+		parser = new MessageParser(new WorldModel());
+		parser.parse(fullFrame, 0, fullFrame.length);
+	}
+
+	private byte[] nextDiffFrame()
+	{
+		byte[] frame = diffFrames[nextDiff];
+		nextDiff = (nextDiff + 1) % diffFrames.length;
+		return frame;
+	}
+
+	@Benchmark
+	public FrameUpdate decodeDiff() throws ParseException
+	{
+		byte[] frame = nextDiffFrame();
+		return parser.decode(frame, 0, frame.length);
+	}
+
+	@Benchmark
+	public void parseDiff() throws ParseException
+	{
+		byte[] frame = nextDiffFrame();
+		parser.parse(frame, 0, frame.length);
+	}
+
+	@Benchmark
+	public void parseFull() throws ParseException
+	{
+		parser.parse(fullFrame, 0, fullFrame.length);
+	}
+}
@@ -0,0 +1,400 @@
+package rv.comm.rcssserver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.magmaoffenburg.roboviz.util.ArchiveUtilKt;
+import rv.comm.rcssserver.scenegraph.SceneGraphHeader;
+import rv.world.WorldModel;
+
+/**
+ * Monitor messages used as benchmark fixtures: a full frame followed by a sequence of diff frames.
+ * By default the frames are generated with the node layout, mesh names and number formatting of
+ * rcssserver3d for a match of one of the robot models. If the system property
+ * <code>roboviz.benchmark.log</code> names a logfile, the first full frame of that log and the
+ * diff frames following it are used instead.
+ */
+public final class MonitorFrames
+{
+	public static final String LOG_PROPERTY = "roboviz.benchmark.log";
+
+	public enum Robot
+	{
+		NAO("models/", ".obj",
+				new String[] {"naohead", "", "naobody", "", "lupperarm", "", "llowerarm", "", "rupperarm", "",
+						"rlowerarm", "", "", "lthigh", "lshank", "", "lfoot", "", "", "rthigh", "rshank", "",
+						"rfoot"}),
+		T1("models/T1/", ".STL",
+				new String[] {"H1", "H2", "Trunk", "Waist", "AL1", "AL2", "AL3", "left_hand_link", "AL1", "AL2", "AL3",
+						"left_hand_link", "Hip_Pitch_Left", "Hip_Roll", "Hip_Yaw", "Shank_Left", "Ankle_Cross_Left",
+						"foot_link", "Hip_Pitch_Left", "Hip_Roll", "Hip_Yaw", "Shank_Left", "Ankle_Cross_Left",
+						"foot_link"}),
+		K1("models/K1/", ".STL",
+				new String[] {"Head_1", "Head_2", "Trunk", "K1logo", "Left_Arm_1", "Left_Arm_2", "Left_Arm_3",
+						"Left_Arm_4", "Left_Arm_1", "Left_Arm_2", "Left_Arm_3", "Left_Arm_4", "Left_Hip_Pitch",
+						"Hip_Roll", "Left_Hip_Yaw", "Left_Shank", "Ankle_Cross", "Left_Foot", "Left_Hip_Pitch",
+						"Hip_Roll", "Left_Hip_Yaw", "Left_Shank", "Ankle_Cross", "Left_Foot"});
+
+		private final String directory;
+		private final String extension;
+
+		/** one entry per body part, empty for joints without a mesh */
+		private final String[] meshes;
+
+		Robot(String directory, String extension, String[] meshes)
+		{
+			this.directory = directory;
+			this.extension = extension;
+			this.meshes = meshes;
+		}
+	}
+
+	public enum Protocol
+	{
+		LEGACY,
+		RSMP
+	}
+
+	private static final int PLAYERS_PER_TEAM = 11;
+	private static final int DIFF_FRAMES = 100;
+	private static final float MONITOR_STEP = 0.04f;
+
+	private final String fullFrame;
+	private final List<String> diffFrames;
+	private final boolean rsmp;
+
+	private MonitorFrames(String fullFrame, List<String> diffFrames, boolean rsmp)
+	{
+		this.fullFrame = fullFrame;
+		this.diffFrames = diffFrames;
+		this.rsmp = rsmp;
+	}
+
+	/**
+	 * @return the frames of the log given by {@link #LOG_PROPERTY} if it is set, otherwise generated
+	 *         frames for the given robot model and protocol
+	 */
+	public static MonitorFrames create(Robot robot, Protocol protocol) throws IOException
+	{
+		String log = System.getProperty(LOG_PROPERTY);
+		if (log != null && !log.isEmpty())
+			return load(log);
+		return generate(robot, protocol);
+	}
+
+	public static MonitorFrames generate(Robot robot, Protocol protocol)
+	{
+		Generator generator = new Generator(robot, protocol == Protocol.RSMP);
+		String full = generator.frame(true);
+		List<String> diffs = new ArrayList<>();
+		for (int i = 0; i < DIFF_FRAMES; i++)
+			diffs.add(generator.frame(false));
+		return new MonitorFrames(full, diffs, protocol == Protocol.RSMP);
+	}
+
+	public static MonitorFrames load(String logfile) throws IOException
+	{
+		MessageParser parser = new MessageParser(new WorldModel());
+		String full = null;
+		boolean rsmp = false;
+		List<String> diffs = new ArrayList<>();
+		try (BufferedReader reader = ArchiveUtilKt.createBufferedReader(new File(logfile))) {
+			String line;
+			while ((line = reader.readLine()) != null && diffs.size() < DIFF_FRAMES) {
+				byte[] data = line.getBytes(StandardCharsets.UTF_8);
+				FrameUpdate update;
+				try {
+					update = parser.decode(data, 0, data.length);
+				} catch (ParseException e) {
+					continue;
+				}
+				if (update.getFullSceneGraph() != null) {
+					if (full != null)
+						break;
+					full = line;
+					rsmp = update.getFullSceneGraph().isGeneratedFromRSMP();
+				} else if (full != null && update.getSceneGraphUpdate() != null) {
+					diffs.add(line);
+				}
+			}
+		}
+		if (full == null || diffs.isEmpty())
+			throw new IOException("No full frame followed by diff frames in " + logfile);
+		return new MonitorFrames(full, diffs, rsmp);
+	}
+
+	public String getFullFrame()
+	{
+		return fullFrame;
+	}
+
+	public List<String> getDiffFrames()
+	{
+		return diffFrames;
+	}
+
+	public boolean isRSMP()
+	{
+		return rsmp;
+	}
+
+	/**
+	 * @return the scene graph part of the full frame, i.e. the node declarations below the root
+	 */
+	public List<SExp> getFullSceneGraphExpressions() throws ParseException
+	{
+		return sceneGraphExpressions(fullFrame);
+	}
+
+	/**
+	 * @return the scene graph part of a diff frame
+	 */
+	public List<SExp> getDiffSceneGraphExpressions(int index) throws ParseException
+	{
+		return sceneGraphExpressions(diffFrames.get(index));
+	}
+
+	/**
+	 * @return the game state entries of the full frame
+	 */
+	public List<SExp> getFullGameStateExpressions() throws ParseException
+	{
+		List<SExp> message = SExp.parse(fullFrame);
+		if (!rsmp)
+			return message.get(0).getChildren();
+		for (SExp component : message.get(0).getChildren()) {
+			if (component.getChildren() != null && component.getChildren().get(0).atomEquals(0, "gs"))
+				return component.getChildren().subList(1, component.getChildren().size());
+		}
+		return List.of();
+	}
+
+	private List<SExp> sceneGraphExpressions(String frame) throws ParseException
+	{
+		List<SExp> message = SExp.parse(frame);
+		if (!rsmp)
+			return message.get(2).getChildren();
+		for (SExp component : message.get(0).getChildren()) {
+			if (component.getChildren() != null && component.getChildren().get(0).atomEquals(0, "sg"))
+				return component.getChildren().subList(1, component.getChildren().size());
+		}
+		return List.of();
+	}
+
+	/**
+	 * Writes frames of a match with the node layout of rcssserver3d. All agents move every frame,
+	 * the rest of the scene is static.
+	 */
+	private static class Generator
+	{
+		private final Robot robot;
+		private final boolean rsmp;
+		private final Random random = new Random(42);
+		private final StringBuilder sb = new StringBuilder(1 << 18);
+		private float time;
+
+		Generator(Robot robot, boolean rsmp)
+		{
+			this.robot = robot;
+			this.rsmp = rsmp;
+		}
+
+		String frame(boolean full)
+		{
+			sb.setLength(0);
+			if (rsmp) {
+				sb.append("((RSMP 1 0)((gt 1 0) ");
+				number(time);
+				sb.append(")((gs 1 0)");
+				gameState(full);
+				sb.append(")((sg 1 0) ").append(full ? "full" : "diff").append(' ');
+				sceneGraph(full);
+				sb.append("))");
+			} else {
+				sb.append('(');
+				gameState(full);
+				sb.append(")(").append(full ? SceneGraphHeader.FULL : SceneGraphHeader.DIFF).append(" 0 1)(");
+				sceneGraph(full);
+				sb.append(')');
+			}
+			time += MONITOR_STEP;
+			return sb.toString();
+		}
+
+		private void gameState(boolean full)
+		{
+			if (full) {
+				entry(GameState.FIELD_LENGTH, "30");
+				entry(GameState.FIELD_WIDTH, "20");
+				entry(GameState.FIELD_HEIGHT, "40");
+				entry(GameState.GOAL_WIDTH, "2.1");
+				entry(GameState.GOAL_DEPTH, "0.6");
+				entry(GameState.GOAL_HEIGHT, "0.8");
+				entry(GameState.FREE_KICK_DST, "2");
+				entry(GameState.WAIT_BEFORE_KO, "30");
+				entry(GameState.AGENT_RADIUS, "0.4");
+				entry(GameState.BALL_RADIUS, "0.042");
+				entry(GameState.BALL_MASS, "0.026");
+				entry(GameState.RULE_GOAL_PAUSE_TIME, "3");
+				entry(GameState.RULE_KICK_PAUSE_TIME, "1");
+				entry(GameState.RULE_HALF_TIME, "300");
+				entry(GameState.PLAY_MODES,
+						String.join(" ", GameState.BEFORE_KICK_OFF, GameState.KICK_OFF_LEFT,
+								GameState.KICK_OFF_RIGHT, GameState.PLAY_ON, GameState.KICK_IN_LEFT,
+								GameState.KICK_IN_RIGHT, GameState.CORNER_KICK_LEFT, GameState.CORNER_KICK_RIGHT,
+								GameState.GOAL_KICK_LEFT, GameState.GOAL_KICK_RIGHT, GameState.OFFSIDE_LEFT,
+								GameState.OFFSIDE_RIGHT, GameState.GAME_OVER, GameState.GOAL_LEFT,
+								GameState.GOAL_RIGHT, GameState.FREE_KICK_LEFT, GameState.FREE_KICK_RIGHT));
+				entry(GameState.TEAM_LEFT, "magmaOffenburg");
+				entry(GameState.TEAM_RIGHT, "RoboCanes");
+				entry(GameState.HALF, "1");
+				entry(GameState.SCORE_LEFT, "0");
+				entry(GameState.SCORE_RIGHT, "0");
+				entry(GameState.PLAY_MODE, "3");
+			}
+			sb.append('(').append(GameState.TIME).append(' ');
+			number(time);
+			sb.append(')');
+		}
+
+		private void entry(String name, String value)
+		{
+			sb.append('(').append(name).append(' ').append(value).append(')');
+		}
+
+		private void sceneGraph(boolean full)
+		{
+			// lights
+			for (int i = 0; i < 2; i++) {
+				if (full) {
+					sb.append("(nd TRF");
+					staticMatrix(0, 0, 10 + i);
+					sb.append("(nd Light (setDiffuse 1 1 1 1) (setAmbient 0.8 0.8 0.8 1) (setSpecular 0.1 0.1 0.1 1)))");
+				} else {
+					sb.append("(nd (nd))");
+				}
+			}
+
+			staticMesh(full, "models/naosoccerfield.obj", "15 1 10", "None_rcs-naofield.png", 0, 0, 0);
+			staticMesh(full, "models/leftgoal.obj", "1 1 1", "None_leftgoal.png", -15, 0, 0.4f);
+			staticMesh(full, "models/rightgoal.obj", "1 1 1", "None_rightgoal.png", 15, 0, 0.4f);
+
+			// the ball
+			sb.append("(nd");
+			if (full)
+				sb.append(" TRF");
+			movingMatrix(0, 0, 0.042f);
+			sb.append(full ? "(nd StaticMesh (load models/soccerball.obj) (sSc 0.042 0.042 0.042) " +
+									 "(resetMaterials soccerball_rcs-soccerball.png))"
+						   : "(nd)");
+			sb.append(')');
+
+			for (int team = 0; team < 2; team++) {
+				for (int player = 1; player <= PLAYERS_PER_TEAM; player++)
+					agent(full, team, player);
+			}
+		}
+
+		private void agent(boolean full, int team, int player)
+		{
+			float x = (team == 0 ? -1 : 1) * player;
+			sb.append("(nd");
+			if (full)
+				sb.append(" TRF");
+			movingMatrix(x, player - 6, 0.35f);
+			for (String mesh : robot.meshes) {
+				sb.append("(nd");
+				if (full)
+					sb.append(" TRF");
+				movingMatrix(x, player - 6, 0.1f + random.nextFloat() * 0.4f);
+				if (!mesh.isEmpty()) {
+					if (full) {
+						sb.append("(nd StaticMesh (setVisible 1) (load ")
+								.append(robot.directory)
+								.append(mesh)
+								.append(robot.extension)
+								.append(") (sSc 1 1 1) (resetMaterials ")
+								.append(team == 0 ? "matLeft" : "matRight")
+								.append(" matNum")
+								.append(player)
+								.append(" naoBlack naoGrey naoWhite))");
+					} else {
+						sb.append("(nd)");
+					}
+				}
+				sb.append(')');
+			}
+			sb.append(')');
+		}
+
+		private void staticMesh(boolean full, String model, String scale, String material, float x, float y, float z)
+		{
+			if (!full) {
+				sb.append("(nd (nd))");
+				return;
+			}
+			sb.append("(nd TRF");
+			staticMatrix(x, y, z);
+			sb.append("(nd StaticMesh (setVisible 1) (load ")
+					.append(model)
+					.append(") (sSc ")
+					.append(scale)
+					.append(") (resetMaterials ")
+					.append(material)
+					.append(")))");
+		}
+
+		private void staticMatrix(float x, float y, float z)
+		{
+			sb.append(" (SLT 1 0 0 0 0 1 0 0 0 0 1 0 ");
+			number(x);
+			sb.append(' ');
+			number(y);
+			sb.append(' ');
+			number(z);
+			sb.append(" 1)");
+		}
+
+		/**
+		 * Appends a rotation about the z axis and a translation, with values in the precision
+		 * rcssserver3d prints them
+		 */
+		private void movingMatrix(float x, float y, float z)
+		{
+			double angle = random.nextDouble() * 2 * Math.PI;
+			float cos = (float) Math.cos(angle);
+			float sin = (float) Math.sin(angle);
+			float[] values = {cos, sin, 0, 0, -sin, cos, 0, 0, 0, 0, 1, 0, x + random.nextFloat() * 0.2f,
+					y + random.nextFloat() * 0.2f, z, 1};
+			sb.append(" (SLT");
+			for (float value : values) {
+				sb.append(' ');
+				number(value);
+			}
+			sb.append(')');
+		}
+
+		private void number(float value)
+		{
+			String s = String.format(Locale.US, "%.6g", value);
+			// like printf("%g"), without trailing zeros
+			if (s.indexOf('.') >= 0 && s.indexOf('e') < 0) {
+				int end = s.length();
+				while (s.charAt(end - 1) == '0')
+					end--;
+				if (s.charAt(end - 1) == '.')
+					end--;
+				s = s.substring(0, end);
+			}
+			if (s.equals("-0"))
+				s = "0";
+			sb.append(s);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package rv.comm.rcssserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing the numeric atoms of a diff frame (mostly SLT matrices) with the parsers of
+ * {@link SExp} compared with converting them to strings for the JDK parsers
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NumberParsingBenchmark
+{
+	@Param({"NAO", "T1", "K1"})
+	private MonitorFrames.Robot robot;
+
+	private byte[] data;
+
+	/** offset and length of each numeric atom */
+	private int[] atoms;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		String message = MonitorFrames.create(robot, MonitorFrames.Protocol.RSMP).getDiffFrames().get(0);
+		data = message.getBytes(StandardCharsets.UTF_8);
+		List<Integer> bounds = new ArrayList<>();
+		SExp.parse(data, 0, data.length, new SExpVisitor() {
+			@Override
+			public void enterList()
+			{
+			}
+
+			@Override
+			public void atom(byte[] atomData, int offset, int length)
+			{
+				char c = (char) atomData[offset];
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					bounds.add(offset);
+					bounds.add(length);
+				}
+			}
+
+			@Override
+			public void exitList()
+			{
+			}
+		});
+		atoms = bounds.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	@Benchmark
+	public void sexpParseDouble(Blackhole blackhole)
+	{
+		for (int i = 0; i < atoms.length; i += 2)
+			blackhole.consume(SExp.parseDouble(data, atoms[i], atoms[i + 1]));
+	}
+
+	@Benchmark
+	public void sexpParseFloat(Blackhole blackhole)
+	{
+		for (int i = 0; i < atoms.length; i += 2)
+			blackhole.consume(SExp.parseFloat(data, atoms[i], atoms[i + 1]));
+	}
+
+	@Benchmark
+	public void jdkParseDouble(Blackhole blackhole)
+	{
+		for (int i = 0; i < atoms.length; i += 2)
+			blackhole.consume(Double.parseDouble(new String(data, atoms[i], atoms[i + 1], StandardCharsets.UTF_8)));
+	}
+
+	@Benchmark
+	public void jdkParseFloat(Blackhole blackhole)
+	{
+		for (int i = 0; i < atoms.length; i += 2)
+			blackhole.consume(Float.parseFloat(new String(data, atoms[i], atoms[i + 1], StandardCharsets.UTF_8)));
+	}
+}
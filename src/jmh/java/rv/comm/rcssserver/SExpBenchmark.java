@@ -0,0 +1,93 @@
+package rv.comm.rcssserver;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing a monitor message into expression trees, compared with streaming it to a visitor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SExpBenchmark
+{
+	@Param({"NAO", "T1", "K1"})
+	private MonitorFrames.Robot robot;
+
+	@Param({"LEGACY", "RSMP"})
+	private MonitorFrames.Protocol protocol;
+
+	@Param({"full", "diff"})
+	private String frame;
+
+	private String message;
+	private byte[] data;
+	private final SExp.Builder recyclingBuilder = new SExp.Builder(true);
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		MonitorFrames frames = MonitorFrames.create(robot, protocol);
+		message = frame.equals("full") ? frames.getFullFrame() : frames.getDiffFrames().get(0);
+		data = message.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public List<SExp> parseString() throws ParseException
+	{
+		return SExp.parse(message);
+	}
+
+	@Benchmark
+	public List<SExp> parseBytes() throws ParseException
+	{
+		return SExp.parse(data, 0, data.length);
+	}
+
+	@Benchmark
+	public List<SExp> parseRecycled() throws ParseException
+	{
+		recyclingBuilder.reset();
+		SExp.parse(data, 0, data.length, recyclingBuilder);
+		return recyclingBuilder.getExpressions();
+	}
+
+	@Benchmark
+	public void stream(Blackhole blackhole) throws ParseException
+	{
+		SExp.parse(data, 0, data.length, new SExpVisitor() {
+			@Override
+			public void enterList()
+			{
+			}
+
+			@Override
+			public void atom(byte[] atomData, int offset, int length)
+			{
+				blackhole.consume(length);
+			}
+
+			@Override
+			public void exitList()
+			{
+			}
+		});
+	}
+}
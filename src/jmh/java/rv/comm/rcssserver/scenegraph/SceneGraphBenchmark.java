@@ -0,0 +1,99 @@
+package rv.comm.rcssserver.scenegraph;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rv.comm.rcssserver.MonitorFrames;
+import rv.comm.rcssserver.SExp;
+
+/**
+ * Constructing a scene graph from a full frame compared with updating it from diff frames, both
+ * with the expression tree walk of {@link SceneGraph#update(List)} and with the streamed diff of
+ * {@link SceneGraph#beginDiff()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SceneGraphBenchmark
+{
+	@Param({"NAO", "T1", "K1"})
+	private MonitorFrames.Robot robot;
+
+	private List<SExp> fullExpressions;
+	private boolean rsmp;
+	private SceneGraph sceneGraph;
+
+	/** the scene graph part of the diff frames as expressions and as text */
+	private List<SExp> diffExpressions;
+	private byte[] diffData;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		MonitorFrames frames = MonitorFrames.create(robot, MonitorFrames.Protocol.LEGACY);
+		rsmp = frames.isRSMP();
+		fullExpressions = frames.getFullSceneGraphExpressions();
+		sceneGraph = new SceneGraph(fullExpressions, rsmp);
+
+		diffExpressions = frames.getDiffSceneGraphExpressions(0);
+		StringBuilder sb = new StringBuilder();
+		for (SExp node : diffExpressions)
+			sb.append(toText(node));
+		diffData = sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String toText(SExp e)
+	{
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < e.getAtomCount(); i++)
+			sb.append(i > 0 ? " " : "").append(e.getAtom(i));
+		if (e.getChildren() != null) {
+			for (SExp child : e.getChildren())
+				sb.append(' ').append(toText(child));
+		}
+		return sb.append(')').toString();
+	}
+
+	@Benchmark
+	public SceneGraph construct()
+	{
+		return new SceneGraph(fullExpressions, rsmp);
+	}
+
+	@Benchmark
+	public SceneGraph updateFromExpressions()
+	{
+		sceneGraph.update(diffExpressions);
+		return sceneGraph;
+	}
+
+	@Benchmark
+	public SceneGraph parseAndUpdate() throws ParseException
+	{
+		sceneGraph.update(SExp.parse(diffData, 0, diffData.length));
+		return sceneGraph;
+	}
+
+	@Benchmark
+	public SceneGraph decodeAndApplyDiff() throws ParseException
+	{
+		SExp.parse(diffData, 0, diffData.length, sceneGraph.beginDiff());
+		sceneGraph.apply(sceneGraph.endDiff());
+		return sceneGraph;
+	}
+}
@@ -0,0 +1,412 @@
+package rv.comm.rcssserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+/**
+ * Reader for logfiles in the seekable block format of RoboViz, written by
+ * {@link BlockLogfileWriter}. The lines of the log are grouped into blocks that are compressed
+ * independently, so reaching any frame costs the decompression of at most one block.
+ * <p>
+ * Format (big endian): magic, version and codec, followed by the compressed blocks. Each block
+ * holds the lines of consecutive frames, every line terminated by a newline. The footer has one
+ * entry per block with its file offset, first frame and uncompressed size, followed by the
+ * number of frames, the number of blocks, the offset of the footer and the magic again.
+ */
+public class BlockLogfile implements ILogfileReader
+{
+	public static final String SUFFIX = ".rvl";
+
+	static final int MAGIC = 0x52564C42; // "RVLB"
+
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 9;
+
+	static final int BLOCK_ENTRY_SIZE = 16;
+
+	static final int TRAILER_SIZE = 20;
+
+	/** the compression used for the blocks */
+	public enum Codec {
+		/** best compression, close to a bzip2 compressed logfile of the same content */
+		BZIP2 {
+			@Override
+			OutputStream compress(OutputStream out) throws IOException
+			{
+				return new BZip2CompressorOutputStream(out, BZip2CompressorOutputStream.MAX_BLOCKSIZE);
+			}
+
+			@Override
+			InputStream decompress(InputStream in) throws IOException
+			{
+				return new BZip2CompressorInputStream(in);
+			}
+		},
+		/** larger files, but blocks decompress several times faster */
+		DEFLATE {
+			@Override
+			OutputStream compress(OutputStream out)
+			{
+				Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+				return new DeflaterOutputStream(out, deflater) {
+					@Override
+					public void close() throws IOException
+					{
+						try {
+							super.close();
+						} finally {
+							deflater.end();
+						}
+					}
+				};
+			}
+
+			@Override
+			InputStream decompress(InputStream in)
+			{
+				Inflater inflater = new Inflater();
+				return new InflaterInputStream(in, inflater) {
+					@Override
+					public void close() throws IOException
+					{
+						try {
+							super.close();
+						} finally {
+							inflater.end();
+						}
+					}
+				};
+			}
+		};
+
+		abstract OutputStream compress(OutputStream out) throws IOException;
+
+		abstract InputStream decompress(InputStream in) throws IOException;
+	}
+
+	/** the file to read from */
+	private final File logsrc;
+
+	private FileChannel channel;
+
+	private final Codec codec;
+
+	/** file offset of each block, followed by the offset of the footer */
+	private final long[] blockOffsets;
+
+	/** first frame of each block, followed by the number of frames */
+	private final int[] blockFirstFrames;
+
+	/** uncompressed size of each block */
+	private final int[] blockSizes;
+
+	/** the block whose lines are in {@link #blockLines}, -1 if none */
+	private int loadedBlock = -1;
+
+	private String[] blockLines;
+
+	/** index of the current frame */
+	private int curFramePtr;
+
+	/** stores the server message at the current frame position */
+	private String curFrameMsg;
+
+	/** the number of frames reported to users of the reader */
+	private int numFrames;
+
+	/** if we should execute draw commands */
+	private final boolean execDrawCmds;
+
+	private final List<LogfileListener> listeners = new ArrayList<>();
+
+	/**
+	 * @param file
+	 *            the logfile to open
+	 * @param execDrawCmds
+	 *            if draw commands should be executed
+	 * @throws IOException
+	 *             if the file can not be read or is not in the block format
+	 */
+	public BlockLogfile(File file, boolean execDrawCmds) throws IOException
+	{
+		this.logsrc = file;
+		this.execDrawCmds = execDrawCmds;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = read(0, HEADER_SIZE);
+			int magic = header.getInt();
+			int version = header.getInt();
+			int codecIndex = header.get();
+			if (magic != MAGIC || version != VERSION || codecIndex < 0 || codecIndex >= Codec.values().length) {
+				throw new IOException("Not a block logfile of a supported version: " + file);
+			}
+			codec = Codec.values()[codecIndex];
+
+			ByteBuffer trailer = read(channel.size() - TRAILER_SIZE, TRAILER_SIZE);
+			int frameCount = trailer.getInt();
+			int blockCount = trailer.getInt();
+			long footerOffset = trailer.getLong();
+			if (trailer.getInt() != MAGIC || blockCount < 0 ||
+					footerOffset + (long) blockCount * BLOCK_ENTRY_SIZE + TRAILER_SIZE != channel.size()) {
+				throw new IOException("Block logfile is truncated: " + file);
+			}
+
+			blockOffsets = new long[blockCount + 1];
+			blockFirstFrames = new int[blockCount + 1];
+			blockSizes = new int[blockCount];
+			ByteBuffer footer = read(footerOffset, blockCount * BLOCK_ENTRY_SIZE);
+			for (int i = 0; i < blockCount; i++) {
+				blockOffsets[i] = footer.getLong();
+				blockFirstFrames[i] = footer.getInt();
+				blockSizes[i] = footer.getInt();
+			}
+			blockOffsets[blockCount] = footerOffset;
+			blockFirstFrames[blockCount] = frameCount;
+			numFrames = frameCount;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		open();
+	}
+
+	/**
+	 * @return true if the file has the suffix of block logfiles
+	 */
+	public static boolean isBlockLogfile(File file)
+	{
+		return file.getName().toLowerCase().endsWith(SUFFIX);
+	}
+
+	/**
+	 * Opens a block logfile for sequential reading of its lines, decompressing one block at a time.
+	 */
+	public static InputStream newInputStream(File file) throws IOException
+	{
+		BlockLogfile logfile = new BlockLogfile(file, false);
+		return new InputStream() {
+			private int nextBlock = 0;
+
+			private ByteArrayInputStream block = new ByteArrayInputStream(new byte[0]);
+
+			@Override
+			public int read() throws IOException
+			{
+				return nextBlock() ? block.read() : -1;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException
+			{
+				return nextBlock() ? block.read(b, off, len) : -1;
+			}
+
+			private boolean nextBlock() throws IOException
+			{
+				while (block.available() == 0) {
+					if (nextBlock == logfile.blockSizes.length) {
+						return false;
+					}
+					block = new ByteArrayInputStream(logfile.readBlock(nextBlock++));
+				}
+				return true;
+			}
+
+			@Override
+			public void close() throws IOException
+			{
+				logfile.close();
+			}
+		};
+	}
+
+	private void open() throws IOException
+	{
+		if (!channel.isOpen()) {
+			channel = FileChannel.open(logsrc.toPath(), StandardOpenOption.READ);
+		}
+		curFramePtr = 0;
+		curFrameMsg = readFrame(0);
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException
+	{
+		if (position < 0) {
+			throw new IOException("Not a block logfile: " + logsrc);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of block logfile: " + logsrc);
+			}
+		}
+		return buffer.flip();
+	}
+
+	/**
+	 * @return the uncompressed lines of the block
+	 */
+	private byte[] readBlock(int block) throws IOException
+	{
+		ByteBuffer compressed = read(blockOffsets[block], (int) (blockOffsets[block + 1] - blockOffsets[block]));
+		try (InputStream in = codec.decompress(new ByteArrayInputStream(compressed.array()))) {
+			byte[] bytes = in.readNBytes(blockSizes[block]);
+			if (bytes.length != blockSizes[block]) {
+				throw new IOException("Block " + block + " of " + logsrc + " is corrupt");
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * @return the server message of the frame, or null past the end of the log
+	 */
+	private String readFrame(int frame) throws IOException
+	{
+		int frameCount = blockFirstFrames[blockFirstFrames.length - 1];
+		if (frame < 0 || frame >= frameCount) {
+			return null;
+		}
+
+		// blocks are never empty, so the first frames are distinct
+		int block = Arrays.binarySearch(blockFirstFrames, frame);
+		if (block < 0) {
+			block = -block - 2;
+		}
+		if (block != loadedBlock) {
+			byte[] bytes = readBlock(block);
+			String[] lines = new String[blockFirstFrames[block + 1] - blockFirstFrames[block]];
+			int start = 0;
+			for (int i = 0; i < lines.length; i++) {
+				int end = start;
+				while (bytes[end] != '\n') {
+					end++;
+				}
+				lines[i] = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+				start = end + 1;
+			}
+			blockLines = lines;
+			loadedBlock = block;
+		}
+		return Logfile.processDrawCmds(blockLines[frame - blockFirstFrames[block]], execDrawCmds, listeners);
+	}
+
+	@Override
+	public boolean isValid()
+	{
+		return channel != null;
+	}
+
+	@Override
+	public boolean isAtBeginningOfLog()
+	{
+		return curFramePtr == 0;
+	}
+
+	@Override
+	public boolean isAtEndOfLog()
+	{
+		return curFrameMsg == null;
+	}
+
+	@Override
+	public void setNumFrames(int numFrames)
+	{
+		this.numFrames = numFrames;
+	}
+
+	@Override
+	public int getNumFrames()
+	{
+		return numFrames;
+	}
+
+	@Override
+	public int getCurrentFrame()
+	{
+		return curFramePtr;
+	}
+
+	@Override
+	public String getCurrentFrameMessage()
+	{
+		return curFrameMsg;
+	}
+
+	@Override
+	public void rewind() throws IOException
+	{
+		open();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+		loadedBlock = -1;
+		blockLines = null;
+	}
+
+	@Override
+	public void stepForward() throws IOException
+	{
+		if (isAtEndOfLog())
+			return;
+
+		curFramePtr++;
+		curFrameMsg = readFrame(curFramePtr);
+	}
+
+	@Override
+	public void stepBackward() throws IOException
+	{
+		if (curFramePtr > 0) {
+			stepAnywhere(curFramePtr - 1);
+		}
+	}
+
+	@Override
+	public void stepAnywhere(int frame) throws IOException
+	{
+		frame = Math.max(0, Math.min(frame, blockFirstFrames[blockFirstFrames.length - 1]));
+		if (frame != curFramePtr) {
+			curFramePtr = frame;
+			curFrameMsg = readFrame(frame);
+		}
+	}
+
+	@Override
+	public void addListener(LogfileListener l)
+	{
+		listeners.add(l);
+	}
+
+	@Override
+	public void removeListener(LogfileListener l)
+	{
+		listeners.remove(l);
+	}
+
+	@Override
+	public File getFile()
+	{
+		return logsrc;
+	}
+}
@@ -0,0 +1,126 @@
+package rv.comm.rcssserver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import rv.comm.rcssserver.BlockLogfile.Codec;
+
+/**
+ * Writes logfiles in the seekable block format read by {@link BlockLogfile}. Frames are collected
+ * until the block reaches the block size, so a block always holds complete frames.
+ */
+public class BlockLogfileWriter implements Closeable
+{
+	/** uncompressed block size, the block size of bzip2 so the compression ratio is about the same */
+	public static final int DEFAULT_BLOCK_SIZE = 900 * 1000;
+
+	private final DataOutputStream out;
+
+	private final Codec codec;
+
+	private final int blockSize;
+
+	/** uncompressed lines of the block that is being collected */
+	private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+
+	/** footer entries of the blocks written so far */
+	private final List<long[]> blocks = new ArrayList<>();
+
+	/** number of bytes written to the file */
+	private long position;
+
+	private int frameCount;
+
+	private int blockFirstFrame;
+
+	/**
+	 * @param file
+	 *            the file to write, an existing file is replaced
+	 * @param codec
+	 *            the compression of the blocks
+	 * @param blockSize
+	 *            the uncompressed size in bytes at which a block is completed
+	 */
+	public BlockLogfileWriter(File file, Codec codec, int blockSize) throws IOException
+	{
+		this.codec = codec;
+		this.blockSize = blockSize;
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		out.writeInt(BlockLogfile.MAGIC);
+		out.writeInt(BlockLogfile.VERSION);
+		out.writeByte(codec.ordinal());
+		position = BlockLogfile.HEADER_SIZE;
+	}
+
+	/**
+	 * Appends a line of a logfile as the next frame.
+	 *
+	 * @param line
+	 *            the line without line terminator, including any draw commands
+	 */
+	public void addFrame(String line) throws IOException
+	{
+		if (line.indexOf('\n') >= 0) {
+			throw new IllegalArgumentException("Frame " + frameCount + " contains a line break");
+		}
+		block.write(line.getBytes(StandardCharsets.UTF_8));
+		block.write('\n');
+		frameCount++;
+		if (block.size() >= blockSize) {
+			writeBlock();
+		}
+	}
+
+	public int getFrameCount()
+	{
+		return frameCount;
+	}
+
+	private void writeBlock() throws IOException
+	{
+		if (block.size() == 0) {
+			return;
+		}
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(block.size() / 4);
+		try (OutputStream compressor = codec.compress(compressed)) {
+			block.writeTo(compressor);
+		}
+		compressed.writeTo(out);
+
+		blocks.add(new long[] {position, blockFirstFrame, block.size()});
+		position += compressed.size();
+		blockFirstFrame = frameCount;
+		block.reset();
+	}
+
+	/**
+	 * Writes the remaining frames and the block index.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try {
+			writeBlock();
+			for (long[] entry : blocks) {
+				out.writeLong(entry[0]);
+				out.writeInt((int) entry[1]);
+				out.writeInt((int) entry[2]);
+			}
+			out.writeInt(frameCount);
+			out.writeInt(blocks.size());
+			out.writeLong(position);
+			out.writeInt(BlockLogfile.MAGIC);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package rv.comm.rcssserver;
+
+import java.util.List;
+import rv.comm.rcssserver.scenegraph.SceneGraph;
+import rv.comm.rcssserver.scenegraph.SceneGraphUpdate;
+
+/**
+ * Immutable content of a decoded server message. Decoding does not touch the world model, so it can
+ * happen on the receiving thread without holding any lock. The update is applied to the world model
+ * afterwards by {@link MessageParser#apply(FrameUpdate)}.
+ */
+public final class FrameUpdate
+{
+	private final boolean supported;
+	private final boolean hasGlobalTime;
+	private final float globalTime;
+	private final List<SExp> gameState;
+	private final SceneGraph fullSceneGraph;
+	private final SceneGraphUpdate sceneGraphUpdate;
+	private final boolean gameStateEvents;
+	private final long decodedNanos;
+
+	FrameUpdate(boolean supported, boolean hasGlobalTime, float globalTime, List<SExp> gameState,
+			SceneGraph fullSceneGraph, SceneGraphUpdate sceneGraphUpdate, long decodedNanos)
+	{
+		this.supported = supported;
+		this.hasGlobalTime = hasGlobalTime;
+		this.globalTime = globalTime;
+		this.gameState = gameState;
+		this.fullSceneGraph = fullSceneGraph;
+		this.sceneGraphUpdate = sceneGraphUpdate;
+		this.decodedNanos = decodedNanos;
+		gameStateEvents = gameState != null && gameState.stream().anyMatch(e -> !e.atomEquals(0, GameState.TIME));
+	}
+
+	/**
+	 * @return false if the message uses an unsupported protocol version and has no content
+	 */
+	public boolean isSupported()
+	{
+		return supported;
+	}
+
+	public boolean hasGlobalTime()
+	{
+		return hasGlobalTime;
+	}
+
+	public float getGlobalTime()
+	{
+		return globalTime;
+	}
+
+	/**
+	 * @return the game state entries, e.g. (time 12.5), or null if the message contains none
+	 */
+	public List<SExp> getGameState()
+	{
+		return gameState;
+	}
+
+	/**
+	 * @return the new scene graph if the message contains a full scene graph, otherwise null
+	 */
+	public SceneGraph getFullSceneGraph()
+	{
+		return fullSceneGraph;
+	}
+
+	/**
+	 * @return the decoded diff if the message contains a diff scene graph, otherwise null
+	 */
+	public SceneGraphUpdate getSceneGraphUpdate()
+	{
+		return sceneGraphUpdate;
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} at which the message was decoded, for merged updates
+	 *         that of the oldest message
+	 */
+	public long getDecodedNanos()
+	{
+		return decodedNanos;
+	}
+
+	/**
+	 * @return true if the game state entries contain more than the time, e.g. a play mode change,
+	 *         a goal or a foul
+	 */
+	public boolean hasGameStateEvents()
+	{
+		return gameStateEvents;
+	}
+
+	/**
+	 * Combines this update with the update that follows it into one that leads to the same state.
+	 * Only updates that contain nothing but diffs and the time can be merged, so full scene graphs
+	 * and game state events are never lost.
+	 *
+	 * @return the combined update, or null if the updates cannot be merged
+	 */
+	public FrameUpdate merge(FrameUpdate next)
+	{
+		if (!isMergeable() || !next.isMergeable())
+			return null;
+
+		SceneGraphUpdate mergedSceneGraphUpdate;
+		if (sceneGraphUpdate == null) {
+			mergedSceneGraphUpdate = next.sceneGraphUpdate;
+		} else if (next.sceneGraphUpdate == null) {
+			mergedSceneGraphUpdate = sceneGraphUpdate;
+		} else {
+			mergedSceneGraphUpdate = sceneGraphUpdate.merge(next.sceneGraphUpdate);
+			if (mergedSceneGraphUpdate == null)
+				return null;
+		}
+
+		return new FrameUpdate(true, hasGlobalTime || next.hasGlobalTime,
+				next.hasGlobalTime ? next.globalTime : globalTime,
+				next.gameState != null ? next.gameState : gameState, null, mergedSceneGraphUpdate, decodedNanos);
+	}
+
+	private boolean isMergeable()
+	{
+		return supported && fullSceneGraph == null && !gameStateEvents;
+	}
+}
@@ -0,0 +1,131 @@
+package rv.comm.rcssserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads messages that are prefixed by their size as a 4 byte big-endian integer from a channel.
+ * All messages are read into the same buffer, which only grows when a message does not fit into
+ * it, so receiving a message does not allocate anything. Several messages are read from the
+ * channel at once if they are available, and are then returned one by one.
+ */
+public class FramedMessageReader
+{
+	private static final int HEADER_SIZE = 4;
+
+	private final ReadableByteChannel channel;
+
+	/**
+	 * Heap buffer so that messages can be parsed from its backing array in place. Bytes between
+	 * {@link #start} and the position have been read but not returned yet.
+	 */
+	private ByteBuffer buffer;
+
+	private int start;
+
+	private int messageOffset;
+
+	private int messageLength;
+
+	public FramedMessageReader(ReadableByteChannel channel, int initialCapacity)
+	{
+		this.channel = channel;
+		buffer = ByteBuffer.allocate(Math.max(HEADER_SIZE, initialCapacity));
+	}
+
+	/**
+	 * Reads the next message. Its bytes are valid until the next call.
+	 *
+	 * @return false if the channel has been closed or a message of size 0 was received
+	 */
+	public boolean next() throws IOException
+	{
+		// the previous message is no longer needed
+		start = messageOffset + messageLength;
+		if (start == buffer.position()) {
+			buffer.clear();
+			start = 0;
+		}
+		messageOffset = start;
+		messageLength = 0;
+
+		try {
+			fill(HEADER_SIZE);
+			int length = buffer.getInt(start);
+			if (length <= 0)
+				return false;
+			fill(HEADER_SIZE + length);
+			messageOffset = start + HEADER_SIZE;
+			messageLength = length;
+			return true;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the array containing the current message
+	 */
+	public byte[] getData()
+	{
+		return buffer.array();
+	}
+
+	/**
+	 * @return the index of the first byte of the current message in {@link #getData()}
+	 */
+	public int getOffset()
+	{
+		return messageOffset;
+	}
+
+	/**
+	 * @return the length of the current message in bytes
+	 */
+	public int getLength()
+	{
+		return messageLength;
+	}
+
+	/**
+	 * @return the current size of the buffer in bytes
+	 */
+	public int getCapacity()
+	{
+		return buffer.capacity();
+	}
+
+	/**
+	 * Reads from the channel until at least the given number of bytes after {@link #start} are
+	 * available
+	 */
+	private void fill(int size) throws IOException
+	{
+		if (start + size > buffer.capacity())
+			makeRoom(size);
+
+		while (buffer.position() - start < size) {
+			if (channel.read(buffer) < 0)
+				throw new EOFException();
+		}
+	}
+
+	/**
+	 * Moves the unreturned bytes to the front of the buffer, growing it if they would still not fit
+	 */
+	private void makeRoom(int size)
+	{
+		int available = buffer.position() - start;
+		if (size > buffer.capacity()) {
+			ByteBuffer grown = ByteBuffer.allocate(Math.max(size, 2 * buffer.capacity()));
+			grown.put(buffer.array(), start, available);
+			buffer = grown;
+		} else {
+			System.arraycopy(buffer.array(), start, buffer.array(), 0, available);
+			buffer.position(available);
+		}
+		start = 0;
+	}
+}
@@ -16,6 +16,9 @@
 
 package rv.comm.rcssserver;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -538,171 +541,13 @@ public class GameState implements ServerChangeListener
 			return;
 
 		String previousPlayMode = getPlayMode();
+		for (SExp se : exp)
+			parseEntry(se);
+		updatePlayModeHistory(previousPlayMode);
+	}
 
-		for (SExp se : exp) {
-			String[] atoms = se.getAtoms();
-
-			if (atoms != null) {
-				String atomName = atoms[0];
-
-				switch (atomName) {
-				case FIELD_LENGTH:
-					fieldLength = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case FIELD_WIDTH:
-					fieldWidth = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case FIELD_HEIGHT:
-					fieldHeight = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case GOAL_WIDTH:
-					goalWidth = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case GOAL_DEPTH:
-					goalDepth = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case GOAL_HEIGHT:
-					goalHeight = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case FREE_KICK_DST:
-					freeKickDist = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case CENTER_CIRCLE_RADIUS:
-					centerCircleRadius = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case CORNER_AREA_RADIUS:
-					cornerAreaRadius = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case PENALTY_SPOT_DISTANCE:
-					penaltySpotDistance = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case PENALTY_AREA_LENGTH:
-					penaltyAreaLength = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case PENALTY_AREA_WIDTH:
-					penaltyAreaWidth = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case GOALIE_AREA_LENGTH:
-					goalieAreaLength = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case GOALIE_AREA_WIDTH:
-					goalieAreaWidth = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case WAIT_BEFORE_KO:
-					waitBeforeKickoff = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case AGENT_RADIUS:
-					agentRadius = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case BALL_RADIUS:
-					ballRadius = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case BALL_MASS:
-					ballMass = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case RULE_GOAL_PAUSE_TIME:
-					ruleGoalPauseTime = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case RULE_KICK_PAUSE_TIME:
-					ruleKickPauseTime = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case RULE_HALF_TIME:
-					ruleHalfTime = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case PASS_MODE_MIN_OPP_BALL_DIST:
-					passModeValuesReported = true;
-					passModeMinOppBallDist = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case PASS_MODE_DURATION:
-					passModeValuesReported = true;
-					passModeDuration = Float.parseFloat(atoms[1]);
-					measureOrRuleChanges++;
-					break;
-				case PLAY_MODES:
-					playModes = new String[atoms.length - 1];
-					System.arraycopy(atoms, 1, playModes, 0, playModes.length);
-					playStateChanges++;
-					break;
-				case TIME:
-					time = Float.parseFloat(atoms[1]);
-					timeChanges++;
-					break;
-				case HALF:
-					half = Integer.parseInt(atoms[1]);
-					timeChanges++;
-					break;
-				case PLAY_MODE:
-					playModeIndex = Integer.parseInt(atoms[1]);
-					playStateChanges++;
-					break;
-				case TEAM_LEFT:
-					teamLeft = atoms[1];
-					playStateChanges++;
-					break;
-				case TEAM_RIGHT:
-					teamRight = atoms[1];
-					playStateChanges++;
-					break;
-				case SCORE_LEFT:
-					scoreLeft = Integer.parseInt(atoms[1]);
-					playStateChanges++;
-					break;
-				case SCORE_RIGHT:
-					scoreRight = Integer.parseInt(atoms[1]);
-					playStateChanges++;
-					break;
-				case FOUL:
-					Foul foul = new Foul();
-					foul.time = time;
-					if (atoms.length == 5) {
-						foul.index = Integer.parseInt(atoms[1]);
-						foul.type = GameState.FoulType.values()[Integer.parseInt(atoms[2])];
-						foul.team = Integer.parseInt(atoms[3]);
-						foul.agentID = Integer.parseInt(atoms[4]);
-					} else {
-						foul.type = GameState.FoulType.values()[Integer.parseInt(atoms[1])];
-						foul.team = Integer.parseInt(atoms[2]);
-						foul.agentID = Integer.parseInt(atoms[3]);
-					}
-					foul.receivedTime = System.currentTimeMillis();
-					addFoul(foul);
-					break;
-				case PASS_MODE_SCORE_WAIT_LEFT:
-					passModeValuesReported = true;
-					passModeScoreWaitLeft = Float.parseFloat(atoms[1]);
-					timeChanges++;
-					break;
-				case PASS_MODE_SCORE_WAIT_RIGHT:
-					passModeValuesReported = true;
-					passModeScoreWaitRight = Float.parseFloat(atoms[1]);
-					timeChanges++;
-					break;
-				}
-			}
-		}
-
+	private void updatePlayModeHistory(String previousPlayMode)
+	{
 		playModeJustChanged = !Objects.equals(previousPlayMode, getPlayMode());
 		if (playModeJustChanged) {
 			playModeHistory.add(new HistoryItem(time, getPlayMode()));
@@ -724,6 +569,134 @@ public class GameState implements ServerChangeListener
 		}
 	}
 
+	/**
+	 * Updates the state from a single entry such as (time 12.5)
+	 */
+	private void parseEntry(SExp se)
+	{
+		// the name is compared in place, so no string is created for it
+		if (se.atomEquals(0, FIELD_LENGTH)) {
+			fieldLength = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, FIELD_WIDTH)) {
+			fieldWidth = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, FIELD_HEIGHT)) {
+			fieldHeight = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, GOAL_WIDTH)) {
+			goalWidth = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, GOAL_DEPTH)) {
+			goalDepth = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, GOAL_HEIGHT)) {
+			goalHeight = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, FREE_KICK_DST)) {
+			freeKickDist = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, CENTER_CIRCLE_RADIUS)) {
+			centerCircleRadius = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, CORNER_AREA_RADIUS)) {
+			cornerAreaRadius = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, PENALTY_SPOT_DISTANCE)) {
+			penaltySpotDistance = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, PENALTY_AREA_LENGTH)) {
+			penaltyAreaLength = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, PENALTY_AREA_WIDTH)) {
+			penaltyAreaWidth = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, GOALIE_AREA_LENGTH)) {
+			goalieAreaLength = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, GOALIE_AREA_WIDTH)) {
+			goalieAreaWidth = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, WAIT_BEFORE_KO)) {
+			waitBeforeKickoff = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, AGENT_RADIUS)) {
+			agentRadius = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, BALL_RADIUS)) {
+			ballRadius = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, BALL_MASS)) {
+			ballMass = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, RULE_GOAL_PAUSE_TIME)) {
+			ruleGoalPauseTime = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, RULE_KICK_PAUSE_TIME)) {
+			ruleKickPauseTime = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, RULE_HALF_TIME)) {
+			ruleHalfTime = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, PASS_MODE_MIN_OPP_BALL_DIST)) {
+			passModeValuesReported = true;
+			passModeMinOppBallDist = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, PASS_MODE_DURATION)) {
+			passModeValuesReported = true;
+			passModeDuration = se.parseAtomFloat(1);
+			measureOrRuleChanges++;
+		} else if (se.atomEquals(0, PLAY_MODES)) {
+			playModes = new String[se.getAtomCount() - 1];
+			System.arraycopy(se.getAtoms(), 1, playModes, 0, playModes.length);
+			playStateChanges++;
+		} else if (se.atomEquals(0, TIME)) {
+			time = se.parseAtomFloat(1);
+			timeChanges++;
+		} else if (se.atomEquals(0, HALF)) {
+			half = se.parseAtomInt(1);
+			timeChanges++;
+		} else if (se.atomEquals(0, PLAY_MODE)) {
+			playModeIndex = se.parseAtomInt(1);
+			playStateChanges++;
+		} else if (se.atomEquals(0, TEAM_LEFT)) {
+			teamLeft = se.getAtom(1);
+			playStateChanges++;
+		} else if (se.atomEquals(0, TEAM_RIGHT)) {
+			teamRight = se.getAtom(1);
+			playStateChanges++;
+		} else if (se.atomEquals(0, SCORE_LEFT)) {
+			scoreLeft = se.parseAtomInt(1);
+			playStateChanges++;
+		} else if (se.atomEquals(0, SCORE_RIGHT)) {
+			scoreRight = se.parseAtomInt(1);
+			playStateChanges++;
+		} else if (se.atomEquals(0, FOUL)) {
+			Foul foul = new Foul();
+			foul.time = time;
+			if (se.getAtomCount() == 5) {
+				foul.index = se.parseAtomInt(1);
+				foul.type = GameState.FoulType.values()[se.parseAtomInt(2)];
+				foul.team = se.parseAtomInt(3);
+				foul.agentID = se.parseAtomInt(4);
+			} else {
+				foul.type = GameState.FoulType.values()[se.parseAtomInt(1)];
+				foul.team = se.parseAtomInt(2);
+				foul.agentID = se.parseAtomInt(3);
+			}
+			foul.receivedTime = System.currentTimeMillis();
+			addFoul(foul);
+		} else if (se.atomEquals(0, PASS_MODE_SCORE_WAIT_LEFT)) {
+			passModeValuesReported = true;
+			passModeScoreWaitLeft = se.parseAtomFloat(1);
+			timeChanges++;
+		} else if (se.atomEquals(0, PASS_MODE_SCORE_WAIT_RIGHT)) {
+			passModeValuesReported = true;
+			passModeScoreWaitRight = se.parseAtomFloat(1);
+			timeChanges++;
+		}
+	}
+
 	public void startParseStep()
 	{
 		for (ServerMessageReceivedListener l : smListeners)
@@ -758,6 +731,117 @@ public class GameState implements ServerChangeListener
 		}
 	}
 
+	/**
+	 * Writes everything that server messages can change, except for fouls, which are only shown
+	 * shortly after they were received.
+	 *
+	 * @see #readState(DataInput)
+	 */
+	public void writeState(DataOutput out) throws IOException
+	{
+		out.writeBoolean(initialized);
+		float[] values = {fieldLength, fieldWidth, fieldHeight, goalWidth, goalDepth, goalHeight, freeKickDist,
+				centerCircleRadius, cornerAreaRadius, penaltySpotDistance, penaltyAreaLength, penaltyAreaWidth,
+				goalieAreaLength, goalieAreaWidth, waitBeforeKickoff, agentRadius, ballRadius, ballMass,
+				ruleGoalPauseTime, ruleKickPauseTime, ruleHalfTime, passModeMinOppBallDist, passModeDuration,
+				passModeScoreWaitLeft, passModeScoreWaitRight, time};
+		for (float value : values)
+			out.writeFloat(value);
+		out.writeBoolean(passModeValuesReported);
+		out.writeInt(playModes != null ? playModes.length : -1);
+		if (playModes != null) {
+			for (String playMode : playModes)
+				out.writeUTF(playMode);
+		}
+		writeString(out, teamLeft);
+		writeString(out, teamRight);
+		out.writeInt(scoreLeft);
+		out.writeInt(scoreRight);
+		out.writeInt(playModeIndex);
+		out.writeBoolean(playModeJustChanged);
+		out.writeInt(playModeHistory.size());
+		for (HistoryItem item : playModeHistory) {
+			out.writeFloat(item.time());
+			writeString(out, item.playMode());
+		}
+		out.writeInt(half);
+		out.writeBoolean(penaltyShotStartTime != null);
+		if (penaltyShotStartTime != null)
+			out.writeFloat(penaltyShotStartTime);
+	}
+
+	/**
+	 * Restores a state written by {@link #writeState(DataOutput)} and notifies all listeners about
+	 * the change
+	 */
+	public void readState(DataInput in) throws IOException
+	{
+		initialized = in.readBoolean();
+		fieldLength = in.readFloat();
+		fieldWidth = in.readFloat();
+		fieldHeight = in.readFloat();
+		goalWidth = in.readFloat();
+		goalDepth = in.readFloat();
+		goalHeight = in.readFloat();
+		freeKickDist = in.readFloat();
+		centerCircleRadius = in.readFloat();
+		cornerAreaRadius = in.readFloat();
+		penaltySpotDistance = in.readFloat();
+		penaltyAreaLength = in.readFloat();
+		penaltyAreaWidth = in.readFloat();
+		goalieAreaLength = in.readFloat();
+		goalieAreaWidth = in.readFloat();
+		waitBeforeKickoff = in.readFloat();
+		agentRadius = in.readFloat();
+		ballRadius = in.readFloat();
+		ballMass = in.readFloat();
+		ruleGoalPauseTime = in.readFloat();
+		ruleKickPauseTime = in.readFloat();
+		ruleHalfTime = in.readFloat();
+		passModeMinOppBallDist = in.readFloat();
+		passModeDuration = in.readFloat();
+		passModeScoreWaitLeft = in.readFloat();
+		passModeScoreWaitRight = in.readFloat();
+		time = in.readFloat();
+		passModeValuesReported = in.readBoolean();
+		int playModeCount = in.readInt();
+		playModes = playModeCount >= 0 ? new String[playModeCount] : null;
+		for (int i = 0; i < playModeCount; i++)
+			playModes[i] = in.readUTF();
+		teamLeft = readString(in);
+		teamRight = readString(in);
+		scoreLeft = in.readInt();
+		scoreRight = in.readInt();
+		playModeIndex = in.readInt();
+		playModeJustChanged = in.readBoolean();
+		List<HistoryItem> history = new ArrayList<>();
+		int historySize = in.readInt();
+		for (int i = 0; i < historySize; i++)
+			history.add(new HistoryItem(in.readFloat(), readString(in)));
+		playModeHistory = history;
+		half = in.readInt();
+		penaltyShotStartTime = in.readBoolean() ? in.readFloat() : null;
+		fouls = new CopyOnWriteArrayList<>();
+
+		for (GameStateChangeListener l : listeners) {
+			l.gsPlayStateChanged(this);
+			l.gsTimeChanged(this);
+			l.gsMeasuresAndRulesChanged(this);
+		}
+	}
+
+	private static void writeString(DataOutput out, String value) throws IOException
+	{
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+
+	private static String readString(DataInput in) throws IOException
+	{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
 	@Override
 	public void connectionChanged(ServerComm server)
 	{
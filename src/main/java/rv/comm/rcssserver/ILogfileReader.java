@@ -3,12 +3,40 @@ package rv.comm.rcssserver;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public interface ILogfileReader extends Closeable
 {
 	interface LogfileListener
 	{
 		void haveDrawCmds();
+
+		/**
+		 * Receives a draw command that was stripped from a frame by a reader that does not execute
+		 * draw commands, so it can be executed with {@link Logfile#executeDrawCmd(String)} later
+		 */
+		default void skippedDrawCmd(String drawCmd)
+		{
+		}
+	}
+
+	/**
+	 * Opens a logfile with the reader that supports its format. Uncompressed logfiles are
+	 * memory-mapped, archives are read sequentially.
+	 *
+	 * @param execDrawCmds
+	 *            if draw commands in the logfile should be executed
+	 */
+	static ILogfileReader open(File file, boolean execDrawCmds) throws IOException
+	{
+		if (BlockLogfile.isBlockLogfile(file)) {
+			return new BlockLogfile(file, execDrawCmds);
+		}
+		if (LogfileIndex.isIndexable(file)) {
+			return new LogfileReaderRandomAccess(file, execDrawCmds);
+		}
+		return new Logfile(file, execDrawCmds);
 	}
 
 	/**
@@ -16,6 +44,14 @@ public interface ILogfileReader extends Closeable
 	 */
 	boolean isValid();
 
+	/**
+	 * @return true if the logfile is still being written, so frames may be appended after its end
+	 */
+	default boolean isFollowing()
+	{
+		return false;
+	}
+
 	boolean isAtBeginningOfLog();
 
 	boolean isAtEndOfLog();
@@ -28,6 +64,17 @@ public interface ILogfileReader extends Closeable
 
 	String getCurrentFrameMessage();
 
+	/**
+	 * @return the UTF-8 bytes of the server message at the current frame position, or null at the
+	 *         end of the log. Readers may reuse the buffer, so its content is only valid until the
+	 *         current frame changes.
+	 */
+	default ByteBuffer getCurrentFrameData()
+	{
+		String message = getCurrentFrameMessage();
+		return message != null ? ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)) : null;
+	}
+
 	/**
 	 * Switches back to the start of the logfile.
 	 */
@@ -40,11 +87,10 @@ public interface ILogfileReader extends Closeable
 	void close() throws IOException;
 
 	/**
-	 * Moves the current frame ahead by one frame.
-	 *
-	 * @return the line that was read
+	 * Moves the current frame ahead by one frame. The frame is only decoded once it is requested
+	 * with {@link #getCurrentFrameMessage()}.
 	 */
-	String stepForward() throws IOException;
+	void stepForward() throws IOException;
 
 	/**
 	 * Moves the current frame back by one frame.
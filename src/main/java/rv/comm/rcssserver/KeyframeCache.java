@@ -0,0 +1,301 @@
+package rv.comm.rcssserver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Snapshots of the world state taken every few frames of a logfile, so the log player can jump to
+ * any frame by restoring the closest snapshot before it and replaying the frames in between. Each
+ * keyframe consists of the message of the last full scene graph, which recreates the structure of
+ * the scene graph and is shared by all keyframes until the next full scene graph, and the state
+ * written by {@link rv.world.WorldModel#saveState()}.
+ * <p>
+ * Memory is bounded: when the keyframes exceed the limit, every other keyframe is dropped, which
+ * doubles the number of frames that may have to be replayed. If spilling is enabled, dropped
+ * keyframes are written to a temporary file instead and stay available. A structure counts towards
+ * the limit as long as a keyframe in memory uses it, and is spilled along with the states using it.
+ */
+public class KeyframeCache implements Closeable
+{
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	public record Keyframe(int frame, byte[] structure, byte[] state)
+	{
+	}
+
+	private static class Structure
+	{
+		/** the message, or null once it is only kept in the spill file */
+		byte[] data;
+		final int length;
+		long spillOffset = -1;
+
+		/** the number of keyframes in memory that use the structure */
+		int references;
+
+		Structure(byte[] data)
+		{
+			this.data = data;
+			length = data.length;
+		}
+	}
+
+	private static class Entry
+	{
+		final Structure structure;
+		byte[] state;
+		long spillOffset = -1;
+		int spillLength;
+
+		Entry(Structure structure, byte[] state)
+		{
+			this.structure = structure;
+			this.state = state;
+		}
+	}
+
+	/** frames between two keyframes, 0 if keyframes are disabled */
+	private final int interval;
+
+	/** bytes of keyframes kept in memory */
+	private final long memoryLimit;
+
+	private final boolean spill;
+
+	private final TreeMap<Integer, Entry> entries = new TreeMap<>();
+
+	private long memoryUsage;
+
+	/** structure of the last keyframe, to share it with the following keyframes */
+	private Structure lastStructure;
+
+	/** the message of the last structure as it was passed to {@link #add(int, byte[], byte[])} */
+	private byte[] lastStructureData;
+
+	/** only keyframes at multiples of interval * spacing are kept in memory */
+	private int spacing = 1;
+
+	private File spillFile;
+
+	private RandomAccessFile spillData;
+
+	/**
+	 * @param interval
+	 *            frames between two keyframes, 0 disables keyframes
+	 * @param memoryLimit
+	 *            bytes of keyframes to keep in memory
+	 * @param spill
+	 *            if keyframes that exceed the memory limit are written to a temporary file
+	 */
+	public KeyframeCache(int interval, long memoryLimit, boolean spill)
+	{
+		this.interval = Math.max(0, interval);
+		this.memoryLimit = memoryLimit;
+		this.spill = spill;
+	}
+
+	/**
+	 * @return true if a keyframe should be captured at the passed frame
+	 */
+	public synchronized boolean isDue(int frame)
+	{
+		if (interval == 0 || frame % interval != 0 || entries.containsKey(frame))
+			return false;
+		return spill || isInMemoryFrame(frame);
+	}
+
+	/**
+	 * @return the maximum number of frames between two keyframes kept in memory
+	 */
+	public synchronized int getInterval()
+	{
+		return interval * spacing;
+	}
+
+	/**
+	 * @return the number of keyframes, including spilled ones
+	 */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * @return the bytes of keyframes kept in memory
+	 */
+	public synchronized long getMemoryUsage()
+	{
+		return memoryUsage;
+	}
+
+	public synchronized void add(int frame, byte[] structure, byte[] state)
+	{
+		if (interval == 0)
+			return;
+
+		if (structure != lastStructureData) {
+			lastStructure = new Structure(structure);
+			lastStructureData = structure;
+		}
+		Entry entry = new Entry(lastStructure, state);
+		entries.put(frame, entry);
+
+		if (isInMemoryFrame(frame)) {
+			memoryUsage += state.length;
+			// the structure may have been dropped from memory when it was spilled
+			entry.structure.data = structure;
+			retain(entry.structure);
+		} else if (!spill || !writeSpilled(entry)) {
+			entries.remove(frame);
+		}
+
+		while (memoryUsage > memoryLimit && interval * spacing <= entries.lastKey() / 2) {
+			spacing *= 2;
+			Iterator<Map.Entry<Integer, Entry>> it = entries.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<Integer, Entry> e = it.next();
+				Entry evicted = e.getValue();
+				if (evicted.state != null && !isInMemoryFrame(e.getKey())) {
+					memoryUsage -= evicted.state.length;
+					if (!spill || !writeSpilled(evicted))
+						it.remove();
+					release(evicted.structure);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the last keyframe at or before the passed frame, or null if there is none
+	 */
+	public synchronized Keyframe get(int frame)
+	{
+		Map.Entry<Integer, Entry> e = entries.floorEntry(frame);
+		while (e != null) {
+			Entry entry = e.getValue();
+			byte[] structure = entry.structure.data;
+			if (structure == null)
+				structure = readSpilled(entry.structure.spillOffset, entry.structure.length);
+			byte[] state = entry.state;
+			if (state == null)
+				state = readSpilled(entry.spillOffset, entry.spillLength);
+			if (structure != null && state != null)
+				return new Keyframe(e.getKey(), structure, state);
+
+			entries.remove(e.getKey());
+			e = entries.floorEntry(frame);
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized void close()
+	{
+		entries.clear();
+		memoryUsage = 0;
+		lastStructure = null;
+		lastStructureData = null;
+		if (spillData != null) {
+			try {
+				spillData.close();
+			} catch (IOException e) {
+				// Ignore exception
+			}
+			spillFile.delete();
+			spillData = null;
+			spillFile = null;
+		}
+	}
+
+	private boolean isInMemoryFrame(int frame)
+	{
+		return frame % (interval * spacing) == 0;
+	}
+
+	/**
+	 * Counts a structure as used by one more keyframe in memory
+	 */
+	private void retain(Structure structure)
+	{
+		if (structure.references++ == 0)
+			memoryUsage += structure.length;
+	}
+
+	/**
+	 * Counts a structure as used by one keyframe less in memory, dropping it from memory once it is
+	 * only used by spilled keyframes
+	 */
+	private void release(Structure structure)
+	{
+		if (--structure.references == 0) {
+			memoryUsage -= structure.length;
+			if (structure.spillOffset >= 0)
+				structure.data = null;
+		}
+	}
+
+	/**
+	 * Moves the state of a keyframe to the spill file, along with its structure if that has not
+	 * been spilled yet
+	 *
+	 * @return false if the keyframe could not be written
+	 */
+	private boolean writeSpilled(Entry entry)
+	{
+		try {
+			if (spillData == null) {
+				spillFile = File.createTempFile("roboviz-keyframes", ".tmp");
+				spillFile.deleteOnExit();
+				spillData = new RandomAccessFile(spillFile, "rw");
+			}
+			Structure structure = entry.structure;
+			if (structure.spillOffset < 0) {
+				structure.spillOffset = write(structure.data);
+				if (structure.references == 0)
+					structure.data = null;
+			}
+			entry.spillOffset = write(entry.state);
+			entry.spillLength = entry.state.length;
+			entry.state = null;
+			return true;
+		} catch (IOException e) {
+			LOGGER.error("Unable to write keyframe", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Appends bytes to the spill file
+	 *
+	 * @return the offset they were written at
+	 */
+	private long write(byte[] data) throws IOException
+	{
+		long offset = spillData.length();
+		spillData.seek(offset);
+		spillData.write(data);
+		return offset;
+	}
+
+	private byte[] readSpilled(long offset, int length)
+	{
+		if (offset < 0 || spillData == null)
+			return null;
+		try {
+			byte[] data = new byte[length];
+			spillData.seek(offset);
+			spillData.readFully(data);
+			return data;
+		} catch (IOException e) {
+			LOGGER.error("Unable to read keyframe", e);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package rv.comm.rcssserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import rv.util.LatencyHistogram;
+
+/**
+ * Measures how long server messages take from being received until they are visible on screen.
+ * Each message is timestamped when it has been received and when it has been decoded, which is
+ * carried along by its {@link FrameUpdate}. The world model reports when an update has been
+ * applied and the renderer when a frame showing it has been rendered. Besides, the time the render
+ * thread spends swapping in published updates and the time between rendered frames are tracked.
+ */
+public class LatencyMonitor
+{
+	public enum Stage
+	{
+		/** from the complete message being read until it has been decoded */
+		RECEIVE_TO_PARSE("receive -> parse"),
+		/** from decoding until the update has been applied to the world model */
+		PARSE_TO_APPLY("parse -> apply"),
+		/** from applying an update until the end of the next rendered frame */
+		APPLY_TO_RENDER("apply -> render");
+
+		private final String label;
+
+		Stage(String label)
+		{
+			this.label = label;
+		}
+
+		public String getLabel()
+		{
+			return label;
+		}
+	}
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+	/** time the oldest update that has not been rendered yet was applied, 0 if there is none */
+	private final AtomicLong unrenderedSince = new AtomicLong();
+
+	private volatile long lastSwapNanos;
+	private volatile int lastSwapUpdateCount;
+	private volatile long maxSwapNanos;
+
+	private volatile double averageFrameTimeMS;
+	private volatile double frameTimeJitterMS;
+
+	public LatencyMonitor()
+	{
+		for (int i = 0; i < histograms.length; i++)
+			histograms[i] = new LatencyHistogram();
+	}
+
+	public LatencyHistogram getHistogram(Stage stage)
+	{
+		return histograms[stage.ordinal()];
+	}
+
+	public void record(Stage stage, long nanos)
+	{
+		histograms[stage.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Called after an update has been applied to the world model
+	 */
+	public void updateApplied(FrameUpdate update)
+	{
+		long now = System.nanoTime();
+		record(Stage.PARSE_TO_APPLY, now - update.getDecodedNanos());
+		unrenderedSince.compareAndSet(0, now);
+	}
+
+	/**
+	 * Called by the render thread after it has swapped in published updates
+	 *
+	 * @param count
+	 *            - the number of updates that were swapped in
+	 * @param nanos
+	 *            - the time it took
+	 */
+	public void updatesSwapped(int count, long nanos)
+	{
+		lastSwapNanos = nanos;
+		lastSwapUpdateCount = count;
+		maxSwapNanos = Math.max(maxSwapNanos, nanos);
+	}
+
+	/**
+	 * Called after a frame has been rendered
+	 *
+	 * @param averageFrameTimeMS
+	 *            - the moving average of the time between two frames
+	 * @param frameTimeJitterMS
+	 *            - the moving average of the deviation of the frame time from its average
+	 */
+	public void frameRendered(double averageFrameTimeMS, double frameTimeJitterMS)
+	{
+		this.averageFrameTimeMS = averageFrameTimeMS;
+		this.frameTimeJitterMS = frameTimeJitterMS;
+		long since = unrenderedSince.getAndSet(0);
+		if (since != 0)
+			record(Stage.APPLY_TO_RENDER, System.nanoTime() - since);
+	}
+
+	/**
+	 * @return the time it took to swap in the published updates the last time there were any
+	 */
+	public long getLastSwapNanos()
+	{
+		return lastSwapNanos;
+	}
+
+	/**
+	 * @return the number of updates swapped in the last time there were any
+	 */
+	public int getLastSwapUpdateCount()
+	{
+		return lastSwapUpdateCount;
+	}
+
+	/**
+	 * @return the longest time it took to swap in published updates since the last reset
+	 */
+	public long getMaxSwapNanos()
+	{
+		return maxSwapNanos;
+	}
+
+	public double getAverageFrameTimeMS()
+	{
+		return averageFrameTimeMS;
+	}
+
+	public double getFrameTimeJitterMS()
+	{
+		return frameTimeJitterMS;
+	}
+
+	public void reset()
+	{
+		for (LatencyHistogram histogram : histograms)
+			histogram.reset();
+		unrenderedSince.set(0);
+		maxSwapNanos = 0;
+	}
+
+	/**
+	 * Writes count, p50, p99 and max of each stage in milliseconds to a CSV file, followed by the
+	 * swap and frame times
+	 */
+	public void writeCsv(File file) throws IOException
+	{
+		try (PrintWriter out = new PrintWriter(file)) {
+			out.println("stage,count,p50_ms,p99_ms,max_ms");
+			for (Stage stage : Stage.values()) {
+				LatencyHistogram histogram = getHistogram(stage);
+				out.println(String.format(Locale.US, "%s,%d,%.3f,%.3f,%.3f", stage.name().toLowerCase(),
+						histogram.getCount(), histogram.getPercentileMillis(0.5), histogram.getPercentileMillis(0.99),
+						histogram.getMaxMillis()));
+			}
+			out.println();
+			out.println("metric,value");
+			out.println(String.format(Locale.US, "last_swap_ms,%.3f", lastSwapNanos / 1e6));
+			out.println("last_swap_updates," + lastSwapUpdateCount);
+			out.println(String.format(Locale.US, "max_swap_ms,%.3f", maxSwapNanos / 1e6));
+			out.println(String.format(Locale.US, "frame_time_ms,%.3f", averageFrameTimeMS));
+			out.println(String.format(Locale.US, "frame_time_jitter_ms,%.3f", frameTimeJitterMS));
+			if (out.checkError())
+				throw new IOException("Unable to write " + file);
+		}
+	}
+}
@@ -2,9 +2,18 @@ package rv.comm.rcssserver;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import rv.comm.rcssserver.GameState.Foul;
+import rv.comm.rcssserver.GameState.HistoryItem;
+import rv.comm.rcssserver.LogTimeline.Event;
+import rv.comm.rcssserver.LogTimeline.EventType;
 import rv.world.Team;
 import rv.world.WorldModel;
 
@@ -25,14 +34,20 @@ public class LogAnalyzerThread extends Thread
 
 	private static final Logger LOGGER = LogManager.getLogger();
 
-	private final File file;
+	/** the interval a logfile that is still being written is checked for new frames in */
+	private static final long FOLLOW_POLL_MILLIS = 100;
+
 	private final ResultCallback callback;
 
 	private WorldModel world;
 	private MessageParser parser;
-	private ILogfileReader logfile;
+	private final ILogfileReader logfile;
 	private int lastScoreLeft = -1;
 	private int lastScoreRight = -1;
+	private int lastHalf = -1;
+	private HistoryItem lastPlayMode;
+	/** the fouls of the game state that have been recorded, by identity */
+	private final Set<Foul> recordedFouls = Collections.newSetFromMap(new IdentityHashMap<>());
 	private int numPauseFrames = 0;
 	private Float startTime = null;
 	private Float lastTime = null;
@@ -40,12 +55,35 @@ public class LogAnalyzerThread extends Thread
 	private boolean aborted = false;
 	private final LogPlayer logPlayer;
 
-	public LogAnalyzerThread(File file, ResultCallback callback, LogPlayer logPlayer)
+	/** receives snapshots of the world state, since the log is parsed from the start anyway */
+	private final KeyframeCache keyframes;
+
+	/** the message of the last full scene graph, for keyframes */
+	private byte[] fullFrameMessage;
+
+	/** receives the events of the log, unless they have been stored by a previous analysis */
+	private final LogTimeline timeline;
+
+	/** set if the timeline has been loaded, so the log is only parsed for keyframes */
+	private boolean timelineLoaded;
+
+	/** the last frame that has been processed, to process each frame of a followed logfile once */
+	private int processedFrame = -1;
+
+	/**
+	 * @param logfile
+	 *            a reader of the logfile to analyze, positioned at the first frame, which is closed
+	 *            once the analysis is done
+	 */
+	public LogAnalyzerThread(ILogfileReader logfile, ResultCallback callback, LogPlayer logPlayer,
+			KeyframeCache keyframes, LogTimeline timeline)
 	{
 		super();
-		this.file = file;
+		this.logfile = logfile;
 		this.callback = callback;
 		this.logPlayer = logPlayer;
+		this.keyframes = keyframes;
+		this.timeline = timeline;
 	}
 
 	public void abort()
@@ -58,13 +96,21 @@ public class LogAnalyzerThread extends Thread
 	{
 		world = new WorldModel();
 		parser = new MessageParser(world);
-		logfile = null;
+		logfile.addListener(logPlayer);
 
-		try {
-			logfile = new LogfileReaderBuffered(new Logfile(file, false), 200);
-			logfile.addListener(logPlayer);
-		} catch (Exception e) {
-			LOGGER.error("Unable to open logfile", e);
+		File file = logfile.getFile();
+		Long checksum = null;
+		// a followed logfile is still growing, so its timeline is neither loaded nor stored
+		if (!logfile.isFollowing()) {
+			try {
+				checksum = LogTimeline.computeChecksum(file);
+				timelineLoaded = timeline.load(file, checksum);
+			} catch (IOException e) {
+				LOGGER.error("Unable to compute checksum of logfile " + file, e);
+			}
+		}
+		if (timelineLoaded) {
+			reportStoredTimeline();
 		}
 
 		while (!logfile.isAtEndOfLog() && !aborted) {
@@ -76,8 +122,15 @@ public class LogAnalyzerThread extends Thread
 			}
 		}
 		processFrame();
+		if (logfile.isFollowing()) {
+			followLogfile();
+		}
 
-		if (!aborted) {
+		if (!aborted && !timelineLoaded) {
+			timeline.finish(stepSize != null ? stepSize : Float.NaN, logfile.getNumFrames());
+			if (checksum != null) {
+				timeline.store(file, checksum);
+			}
 			callback.finished(logfile.getNumFrames());
 		}
 
@@ -88,18 +141,124 @@ public class LogAnalyzerThread extends Thread
 		}
 	}
 
+	/**
+	 * Keeps analyzing the frames appended to a logfile that is still being written, until the
+	 * analysis is aborted
+	 */
+	private void followLogfile()
+	{
+		while (!aborted) {
+			if (processedFrame != logfile.getCurrentFrame() && logfile.getCurrentFrameData() != null) {
+				processFrame();
+			} else if (!logfile.isAtEndOfLog()) {
+				try {
+					logfile.stepForward();
+				} catch (IOException e) {
+					LOGGER.error("Unable to read logfile", e);
+				}
+			} else {
+				try {
+					Thread.sleep(FOLLOW_POLL_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
 	private void processFrame()
 	{
-		String msg = logfile.getCurrentFrameMessage();
-		if (msg != null) {
+		ByteBuffer data = logfile.getCurrentFrameData();
+		if (data != null) {
+			processedFrame = logfile.getCurrentFrame();
 			try {
-				parser.parse(msg);
+				FrameUpdate update = parser.decode(data);
+				parser.apply(update);
+				if (update.getFullSceneGraph() != null) {
+					fullFrameMessage = new byte[data.remaining()];
+					data.get(fullFrameMessage);
+				}
 			} catch (ParseException e) {
 				LOGGER.error("Unable to parse frame message", e);
 			}
 
-			processGoals();
-			processStepSize();
+			if (!timelineLoaded) {
+				processEvents();
+				processGoals();
+				processStepSize();
+			}
+			processKeyframe();
+		}
+	}
+
+	/**
+	 * Reports the results of a previous analysis right away. The log is still parsed afterwards to
+	 * capture keyframes.
+	 */
+	private void reportStoredTimeline()
+	{
+		if (!Float.isNaN(timeline.getStepSize())) {
+			stepSize = timeline.getStepSize();
+			callback.stepSizeFound(stepSize, timeline.getNumFrames());
+		}
+		for (Event event : timeline.getEvents(EventType.SCORE)) {
+			if (!aborted) {
+				callback.goalFound(createGoal(event.frame(), event.team()));
+			}
+		}
+		if (!aborted) {
+			callback.finished(timeline.getNumFrames());
+		}
+	}
+
+	/**
+	 * Records play mode changes, kickoffs, fouls and half changes in the timeline
+	 */
+	private void processEvents()
+	{
+		GameState gameState = world.getGameState();
+		int frame = logfile.getCurrentFrame();
+
+		List<HistoryItem> history = gameState.getPlayModeHistory();
+		HistoryItem playMode = history.isEmpty() ? null : history.get(history.size() - 1);
+		if (playMode != null && playMode != lastPlayMode) {
+			timeline.add(new Event(EventType.PLAY_MODE, frame, playMode.time(), -1, 0, playMode.playMode()));
+			if (GameState.KICK_OFF_LEFT.equals(playMode.playMode())) {
+				timeline.add(new Event(EventType.KICK_OFF, frame, playMode.time(), Team.LEFT, 0, null));
+			} else if (GameState.KICK_OFF_RIGHT.equals(playMode.playMode())) {
+				timeline.add(new Event(EventType.KICK_OFF, frame, playMode.time(), Team.RIGHT, 0, null));
+			}
+		}
+		lastPlayMode = playMode;
+
+		List<Foul> fouls = gameState.getFouls();
+		for (Foul foul : fouls) {
+			if (recordedFouls.add(foul)) {
+				String type = foul.type != null ? foul.type.toString() : null;
+				timeline.add(new Event(EventType.FOUL, frame, foul.time, foul.team, foul.agentID, type));
+			}
+		}
+		recordedFouls.retainAll(fouls);
+
+		int half = gameState.getHalf();
+		if (lastHalf != -1 && half != lastHalf) {
+			timeline.add(new Event(EventType.HALF, frame, gameState.getTime(), -1, half, null));
+		}
+		lastHalf = half;
+	}
+
+	private void processKeyframe()
+	{
+		int frame = logfile.getCurrentFrame();
+		if (fullFrameMessage == null || !keyframes.isDue(frame))
+			return;
+
+		try {
+			byte[] state = world.saveState();
+			if (state != null && !aborted)
+				keyframes.add(frame, fullFrameMessage, state);
+		} catch (IOException e) {
+			LOGGER.error("Unable to capture keyframe", e);
 		}
 	}
 
@@ -117,10 +276,11 @@ public class LogAnalyzerThread extends Thread
 
 		if (scoringTeam != -1) {
 			int frame = logfile.getCurrentFrame();
-			int goalWindowFrames = Math.round((1 / stepSize) * LogPlayer.GOAL_WINDOW_SECONDS);
-			int viewFrame = Math.max(0, frame - goalWindowFrames);
+			int score = scoringTeam == Team.LEFT ? scoreLeft : scoreRight;
+			timeline.add(new Event(
+					EventType.SCORE, frame, world.getGameState().getTime(), scoringTeam, score, null));
 			if (!aborted) {
-				callback.goalFound(new Goal(frame, viewFrame, scoringTeam));
+				callback.goalFound(createGoal(frame, scoringTeam));
 			}
 		}
 
@@ -128,6 +288,13 @@ public class LogAnalyzerThread extends Thread
 		lastScoreRight = scoreRight;
 	}
 
+	private Goal createGoal(int frame, int scoringTeam)
+	{
+		int goalWindowFrames = stepSize != null ? Math.round((1 / stepSize) * LogPlayer.GOAL_WINDOW_SECONDS) : 0;
+		int viewFrame = Math.max(0, frame - goalWindowFrames);
+		return new Goal(frame, viewFrame, scoringTeam);
+	}
+
 	private void processStepSize()
 	{
 		if (stepSize != null)
@@ -0,0 +1,428 @@
+package rv.comm.rcssserver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+import jsgl.math.vector.Vec3d;
+import rv.comm.rcssserver.GameState.Foul;
+import rv.comm.rcssserver.scenegraph.SceneGraph;
+import rv.comm.rcssserver.scenegraph.StaticMeshNode;
+import rv.world.Team;
+import rv.world.WorldModel;
+import rv.world.objects.Ball;
+
+/**
+ * Extracts match statistics from many logfiles without opening a window. Every logfile is parsed
+ * into a {@link WorldModel} of its own, one logfile per task on a work-stealing pool, so the
+ * throughput scales with the number of cores. The statistics are written as CSV or JSON in the
+ * order of the logfiles, followed by the throughput on standard error.
+ * <p>
+ * Usage:
+ * {@code LogBatchAnalyzer [--format=csv|json] [--threads=<n>] [--output=<file>] <directory|logfile>...}
+ */
+public class LogBatchAnalyzer
+{
+	/** matches the logfiles in directories, but not the index and timeline files next to them */
+	private static final String LOGFILE_PATTERN = "(?i).*\\.(log|rvl|bz2|gz|zip|tbz2|tgz)$";
+
+	/** faster ball movements are considered to be the ball being placed by the server */
+	private static final double MAX_BALL_SPEED = 30;
+
+	public enum Format
+	{
+		CSV,
+		JSON
+	}
+
+	public record Goal(float time, int team)
+	{
+	}
+
+	/**
+	 * The statistics of a single match
+	 */
+	public static class MatchStatistics
+	{
+		final File file;
+		int frames;
+		float duration;
+		String teamLeft;
+		String teamRight;
+		int scoreLeft;
+		int scoreRight;
+		final List<Goal> goals = new ArrayList<>();
+		/** number of fouls by agent, e.g. "L7" for agent 7 of the left team */
+		final Map<String, Integer> fouls = new TreeMap<>();
+		/** seconds of game time spent in each play mode */
+		final Map<String, Double> playModeDurations = new LinkedHashMap<>();
+		double ballDistance;
+		/** the reason the logfile could not be analyzed completely, null if it could */
+		String error;
+
+		MatchStatistics(File file)
+		{
+			this.file = file;
+		}
+	}
+
+	/**
+	 * Parses all frames of a logfile and collects its statistics. Errors are recorded in the
+	 * statistics instead of being thrown, so a broken logfile does not stop a batch.
+	 */
+	public static MatchStatistics analyze(File file)
+	{
+		MatchStatistics stats = new MatchStatistics(file);
+		try (ILogfileReader logfile = ILogfileReader.open(file, false)) {
+			new MatchAnalysis(stats).run(logfile);
+		} catch (IOException | RuntimeException e) {
+			stats.error = e.toString();
+		}
+		return stats;
+	}
+
+	/**
+	 * Follows the world model of a match frame by frame
+	 */
+	private static class MatchAnalysis
+	{
+		private final MatchStatistics stats;
+		private final WorldModel world = new WorldModel();
+		private final MessageParser parser = new MessageParser(world);
+
+		private final Set<Foul> recordedFouls = Collections.newSetFromMap(new IdentityHashMap<>());
+		/** -1 until the first frame, so the score of a log starting mid-match is not counted as goals */
+		private int lastScoreLeft = -1;
+		private int lastScoreRight = -1;
+		private Float lastTime;
+		private String lastPlayMode;
+
+		private SceneGraph sceneGraph;
+		private StaticMeshNode ballNode;
+		private Vec3d lastBallPosition;
+		private float lastBallTime;
+
+		MatchAnalysis(MatchStatistics stats)
+		{
+			this.stats = stats;
+		}
+
+		void run(ILogfileReader logfile) throws IOException
+		{
+			while (true) {
+				ByteBuffer data = logfile.getCurrentFrameData();
+				if (data != null) {
+					try {
+						FrameUpdate update = parser.decode(data);
+						parser.apply(update);
+						if (update.isSupported()) {
+							processFrame();
+							stats.frames++;
+						}
+					} catch (ParseException e) {
+						// skip broken frames like the log player does
+					}
+				}
+				if (logfile.isAtEndOfLog()) {
+					break;
+				}
+				logfile.stepForward();
+			}
+			if (world.getSceneGraph() == null) {
+				stats.error = "No scene graph found";
+			}
+
+			GameState gameState = world.getGameState();
+			stats.teamLeft = gameState.getTeamLeft();
+			stats.teamRight = gameState.getTeamRight();
+			stats.scoreLeft = gameState.getScoreLeft();
+			stats.scoreRight = gameState.getScoreRight();
+			stats.duration = gameState.getTime();
+		}
+
+		private void processFrame()
+		{
+			GameState gameState = world.getGameState();
+			float time = gameState.getTime();
+			String playMode = gameState.getPlayMode();
+
+			if (lastTime != null && lastPlayMode != null && time > lastTime) {
+				stats.playModeDurations.merge(lastPlayMode, (double) (time - lastTime), Double::sum);
+			}
+			lastTime = time;
+			lastPlayMode = playMode;
+
+			if (lastScoreLeft != -1 && gameState.getScoreLeft() > lastScoreLeft) {
+				stats.goals.add(new Goal(time, Team.LEFT));
+			}
+			if (lastScoreRight != -1 && gameState.getScoreRight() > lastScoreRight) {
+				stats.goals.add(new Goal(time, Team.RIGHT));
+			}
+			lastScoreLeft = gameState.getScoreLeft();
+			lastScoreRight = gameState.getScoreRight();
+
+			List<Foul> fouls = gameState.getFouls();
+			for (Foul foul : fouls) {
+				if (recordedFouls.add(foul)) {
+					stats.fouls.merge(teamPrefix(foul.team) + foul.agentID, 1, Integer::sum);
+				}
+			}
+			recordedFouls.retainAll(fouls);
+
+			processBall(time);
+		}
+
+		private void processBall(float time)
+		{
+			if (world.getSceneGraph() != sceneGraph) {
+				sceneGraph = world.getSceneGraph();
+				ballNode = sceneGraph != null ? Ball.findNode(sceneGraph) : null;
+			}
+			if (ballNode == null) {
+				return;
+			}
+
+			Vec3d position = ballNode.getWorldTransform().transform(new Vec3d(0));
+			if (lastBallPosition != null) {
+				double distance = position.minus(lastBallPosition).length();
+				if (distance <= MAX_BALL_SPEED * Math.max(0, time - lastBallTime)) {
+					stats.ballDistance += distance;
+				}
+			}
+			lastBallPosition = position;
+			lastBallTime = time;
+		}
+	}
+
+	/**
+	 * @return the logfiles among the passed files and in the passed directories, in the order of
+	 *         their paths
+	 */
+	public static List<File> findLogfiles(List<File> inputs) throws IOException
+	{
+		List<File> logfiles = new ArrayList<>();
+		for (File input : inputs) {
+			if (!input.isDirectory()) {
+				logfiles.add(input);
+				continue;
+			}
+			try (Stream<Path> paths = Files.walk(input.toPath())) {
+				paths.filter(Files::isRegularFile)
+						.filter(path -> path.getFileName().toString().matches(LOGFILE_PATTERN))
+						.sorted()
+						.forEach(path -> logfiles.add(path.toFile()));
+			}
+		}
+		return logfiles;
+	}
+
+	private static void writeCsvHeader(PrintWriter out)
+	{
+		out.println("file,frames,duration,team_left,team_right,score_left,score_right,goals,fouls,play_modes," +
+					"ball_distance,error");
+	}
+
+	/**
+	 * Writes a CSV line. Goals are listed as team and time, e.g. "L@12.3;R@98.7", fouls as agent and
+	 * count, e.g. "L7=2", and play modes as name and seconds, e.g. "PlayOn=512.4".
+	 */
+	private static void writeCsv(PrintWriter out, MatchStatistics stats)
+	{
+		List<String> goals = new ArrayList<>();
+		for (Goal goal : stats.goals) {
+			goals.add(teamPrefix(goal.team()) + "@" + format(goal.time()));
+		}
+		List<String> fouls = new ArrayList<>();
+		stats.fouls.forEach((agent, count) -> fouls.add(agent + "=" + count));
+		List<String> playModes = new ArrayList<>();
+		stats.playModeDurations.forEach((playMode, seconds) -> playModes.add(playMode + "=" + format(seconds)));
+
+		out.println(String.join(",", csvField(stats.file.getPath()), Integer.toString(stats.frames),
+				format(stats.duration), csvField(stats.teamLeft), csvField(stats.teamRight),
+				Integer.toString(stats.scoreLeft), Integer.toString(stats.scoreRight),
+				csvField(String.join(";", goals)), csvField(String.join(";", fouls)),
+				csvField(String.join(";", playModes)), format(stats.ballDistance), csvField(stats.error)));
+	}
+
+	private static void writeJson(PrintWriter out, MatchStatistics stats, boolean first)
+	{
+		StringBuilder json = new StringBuilder(first ? "  {" : ",\n  {");
+		json.append("\"file\": ").append(jsonString(stats.file.getPath()));
+		json.append(", \"frames\": ").append(stats.frames);
+		json.append(", \"duration\": ").append(format(stats.duration));
+		json.append(", \"teamLeft\": ").append(jsonString(stats.teamLeft));
+		json.append(", \"teamRight\": ").append(jsonString(stats.teamRight));
+		json.append(", \"scoreLeft\": ").append(stats.scoreLeft);
+		json.append(", \"scoreRight\": ").append(stats.scoreRight);
+
+		json.append(", \"goals\": [");
+		for (int i = 0; i < stats.goals.size(); i++) {
+			Goal goal = stats.goals.get(i);
+			json.append(i > 0 ? ", " : "").append("{\"time\": ").append(format(goal.time()));
+			json.append(", \"team\": ").append(jsonString(goal.team() == Team.LEFT ? "left" : "right")).append("}");
+		}
+		json.append("], \"fouls\": {");
+		String separator = "";
+		for (Map.Entry<String, Integer> foul : stats.fouls.entrySet()) {
+			json.append(separator).append(jsonString(foul.getKey())).append(": ").append(foul.getValue());
+			separator = ", ";
+		}
+		json.append("}, \"playModes\": {");
+		separator = "";
+		for (Map.Entry<String, Double> playMode : stats.playModeDurations.entrySet()) {
+			json.append(separator).append(jsonString(playMode.getKey()));
+			json.append(": ").append(format(playMode.getValue()));
+			separator = ", ";
+		}
+		json.append("}, \"ballDistance\": ").append(format(stats.ballDistance));
+		json.append(", \"error\": ").append(jsonString(stats.error)).append("}");
+		out.print(json);
+	}
+
+	private static String teamPrefix(int team)
+	{
+		return team == Team.LEFT ? "L" : "R";
+	}
+
+	private static String format(double value)
+	{
+		return String.format(Locale.ROOT, "%.2f", value);
+	}
+
+	private static String csvField(String value)
+	{
+		if (value == null) {
+			return "";
+		}
+		if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+			return "\"" + value.replace("\"", "\"\"") + "\"";
+		}
+		return value;
+	}
+
+	private static String jsonString(String value)
+	{
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder json = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			switch (c) {
+			case '"' -> json.append("\\\"");
+			case '\\' -> json.append("\\\\");
+			case '\n' -> json.append("\\n");
+			case '\r' -> json.append("\\r");
+			case '\t' -> json.append("\\t");
+			default -> {
+				if (c < 0x20) {
+					json.append(String.format("\\u%04x", (int) c));
+				} else {
+					json.append(c);
+				}
+			}
+			}
+		}
+		return json.append('"').toString();
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		Format format = Format.CSV;
+		int threads = Runtime.getRuntime().availableProcessors();
+		File output = null;
+		List<File> inputs = new ArrayList<>();
+		boolean valid = true;
+
+		for (String arg : args) {
+			String value = arg.substring(arg.indexOf('=') + 1);
+			try {
+				if (arg.startsWith("--format=")) {
+					format = Format.valueOf(value.toUpperCase());
+				} else if (arg.startsWith("--threads=")) {
+					threads = Integer.parseInt(value);
+				} else if (arg.startsWith("--output=")) {
+					output = new File(value);
+				} else if (arg.startsWith("--")) {
+					valid = false;
+				} else {
+					inputs.add(new File(arg));
+				}
+			} catch (IllegalArgumentException e) {
+				valid = false;
+			}
+		}
+
+		if (!valid || inputs.isEmpty() || threads <= 0) {
+			System.err.println("Usage: LogBatchAnalyzer [--format=csv|json] [--threads=<n>] [--output=<file>] " +
+							   "<directory|logfile>...");
+			System.exit(1);
+		}
+		for (File input : inputs) {
+			if (!input.exists()) {
+				System.err.println("Logfile " + input + " does not exist");
+				System.exit(1);
+			}
+		}
+
+		List<File> logfiles = findLogfiles(inputs);
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		List<ForkJoinTask<MatchStatistics>> tasks = new ArrayList<>();
+		for (File logfile : logfiles) {
+			tasks.add(pool.submit(() -> analyze(logfile)));
+		}
+
+		long frames = 0;
+		int failed = 0;
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+					 output != null ? new FileOutputStream(output) : System.out, StandardCharsets.UTF_8))) {
+			if (format == Format.CSV) {
+				writeCsvHeader(out);
+			} else {
+				out.println("[");
+			}
+			for (int i = 0; i < tasks.size(); i++) {
+				// written in the order of the logfiles, while later logfiles are still being analyzed
+				MatchStatistics stats = tasks.get(i).join();
+				if (format == Format.CSV) {
+					writeCsv(out, stats);
+				} else {
+					writeJson(out, stats, i == 0);
+				}
+				out.flush();
+				frames += stats.frames;
+				if (stats.error != null) {
+					failed++;
+				}
+			}
+			if (format == Format.JSON) {
+				out.println(tasks.isEmpty() ? "]" : "\n]");
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf(Locale.ROOT,
+				"Analyzed %d logfiles (%d failed, %d frames) in %.1f s with %d threads, %.1f logs/min%n",
+				logfiles.size(), failed, frames, seconds, threads, logfiles.size() / seconds * 60);
+	}
+}
@@ -18,9 +18,12 @@ package rv.comm.rcssserver;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import jsgl.math.Maths;
@@ -29,7 +32,11 @@ import org.apache.logging.log4j.Logger;
 import org.magmaoffenburg.roboviz.configuration.Config.General;
 import org.magmaoffenburg.roboviz.rendering.Renderer;
 import rv.comm.rcssserver.ILogfileReader.LogfileListener;
+import rv.comm.rcssserver.KeyframeCache.Keyframe;
 import rv.comm.rcssserver.LogAnalyzerThread.Goal;
+import rv.comm.rcssserver.LogTimeline.Event;
+import rv.comm.rcssserver.LogTimeline.EventType;
+import rv.comm.rcssserver.scenegraph.SceneGraph;
 import rv.util.StringUtil;
 import rv.util.swing.FileChooser;
 import rv.world.WorldModel;
@@ -57,10 +64,42 @@ public class LogPlayer implements LogfileListener
 	public static final int GOAL_WINDOW_SECONDS = 12;
 	/** time within which to jump over goals for nicer stepping during playback */
 	private static final float GOAL_STEP_THRESHOLD_SECONDS = 3f;
+	/** seconds of playback that are read ahead of the current frame */
+	private static final float READ_AHEAD_SECONDS = 1f;
+	/** interval in which the effective frame rate of playback is measured */
+	private static final long FPS_INTERVAL_NANOS = 1_000_000_000L;
+
+	/**
+	 * The playback position at a point in time, from which the position at any later time follows.
+	 * Positions are derived from the elapsed time instead of summing up frame durations, so playback
+	 * does not drift no matter how long reading and parsing the frames takes.
+	 */
+	private record PlaybackClock(long startNanos, double startPosition, double speed, float secondsPerFrame)
+	{
+		double getPosition(long nanos)
+		{
+			return startPosition + (nanos - startNanos) / 1e9 * speed / secondsPerFrame;
+		}
+
+		long getNanos(double position)
+		{
+			return startNanos + Math.round((position - startPosition) * secondsPerFrame / speed * 1e9);
+		}
+	}
 
 	private ILogfileReader logfile;
+	/** reads frames ahead of playback, decorating logfile */
+	private LogfileReaderPrefetching prefetchingLogfile;
+	/** decompresses archives once for playback and analysis */
+	private SharedLogfile sharedLogfile;
+	/** frame offsets and full frames of uncompressed logfiles, completes with null for other logfiles */
+	private CompletableFuture<LogfileIndex> logfileIndex = CompletableFuture.completedFuture(null);
 	private LogRunnerThread logRunner;
 	private LogAnalyzerThread logAnalyzer;
+	private KeyframeCache keyframes;
+	/** the events found by the analyzer, or loaded from a previous analysis */
+	private volatile LogTimeline timeline = new LogTimeline();
+	private WorldModel world;
 	private final MessageParser parser;
 	private boolean playing;
 	private double playbackSpeed = 1;
@@ -71,6 +110,11 @@ public class LogPlayer implements LogfileListener
 	private int analyzedFrames = 0;
 	private boolean logfileHasDrawCmds = false;
 	private boolean foundStepSize = false;
+	/** set while following a logfile that is still being written */
+	private boolean following = false;
+	private volatile double effectiveFps = 0;
+	/** the clock playback follows, null while paused */
+	private volatile PlaybackClock clock;
 
 	/**
 	 * Default constructor. Opens the passed logfile and starts playing.
@@ -81,16 +125,34 @@ public class LogPlayer implements LogfileListener
 	 *            reference to the world model
 	 */
 	public LogPlayer(File file, WorldModel world)
+	{
+		this(file, world, false);
+	}
+
+	/**
+	 * Opens the passed logfile and starts playing.
+	 *
+	 * @param file
+	 *            the logfile to open
+	 * @param world
+	 *            reference to the world model
+	 * @param follow
+	 *            if the logfile is still being written, in which case playback follows its end
+	 *            with the delay configured in "Follow Delay". Only uncompressed logfiles can be
+	 *            followed.
+	 */
+	public LogPlayer(File file, WorldModel world, boolean follow)
 	{
 		playing = false;
+		this.world = world;
 		parser = new MessageParser(world);
 
 		if (!file.exists())
 			return;
 
-		openLogfile(file);
+		openLogfile(file, follow);
 
-		if (!logfile.isValid()) {
+		if (logfile == null || !logfile.isValid()) {
 			LOGGER.error("Logfile could not be loaded.");
 			return;
 		}
@@ -100,6 +162,7 @@ public class LogPlayer implements LogfileListener
 
 	public void setWorldModel(WorldModel world)
 	{
+		this.world = world;
 		parser.setWorldModel(world);
 	}
 
@@ -130,6 +193,11 @@ public class LogPlayer implements LogfileListener
 		return logfile != null && logfile.isAtBeginningOfLog();
 	}
 
+	public boolean isFollowing()
+	{
+		return following;
+	}
+
 	public boolean isAtEnd()
 	{
 		return logfile != null && logfile.isAtEndOfLog();
@@ -148,6 +216,40 @@ public class LogPlayer implements LogfileListener
 		return logfile.getCurrentFrame();
 	}
 
+	/**
+	 * @return the position of playback in frames. The integer part is the current frame, the
+	 *         fractional part is how far playback has progressed towards the next frame in the playback
+	 *         direction, so the renderer can interpolate between them. Without playback this is the
+	 *         current frame.
+	 */
+	public double getFramePosition()
+	{
+		int frame = getFrame();
+		PlaybackClock playbackClock = clock;
+		if (playbackClock == null) {
+			return frame;
+		}
+
+		// the current frame is shown until the next one is due
+		double position = playbackClock.getPosition(System.nanoTime());
+		if (playbackClock.speed() > 0) {
+			return Maths.clamp(position, frame, Math.nextDown(frame + 1.0));
+		}
+		return Maths.clamp(position, Math.nextUp(frame - 1.0), frame);
+	}
+
+	/**
+	 * @return how far playback has progressed from the previous frame to the current one, 1 while
+	 *         paused or stepping
+	 */
+	public double getFrameProgress()
+	{
+		if (clock == null) {
+			return 1;
+		}
+		return Math.abs(getFramePosition() - getFrame());
+	}
+
 	public int getNumFrames()
 	{
 		if (logfile == null) {
@@ -193,11 +295,28 @@ public class LogPlayer implements LogfileListener
 		return playbackSpeed;
 	}
 
+	/**
+	 * @return the number of frames per second playback should show at the current speed
+	 */
+	public double getTargetFps()
+	{
+		return Math.abs(playbackSpeed) / SECONDS_PER_FRAME;
+	}
+
+	/**
+	 * @return the number of frames per second that playback actually showed during the last second,
+	 *         0 while paused
+	 */
+	public double getEffectiveFps()
+	{
+		return effectiveFps;
+	}
+
 	private void parseFrame() throws ParseException
 	{
-		String msg = logfile.getCurrentFrameMessage();
-		if (msg != null)
-			parser.parse(msg);
+		ByteBuffer data = logfile.getCurrentFrameData();
+		if (data != null)
+			parser.parse(data);
 	}
 
 	public void stepBackward()
@@ -238,6 +357,43 @@ public class LogPlayer implements LogfileListener
 		}
 	}
 
+	/**
+	 * Jumps to the first event of the passed type after the current frame, if there is one
+	 */
+	public void stepForwardEvent(EventType type)
+	{
+		Event event = getNextEvent(type);
+		if (event != null) {
+			setDesiredFrame(event.frame());
+		}
+	}
+
+	/**
+	 * Jumps to the last event of the passed type before the current frame, if there is one
+	 */
+	public void stepBackwardEvent(EventType type)
+	{
+		Event event = getPreviousEvent(type);
+		if (event != null) {
+			setDesiredFrame(event.frame());
+		}
+	}
+
+	public Event getNextEvent(EventType type)
+	{
+		return timeline.getNext(type, getDesiredFrame());
+	}
+
+	public Event getPreviousEvent(EventType type)
+	{
+		return timeline.getPrevious(type, getDesiredFrame());
+	}
+
+	public LogTimeline getTimeline()
+	{
+		return timeline;
+	}
+
 	public String getFilePath()
 	{
 		if (logfile == null)
@@ -364,16 +520,20 @@ public class LogPlayer implements LogfileListener
 
 		File logFile = fileChooser.getSelectedFile();
 		if (logFile.exists()) {
-			openLogfile(logFile);
+			openLogfile(logFile, false);
 			rewind();
 			startRunnerThread();
 		}
 	}
 
 	/**
-	 * Creates a new instance of a buffered logfile reader representing the passed file.
+	 * Opens a reader for the passed file and starts analyzing it. Archives are decompressed once for
+	 * both.
+	 *
+	 * @param follow
+	 *            if the logfile is still being written
 	 */
-	private void openLogfile(File file)
+	private void openLogfile(File file, boolean follow)
 	{
 		try {
 			if (logfile != null) {
@@ -385,8 +545,44 @@ public class LogPlayer implements LogfileListener
 				logfileHasDrawCmds = false;
 				foundStepSize = false;
 			}
-			logfile = new LogfileReaderBuffered(new Logfile(file, true), 200);
+			if (logAnalyzer != null) {
+				logAnalyzer.abort();
+			}
+			if (sharedLogfile != null) {
+				sharedLogfile.close();
+				sharedLogfile = null;
+			}
+			following = follow && LogfileIndex.isIndexable(file) && !BlockLogfile.isBlockLogfile(file);
+			if (follow && !following) {
+				LOGGER.warn("Only uncompressed logfiles can be followed, playing " + file + " instead");
+			}
+			if (following) {
+				// frames written since the last read are only found by reading again, so none are read ahead
+				logfile = new LogfileReaderFollowing(file, true);
+			} else if (SharedLogfile.isSequential(file)) {
+				// the decompressed frames are kept in a temporary file, so they can be read in any order
+				sharedLogfile = new SharedLogfile(file);
+				logfile = sharedLogfile.newReader(false);
+			} else {
+				// the prefetcher executes the draw commands when their frame is shown
+				logfile = ILogfileReader.open(file, false);
+			}
+			logfileIndex = !following && LogfileIndex.isIndexable(file) && !BlockLogfile.isBlockLogfile(file)
+					? LogfileIndex.get(file)
+					: CompletableFuture.completedFuture(null);
+			if (following) {
+				prefetchingLogfile = null;
+			} else {
+				prefetchingLogfile = new LogfileReaderPrefetching(logfile);
+				logfile = prefetchingLogfile;
+			}
 			logfile.addListener(this);
+			if (keyframes != null) {
+				keyframes.close();
+			}
+			keyframes = new KeyframeCache(General.INSTANCE.getKeyframeInterval(),
+					General.INSTANCE.getKeyframeCacheSize() * 1024L * 1024L, General.INSTANCE.getSpillKeyframes());
+			timeline = new LogTimeline();
 			startAnalyzerThread(file);
 
 			for (StateChangeListener l : listeners)
@@ -405,12 +601,20 @@ public class LogPlayer implements LogfileListener
 		logRunner.start();
 	}
 
-	private void startAnalyzerThread(File file)
+	private void startAnalyzerThread(File file) throws IOException
 	{
 		if (logAnalyzer != null) {
 			logAnalyzer.abort();
 		}
-		logAnalyzer = new LogAnalyzerThread(file, new LogAnalyzerThread.ResultCallback() {
+		ILogfileReader analyzerLogfile;
+		if (following) {
+			analyzerLogfile = new LogfileReaderFollowing(file, false);
+		} else if (sharedLogfile != null) {
+			analyzerLogfile = sharedLogfile.newReader(false);
+		} else {
+			analyzerLogfile = ILogfileReader.open(file, false);
+		}
+		logAnalyzer = new LogAnalyzerThread(analyzerLogfile, new LogAnalyzerThread.ResultCallback() {
 			/*
 			  A reference to the logfile reader is stored locally in the beginning of each callback.
 			  This prevents a NullPointerException when logfile is suddenly set to null in another thread.
@@ -451,7 +655,7 @@ public class LogPlayer implements LogfileListener
 				analyzedFrames = numFrames;
 				stateChanged();
 			}
-		}, this);
+		}, this, keyframes, timeline);
 		logAnalyzer.start();
 	}
 
@@ -469,9 +673,21 @@ public class LogPlayer implements LogfileListener
 				// Ignore exception
 			}
 			logfile = null;
+			prefetchingLogfile = null;
 			for (StateChangeListener l : listeners)
 				l.logfileChanged();
 		}
+		if (keyframes != null) {
+			keyframes.close();
+		}
+		if (sharedLogfile != null) {
+			try {
+				sharedLogfile.close();
+			} catch (IOException e) {
+				// Ignore exception
+			}
+			sharedLogfile = null;
+		}
 
 		goals.clear();
 	}
@@ -480,6 +696,17 @@ public class LogPlayer implements LogfileListener
 	{
 		private boolean aborted;
 
+		/** the full scene graph message of the last restored keyframe and the scene graph built from it */
+		private byte[] restoredStructure;
+		private SceneGraph restoredSceneGraph;
+
+		/** the frames shown since the start of the interval the effective frame rate is measured in */
+		private int shownFrames;
+		private long fpsIntervalStart = System.nanoTime();
+
+		/** the frame playback was left at in the last iteration, to notice frames changed elsewhere */
+		private int scheduledFrame;
+
 		public void abort()
 		{
 			this.aborted = true;
@@ -495,35 +722,137 @@ public class LogPlayer implements LogfileListener
 				parseFrame();
 			} catch (Exception e) {
 			}
+			if (following) {
+				setDesiredFrame(getLiveFrame());
+			}
 
 			while (!aborted) {
-				if ((logfile.isAtEndOfLog() && playbackSpeed > 0) ||
+				// the end of a followed logfile is where playback waits for the next frames
+				if ((logfile.isAtEndOfLog() && playbackSpeed > 0 && !following) ||
 						(logfile.isAtBeginningOfLog() && playbackSpeed < 0))
 					pause();
 
+				updateReadAhead();
+
 				int previousFrame = getFrame();
-				int nextFrame = getFrame();
-				try {
-					float msPerFrame = SECONDS_PER_FRAME * 1000;
-					if (playing && playbackSpeed != 0) {
-						Thread.sleep(Math.abs((int) Math.round(msPerFrame / playbackSpeed)));
-						if (playbackSpeed > 0)
-							nextFrame++;
-						else
-							nextFrame--;
-					} else {
-						Thread.sleep(Math.round(msPerFrame));
-					}
-
-					if (desiredFrame != null) {
-						nextFrame = desiredFrame;
-						desiredFrame = null;
-					}
-				} catch (InterruptedException e) {
+				Integer nextFrame = desiredFrame;
+				boolean seek = nextFrame != null;
+				if (seek) {
+					desiredFrame = null;
+				} else {
+					nextFrame = getScheduledFrame(System.nanoTime());
 				}
 
 				setCurrentFrame(previousFrame, nextFrame);
+				if (seek) {
+					// continue playing from the new frame
+					clock = null;
+				} else {
+					measureFps(previousFrame);
+				}
+				scheduledFrame = getFrame();
 				stateChanged();
+
+				sleepUntilNextFrame();
+			}
+		}
+
+		/**
+		 * @return the frame that should be shown at the passed time, which may skip frames if reading
+		 *         them fell behind
+		 */
+		private int getScheduledFrame(long nanos)
+		{
+			if (!playing || playbackSpeed == 0) {
+				clock = null;
+				return getFrame();
+			}
+
+			PlaybackClock playbackClock = clock;
+			if (playbackClock == null || playbackClock.speed() != playbackSpeed ||
+					playbackClock.secondsPerFrame() != SECONDS_PER_FRAME || getFrame() != scheduledFrame) {
+				// start a new clock at the current frame
+				playbackClock = new PlaybackClock(nanos, getFrame(), playbackSpeed, SECONDS_PER_FRAME);
+				clock = playbackClock;
+			}
+
+			double position = playbackClock.getPosition(nanos);
+			int frame = (int) Math.max(0, playbackSpeed > 0 ? Math.floor(position) : Math.ceil(position));
+			if (following && playbackSpeed > 0) {
+				int liveFrame = getLiveFrame();
+				if (frame > liveFrame) {
+					// wait at the live edge and continue from there once the logfile has grown
+					clock = null;
+					return Math.max(getFrame(), liveFrame);
+				}
+			}
+			return frame;
+		}
+
+		/**
+		 * @return the frame that lies the follow delay before the last frame written so far
+		 */
+		private int getLiveFrame()
+		{
+			int delayFrames = (int) Math.round(General.INSTANCE.getFollowDelay() / SECONDS_PER_FRAME);
+			return Math.max(0, logfile.getNumFrames() - 1 - delayFrames);
+		}
+
+		/**
+		 * Sleeps until the next frame is due, or for the duration of one frame while paused
+		 */
+		private void sleepUntilNextFrame()
+		{
+			long sleepNanos = Math.round(SECONDS_PER_FRAME * 1e9);
+			PlaybackClock playbackClock = clock;
+			if (playbackClock != null) {
+				long nanos = System.nanoTime();
+				double position = playbackClock.getPosition(nanos);
+				double nextPosition = playbackClock.speed() > 0 ? Math.floor(position) + 1 : Math.ceil(position) - 1;
+				sleepNanos = Math.min(sleepNanos, playbackClock.getNanos(nextPosition) - nanos);
+			}
+
+			try {
+				if (sleepNanos > 0) {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				}
+			} catch (InterruptedException e) {
+			}
+		}
+
+		/**
+		 * Reads the frames ahead that are shown within the next {@link #READ_AHEAD_SECONDS} at the
+		 * current playback speed
+		 */
+		private void updateReadAhead()
+		{
+			LogfileReaderPrefetching prefetcher = prefetchingLogfile;
+			if (prefetcher == null) {
+				return;
+			}
+			if (playing && playbackSpeed != 0) {
+				int frames = (int) Math.ceil(getTargetFps() * READ_AHEAD_SECONDS);
+				prefetcher.setReadAhead(playbackSpeed > 0 ? 1 : -1, frames);
+			} else {
+				prefetcher.setReadAhead(1, 0);
+			}
+		}
+
+		private void measureFps(int previousFrame)
+		{
+			if (playing && getFrame() != previousFrame) {
+				shownFrames++;
+			}
+
+			long now = System.nanoTime();
+			if (now - fpsIntervalStart >= FPS_INTERVAL_NANOS) {
+				effectiveFps = playing ? shownFrames * 1e9 / (now - fpsIntervalStart) : 0;
+				if (playing && effectiveFps < 0.9 * getTargetFps()) {
+					LOGGER.debug(String.format(
+							"Playback at %.1f of %.1f frames per second", effectiveFps, getTargetFps()));
+				}
+				shownFrames = 0;
+				fpsIntervalStart = now;
 			}
 		}
 
@@ -546,7 +875,25 @@ public class LogPlayer implements LogfileListener
 
 		private void stepAnywhere(int frame) throws ParseException, IOException
 		{
-			// when jumping forwards we have to make sure not to jump over a full frame
+			if (restoreKeyframe(frame)) {
+				return;
+			}
+
+			LogfileIndex index = logfileIndex.getNow(null);
+			if (index != null && frame < index.getFrameCount()) {
+				// a diff only applies to the scene graph of the last full frame before it, so parse
+				// that one first unless it is the one the current frame is based on
+				int fullFrame = index.getFullFrameBefore(frame);
+				if (fullFrame >= 0 && fullFrame != frame && fullFrame != index.getFullFrameBefore(getFrame())) {
+					logfile.stepAnywhere(fullFrame);
+					parseFrame();
+				}
+				logfile.stepAnywhere(frame);
+				parseFrame();
+				return;
+			}
+
+			// without an index, when jumping forwards we have to make sure not to jump over a full frame
 			int currentFrame = frame;
 			boolean needHeader = true;
 			do {
@@ -562,6 +909,59 @@ public class LogPlayer implements LogfileListener
 				currentFrame--;
 			} while (needHeader && currentFrame >= 0);
 		}
+
+		/**
+		 * Reaches the passed frame by restoring the closest keyframe before it and replaying the
+		 * frames since, or by replaying the frames from the current one if that is closer.
+		 *
+		 * @return false if no keyframe has been captured for this part of the log yet
+		 */
+		private boolean restoreKeyframe(int frame) throws ParseException, IOException
+		{
+			KeyframeCache keyframeCache = keyframes;
+			if (keyframeCache == null) {
+				return false;
+			}
+
+			int current = getFrame();
+			Keyframe keyframe = keyframeCache.get(frame);
+			if (frame > current && (keyframe == null || keyframe.frame() <= current)) {
+				// replaying from the current frame is at least as fast as from the keyframe
+				if (frame - current > 2 * keyframeCache.getInterval()) {
+					return false;
+				}
+				replayTo(frame);
+				return true;
+			}
+			if (keyframe == null) {
+				return false;
+			}
+
+			// the scene graph restored last time can be reused if no other full scene graph came since
+			SceneGraph sceneGraph = parser.getDecodedSceneGraph();
+			if (keyframe.structure() != restoredStructure || sceneGraph != restoredSceneGraph) {
+				FrameUpdate update = parser.decode(keyframe.structure(), 0, keyframe.structure().length);
+				sceneGraph = update.getFullSceneGraph();
+				if (sceneGraph == null) {
+					return false;
+				}
+				restoredStructure = keyframe.structure();
+				restoredSceneGraph = sceneGraph;
+			}
+			world.restoreState(sceneGraph, keyframe.state());
+
+			logfile.stepAnywhere(keyframe.frame());
+			replayTo(frame);
+			return true;
+		}
+
+		private void replayTo(int frame) throws ParseException, IOException
+		{
+			while (getFrame() < frame && !logfile.isAtEndOfLog()) {
+				logfile.stepForward();
+				parseFrame();
+			}
+		}
 	}
 
 	@Override
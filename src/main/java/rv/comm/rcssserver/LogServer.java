@@ -0,0 +1,242 @@
+package rv.comm.rcssserver;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.magmaoffenburg.roboviz.configuration.Config.Networking;
+
+/**
+ * Stand-in for rcssserver3d that serves a logfile to monitors over TCP, using the same 4 byte
+ * length prefix as the real server. Every client that connects gets its own playback of the log
+ * from the first frame, so any number of monitors can be attached at the same time.
+ * <p>
+ * Usage: {@code LogServer [--port=<port>] [--speed=<factor>|max] [--step=<seconds>] [--loop] <logfile>}
+ */
+public class LogServer
+{
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** when a client falls further behind than this, the playback clock is restarted */
+	private static final long MAX_LAG_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final File file;
+
+	private final int port;
+
+	/** playback speed relative to real time, 0 sends frames as fast as the client reads them */
+	private final double speed;
+
+	/** seconds between two frames in real time */
+	private final double secondsPerFrame;
+
+	/** if playback restarts at the beginning of the log instead of disconnecting the client */
+	private final boolean loop;
+
+	private final AtomicInteger clientCount = new AtomicInteger();
+
+	private volatile ServerSocket serverSocket;
+
+	/**
+	 * @param file
+	 *            the logfile to serve, in any format supported by {@link ILogfileReader#open}
+	 * @param port
+	 *            the TCP port to listen on
+	 * @param speed
+	 *            playback speed relative to real time, 0 for as fast as possible
+	 * @param secondsPerFrame
+	 *            seconds between two frames at real time speed
+	 * @param loop
+	 *            if playback restarts when the end of the log is reached
+	 */
+	public LogServer(File file, int port, double speed, double secondsPerFrame, boolean loop)
+	{
+		this.file = file;
+		this.port = port;
+		this.speed = speed;
+		this.secondsPerFrame = secondsPerFrame;
+		this.loop = loop;
+	}
+
+	/**
+	 * Accepts clients until {@link #shutdown()} is called. Each client is served by its own thread.
+	 */
+	public void run() throws IOException
+	{
+		try (ServerSocket socket = new ServerSocket()) {
+			socket.setReuseAddress(true);
+			socket.bind(new InetSocketAddress(port));
+			serverSocket = socket;
+			LOGGER.info("Serving {} on port {} at {}", file, port, speed > 0 ? speed + "x speed" : "maximum speed");
+
+			while (!socket.isClosed()) {
+				Socket client;
+				try {
+					client = socket.accept();
+				} catch (SocketException e) {
+					// closed by shutdown()
+					break;
+				}
+				Thread session = new Thread(() -> serve(client), "LogServer-" + clientCount.incrementAndGet());
+				session.setDaemon(true);
+				session.start();
+			}
+		}
+	}
+
+	public void shutdown()
+	{
+		ServerSocket socket = serverSocket;
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Ignore exception
+			}
+		}
+	}
+
+	private void serve(Socket client)
+	{
+		String name = client.getRemoteSocketAddress().toString();
+		LOGGER.info("Client {} connected", name);
+
+		long frames = 0;
+		long bytes = 0;
+		long start = System.nanoTime();
+		ILogfileReader logfile = null;
+		try (client) {
+			try {
+				logfile = ILogfileReader.open(file, false);
+			} catch (IOException e) {
+				LOGGER.error("Unable to open logfile {}", file, e);
+				return;
+			}
+			if (!logfile.isValid()) {
+				LOGGER.error("Unable to open logfile {}", file);
+				return;
+			}
+
+			client.setTcpNoDelay(true);
+			InputStream in = client.getInputStream();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+			// frames are sent as they are stored in the log, without decoding them
+			WritableByteChannel channel = Channels.newChannel(out);
+			long frameNanos = speed > 0 ? Math.round(secondsPerFrame * 1e9 / speed) : 0;
+			long nextFrame = System.nanoTime();
+
+			while (true) {
+				ByteBuffer data = logfile.getCurrentFrameData();
+				if (data == null) {
+					if (!loop || logfile.getCurrentFrame() == 0) {
+						break;
+					}
+					logfile.rewind();
+					continue;
+				}
+
+				// commands sent by the monitor (kick off, agent placement...) are not supported
+				int available = in.available();
+				if (available > 0) {
+					in.skipNBytes(available);
+				}
+
+				if (frameNanos > 0) {
+					nextFrame += frameNanos;
+					long delay = nextFrame - System.nanoTime();
+					if (delay > 0) {
+						TimeUnit.NANOSECONDS.sleep(delay);
+					} else if (delay < -MAX_LAG_NANOS) {
+						nextFrame = System.nanoTime();
+					}
+				}
+
+				int length = data.remaining();
+				out.writeInt(length);
+				while (data.hasRemaining()) {
+					channel.write(data);
+				}
+				out.flush();
+				frames++;
+				bytes += length + 4;
+
+				logfile.stepForward();
+			}
+		} catch (IOException e) {
+			LOGGER.debug("Connection to client {} lost: {}", name, e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			LOGGER.error("Unable to serve logfile", e);
+		} finally {
+			if (logfile != null && logfile.isValid()) {
+				try {
+					logfile.close();
+				} catch (IOException e) {
+					// Ignore exception
+				}
+			}
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		LOGGER.info(String.format("Client %s disconnected after %d frames, %.1f s, %.1f frames/s, %.2f MB/s", name,
+				frames, seconds, frames / seconds, bytes / seconds / (1 << 20)));
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int port = Networking.INSTANCE.getDefaultServerPort();
+		double speed = 1;
+		double step = Networking.INSTANCE.getMonitorStep();
+		boolean loop = false;
+		File file = null;
+		boolean valid = true;
+
+		for (String arg : args) {
+			String value = arg.substring(arg.indexOf('=') + 1);
+			try {
+				if (arg.startsWith("--port=")) {
+					port = Integer.parseInt(value);
+				} else if (arg.startsWith("--speed=")) {
+					speed = value.equals("max") ? 0 : Double.parseDouble(value);
+				} else if (arg.startsWith("--step=")) {
+					step = Double.parseDouble(value);
+				} else if (arg.equals("--loop")) {
+					loop = true;
+				} else if (arg.startsWith("--")) {
+					valid = false;
+				} else {
+					file = new File(arg);
+				}
+			} catch (NumberFormatException e) {
+				valid = false;
+			}
+		}
+
+		if (!valid || file == null || speed < 0 || step <= 0) {
+			System.err.println(
+					"Usage: LogServer [--port=<port>] [--speed=<factor>|max] [--step=<seconds>] [--loop] <logfile>");
+			System.exit(1);
+		}
+		if (!file.isFile()) {
+			System.err.println("Logfile " + file + " does not exist");
+			System.exit(1);
+		}
+
+		LogServer server = new LogServer(file, port, speed, step, loop);
+		Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown));
+		server.run();
+	}
+}
@@ -0,0 +1,339 @@
+package rv.comm.rcssserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The events of a logfile by frame: play mode changes, kickoffs, fouls, half changes and score
+ * changes. Events are added in the order of their frames by {@link LogAnalyzerThread}, so the
+ * events of each type can be searched by frame with a binary search.
+ * <p>
+ * The timeline is stored next to the logfile with the suffix {@value #SUFFIX}, so it is available
+ * right away when the logfile is opened again. It is only used as long as the checksum of the
+ * logfile matches the one recorded in the timeline, see {@link #computeChecksum(File)}.
+ * <p>
+ * Format (big endian): magic, version, logfile checksum, logfile size, step size, number of
+ * frames, the distinct event descriptions, followed by the events as type, frame, time, team,
+ * value and description index.
+ */
+public class LogTimeline
+{
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	public static final String SUFFIX = ".timeline";
+
+	private static final int MAGIC = 0x5256544c; // "RVTL"
+
+	private static final int VERSION = 2;
+
+	/** the amount of bytes at the start and at the end of the logfile that are checksummed */
+	private static final int CHECKSUM_SAMPLE_SIZE = 1 << 20;
+
+	public enum EventType
+	{
+		/** the play mode changed, the description is the new play mode */
+		PLAY_MODE,
+		/** a kickoff was given to the team of the event */
+		KICK_OFF,
+		/** the agent with the value as number committed a foul, the description is its type */
+		FOUL,
+		/** the half changed, the value is the new half */
+		HALF,
+		/** the team of the event scored, the value is its new score */
+		SCORE
+	}
+
+	/**
+	 * @param team
+	 *            the team the event concerns, -1 if none
+	 */
+	public record Event(EventType type, int frame, float time, int team, int value, String description)
+	{
+	}
+
+	private final List<Event> events = new ArrayList<>();
+
+	private final Map<EventType, List<Event>> eventsByType = new EnumMap<>(EventType.class);
+
+	private float stepSize = Float.NaN;
+
+	private int numFrames;
+
+	public LogTimeline()
+	{
+		for (EventType type : EventType.values()) {
+			eventsByType.put(type, new ArrayList<>());
+		}
+	}
+
+	/**
+	 * Adds an event, which must not be at a frame before the last added event
+	 */
+	public synchronized void add(Event event)
+	{
+		events.add(event);
+		eventsByType.get(event.type()).add(event);
+	}
+
+	public synchronized void clear()
+	{
+		events.clear();
+		for (List<Event> typeEvents : eventsByType.values()) {
+			typeEvents.clear();
+		}
+		stepSize = Float.NaN;
+		numFrames = 0;
+	}
+
+	/**
+	 * @return a copy of all events in the order of their frames
+	 */
+	public synchronized List<Event> getEvents()
+	{
+		return new ArrayList<>(events);
+	}
+
+	/**
+	 * @return a copy of the events of a type in the order of their frames
+	 */
+	public synchronized List<Event> getEvents(EventType type)
+	{
+		return new ArrayList<>(eventsByType.get(type));
+	}
+
+	/**
+	 * @return the first event of the type after the passed frame, or null if there is none
+	 */
+	public synchronized Event getNext(EventType type, int frame)
+	{
+		List<Event> typeEvents = eventsByType.get(type);
+		int index = findFirstAfter(typeEvents, frame);
+		return index < typeEvents.size() ? typeEvents.get(index) : null;
+	}
+
+	/**
+	 * @return the last event of the type before the passed frame, or null if there is none
+	 */
+	public synchronized Event getPrevious(EventType type, int frame)
+	{
+		List<Event> typeEvents = eventsByType.get(type);
+		int index = findFirstAfter(typeEvents, frame - 1) - 1;
+		return index >= 0 ? typeEvents.get(index) : null;
+	}
+
+	/**
+	 * @return the index of the first event after the passed frame, or the number of events if there
+	 *         is none
+	 */
+	private static int findFirstAfter(List<Event> events, int frame)
+	{
+		int low = 0;
+		int high = events.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (events.get(mid).frame() <= frame) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the seconds per frame, NaN if they are not known
+	 */
+	public synchronized float getStepSize()
+	{
+		return stepSize;
+	}
+
+	public synchronized int getNumFrames()
+	{
+		return numFrames;
+	}
+
+	/**
+	 * Records the properties of the whole log once it has been analyzed
+	 */
+	public synchronized void finish(float stepSize, int numFrames)
+	{
+		this.stepSize = stepSize;
+		this.numFrames = numFrames;
+	}
+
+	public static File getTimelineFile(File logfile)
+	{
+		return new File(logfile.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Identifies the contents of a logfile without reading all of it, so the timeline is available
+	 * right away even for large logfiles.
+	 *
+	 * @return the CRC-32C of the size and modification time of the logfile and of its first and last
+	 *         megabyte
+	 */
+	public static long computeChecksum(File logfile) throws IOException
+	{
+		CRC32C crc = new CRC32C();
+		try (FileChannel channel = FileChannel.open(logfile.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			crc.update(ByteBuffer.allocate(2 * Long.BYTES).putLong(size).putLong(logfile.lastModified()).flip());
+
+			ByteBuffer buffer = ByteBuffer.allocateDirect(CHECKSUM_SAMPLE_SIZE);
+			update(crc, channel, buffer, 0);
+			if (size > CHECKSUM_SAMPLE_SIZE) {
+				update(crc, channel, buffer, Math.max(CHECKSUM_SAMPLE_SIZE, size - CHECKSUM_SAMPLE_SIZE));
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Adds the bytes of the channel starting at the passed position to the checksum, until the
+	 * buffer is full or the end of the channel is reached
+	 */
+	private static void update(CRC32C crc, FileChannel channel, ByteBuffer buffer, long position)
+			throws IOException
+	{
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				break;
+			}
+		}
+		crc.update(buffer.flip());
+	}
+
+	/**
+	 * Replaces the events with the stored timeline of the passed logfile.
+	 *
+	 * @return false if there is no stored timeline or it was written for different contents
+	 */
+	public boolean load(File logfile, long checksum)
+	{
+		File timelineFile = getTimelineFile(logfile);
+		if (!timelineFile.isFile()) {
+			return false;
+		}
+
+		try (DataInputStream in =
+						new DataInputStream(new BufferedInputStream(new FileInputStream(timelineFile)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != checksum ||
+					in.readLong() != logfile.length()) {
+				LOGGER.debug("Ignoring outdated timeline " + timelineFile);
+				return false;
+			}
+			float storedStepSize = in.readFloat();
+			int storedNumFrames = in.readInt();
+
+			String[] descriptions = new String[in.readInt()];
+			for (int i = 0; i < descriptions.length; i++) {
+				descriptions[i] = in.readUTF();
+			}
+
+			EventType[] types = EventType.values();
+			List<Event> stored = new ArrayList<>();
+			int eventCount = in.readInt();
+			for (int i = 0; i < eventCount; i++) {
+				EventType type = types[in.readByte()];
+				int frame = in.readInt();
+				float time = in.readFloat();
+				int team = in.readByte();
+				int value = in.readInt();
+				int description = in.readShort();
+				stored.add(new Event(type, frame, time, team, value,
+						description >= 0 ? descriptions[description] : null));
+			}
+
+			synchronized (this) {
+				clear();
+				for (Event event : stored) {
+					add(event);
+				}
+				finish(storedStepSize, storedNumFrames);
+			}
+			return true;
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Unable to read timeline " + timelineFile, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Stores the timeline next to the passed logfile. Failing to do so is not an error, since the
+	 * timeline can be created again.
+	 */
+	public void store(File logfile, long checksum)
+	{
+		File timelineFile = getTimelineFile(logfile);
+		File tmpFile = null;
+		try {
+			// write to a temporary file first so readers never see a partially written timeline
+			tmpFile = File.createTempFile(".timeline-", SUFFIX, timelineFile.getAbsoluteFile().getParentFile());
+			try (DataOutputStream out =
+							new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+				write(out, logfile.length(), checksum);
+			}
+			Files.move(tmpFile.toPath(), timelineFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOGGER.debug("Unable to store timeline " + timelineFile + ": " + e.getMessage());
+			if (tmpFile != null) {
+				tmpFile.delete();
+			}
+		}
+	}
+
+	private synchronized void write(DataOutputStream out, long logfileSize, long checksum) throws IOException
+	{
+		Map<String, Integer> descriptions = new HashMap<>();
+		List<String> distinctDescriptions = new ArrayList<>();
+		for (Event event : events) {
+			if (event.description() != null && !descriptions.containsKey(event.description())) {
+				descriptions.put(event.description(), distinctDescriptions.size());
+				distinctDescriptions.add(event.description());
+			}
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(checksum);
+		out.writeLong(logfileSize);
+		out.writeFloat(stepSize);
+		out.writeInt(numFrames);
+		out.writeInt(distinctDescriptions.size());
+		for (String description : distinctDescriptions) {
+			out.writeUTF(description);
+		}
+		out.writeInt(events.size());
+		for (Event event : events) {
+			out.writeByte(event.type().ordinal());
+			out.writeInt(event.frame());
+			out.writeFloat(event.time());
+			out.writeByte(event.team());
+			out.writeInt(event.value());
+			out.writeShort(event.description() != null ? descriptions.get(event.description()) : -1);
+		}
+	}
+}
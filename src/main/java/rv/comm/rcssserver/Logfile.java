@@ -29,7 +29,8 @@ import rv.comm.drawing.commands.Command;
 
 /**
  * Abstraction for a log that can be viewed frame by frame. Supports unpacked, single file zipped
- * and tar.bz2 files.
+ * and tar.bz2 files, although unpacked files are opened with {@link LogfileReaderRandomAccess} by
+ * {@link ILogfileReader#open(File, boolean)}.
  *
  * @author justin
  */
@@ -64,10 +65,10 @@ public class Logfile implements ILogfileReader
 	 *            the logfile to open
 	 * @param execDrawCmds
 	 *            if draw commands should be executed
-	 * @throws Exception
+	 * @throws IOException
 	 *             if the logfile can not be opened
 	 */
-	public Logfile(File file, boolean execDrawCmds) throws Exception
+	public Logfile(File file, boolean execDrawCmds) throws IOException
 	{
 		this.logsrc = file;
 		this.execDrawCmds = execDrawCmds;
@@ -137,7 +138,7 @@ public class Logfile implements ILogfileReader
 		return curFrameMsg;
 	}
 
-	private String setCurrentFrame(int frame) throws IOException
+	private void setCurrentFrame(int frame) throws IOException
 	{
 		if (frame < curFramePtr) {
 			// we have a sequential reader, for stepping backwards we have to start from beginning
@@ -145,11 +146,9 @@ public class Logfile implements ILogfileReader
 			open();
 		}
 
-		String line = curFrameMsg;
-		while (curFramePtr < frame && line != null) {
-			line = stepForward();
+		while (curFramePtr < frame && !isAtEndOfLog()) {
+			stepForward();
 		}
-		return line;
 	}
 
 	@Override
@@ -166,10 +165,10 @@ public class Logfile implements ILogfileReader
 	}
 
 	@Override
-	public String stepForward() throws IOException
+	public void stepForward() throws IOException
 	{
 		if (isAtEndOfLog())
-			return null;
+			return;
 
 		curFrameMsg = br.readLine();
 		if (curFrameMsg != null && curFrameMsg.startsWith("[")) {
@@ -183,7 +182,6 @@ public class Logfile implements ILogfileReader
 			// the number of frames was estimated too high
 			numFrames = curFramePtr + 1;
 		}
-		return curFrameMsg;
 	}
 
 	@Override
@@ -222,6 +220,19 @@ public class Logfile implements ILogfileReader
 	}
 
 	public String processDrawCmds(String line)
+	{
+		return processDrawCmds(line, execDrawCmds, listeners);
+	}
+
+	/**
+	 * Strips the draw commands a line of a logfile starts with, notifying the listeners about them.
+	 *
+	 * @param execDrawCmds
+	 *            if the stripped draw commands should be executed, otherwise they are passed to
+	 *            {@link LogfileListener#skippedDrawCmd(String)}
+	 * @return the server message of the line
+	 */
+	static String processDrawCmds(String line, boolean execDrawCmds, List<LogfileListener> listeners)
 	{
 		if (line == null) {
 			return null;
@@ -236,34 +247,45 @@ public class Logfile implements ILogfileReader
 				break;
 			}
 
+			String drawCmd = line.substring(0, endIndex);
 			if (execDrawCmds) {
-				String drawCmd = line.substring(0, endIndex);
-				String[] drawCmdByteValues = drawCmd.substring(1).split(",");
-				byte[] drawCmdBytes = new byte[drawCmdByteValues.length];
-				for (int i = 0; i < drawCmdBytes.length; i++) {
-					try {
-						drawCmdBytes[i] = Byte.parseByte(drawCmdByteValues[i].trim());
-					} catch (Exception e) {
-						LOGGER.error("Error parsing byte of draw command", e);
-					}
-				}
-				ByteBuffer buf = ByteBuffer.wrap(drawCmdBytes);
-
-				while (buf.hasRemaining()) {
-					Command cmd;
-					try {
-						cmd = Command.parse(buf);
-						if (cmd != null) {
-							cmd.execute();
-						}
-					} catch (Exception e) {
-						LOGGER.error("Error while executing draw command", e);
-					}
-				}
+				executeDrawCmd(drawCmd);
+			} else {
+				for (LogfileListener l : listeners)
+					l.skippedDrawCmd(drawCmd);
 			}
 			line = line.substring(endIndex + 1);
 		}
 
 		return line;
 	}
+
+	/**
+	 * Executes a draw command as stripped from a line of a logfile, e.g. "[1,0,2"
+	 */
+	static void executeDrawCmd(String drawCmd)
+	{
+		String[] drawCmdByteValues = drawCmd.substring(1).split(",");
+		byte[] drawCmdBytes = new byte[drawCmdByteValues.length];
+		for (int i = 0; i < drawCmdBytes.length; i++) {
+			try {
+				drawCmdBytes[i] = Byte.parseByte(drawCmdByteValues[i].trim());
+			} catch (Exception e) {
+				LOGGER.error("Error parsing byte of draw command", e);
+			}
+		}
+		ByteBuffer buf = ByteBuffer.wrap(drawCmdBytes);
+
+		while (buf.hasRemaining()) {
+			Command cmd;
+			try {
+				cmd = Command.parse(buf);
+				if (cmd != null) {
+					cmd.execute();
+				}
+			} catch (Exception e) {
+				LOGGER.error("Error while executing draw command", e);
+			}
+		}
+	}
 }
@@ -0,0 +1,102 @@
+package rv.comm.rcssserver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import org.magmaoffenburg.roboviz.util.ArchiveUtilKt;
+import rv.comm.rcssserver.BlockLogfile.Codec;
+
+/**
+ * Converts logfiles in any format supported by {@link Logfile} to the seekable block format of
+ * {@link BlockLogfile}.
+ * <p>
+ * Usage: {@code LogfileConverter [--codec=bzip2|deflate] [--block-size=<KB>] <logfile> [<output>]}
+ */
+public class LogfileConverter
+{
+	/**
+	 * Converts a logfile. The output is written to a temporary file first, so it is either complete
+	 * or does not exist.
+	 *
+	 * @return the number of frames of the logfile
+	 */
+	public static int convert(File input, File output, Codec codec, int blockSize) throws IOException
+	{
+		File temp = new File(output.getPath() + ".tmp");
+		try {
+			int frames;
+			try (BufferedReader reader = ArchiveUtilKt.createBufferedReader(input);
+					BlockLogfileWriter writer = new BlockLogfileWriter(temp, codec, blockSize)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					writer.addFrame(line);
+				}
+				frames = writer.getFrameCount();
+			}
+			Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return frames;
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/**
+	 * @return the name of the logfile without archive and log suffixes, followed by
+	 *         {@link BlockLogfile#SUFFIX}
+	 */
+	public static File getDefaultOutput(File input)
+	{
+		String name = input.getName().replaceFirst("(?i)(\\.log)?(\\.tar)?(\\.(bz2|gz|zip|tbz2|tgz))?$", "");
+		return new File(input.getParentFile(), name + BlockLogfile.SUFFIX);
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		Codec codec = Codec.BZIP2;
+		int blockSize = BlockLogfileWriter.DEFAULT_BLOCK_SIZE;
+		File input = null;
+		File output = null;
+		boolean valid = true;
+
+		for (String arg : args) {
+			String value = arg.substring(arg.indexOf('=') + 1);
+			try {
+				if (arg.startsWith("--codec=")) {
+					codec = Codec.valueOf(value.toUpperCase());
+				} else if (arg.startsWith("--block-size=")) {
+					blockSize = Math.multiplyExact(Integer.parseInt(value), 1000);
+				} else if (arg.startsWith("--") || output != null) {
+					valid = false;
+				} else if (input == null) {
+					input = new File(arg);
+				} else {
+					output = new File(arg);
+				}
+			} catch (IllegalArgumentException | ArithmeticException e) {
+				valid = false;
+			}
+		}
+
+		if (!valid || input == null || blockSize <= 0) {
+			System.err.println(
+					"Usage: LogfileConverter [--codec=bzip2|deflate] [--block-size=<KB>] <logfile> [<output>]");
+			System.exit(1);
+		}
+		if (!input.isFile()) {
+			System.err.println("Logfile " + input + " does not exist");
+			System.exit(1);
+		}
+		if (output == null) {
+			output = getDefaultOutput(input);
+		}
+
+		long start = System.nanoTime();
+		int frames = convert(input, output, codec, blockSize);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf(Locale.ROOT, "Converted %d frames to %s in %.1f s, %.1f MB -> %.1f MB%n", frames, output,
+				seconds, input.length() / 1e6, output.length() / 1e6);
+	}
+}
@@ -0,0 +1,320 @@
+package rv.comm.rcssserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.magmaoffenburg.roboviz.util.ArchiveUtilKt;
+
+/**
+ * Maps the frames of an uncompressed logfile to the byte offsets of their lines, so any frame can
+ * be read without reading the frames before it. The index also marks the frames that contain a
+ * full scene graph.
+ * <p>
+ * The index is stored next to the logfile with the suffix {@value #SUFFIX} and memory-mapped when
+ * the logfile is opened again. It is only used as long as the size and modification time of the
+ * logfile match the ones recorded in the index.
+ * <p>
+ * Format (big endian): magic, version, logfile size, logfile modification time, number of frames,
+ * padding, followed by one long per frame holding the byte offset of the frame and
+ * {@link #FULL_FRAME_FLAG} for full frames.
+ */
+public class LogfileIndex
+{
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	public static final String SUFFIX = ".idx";
+
+	private static final int MAGIC = 0x52564958; // "RVIX"
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 32;
+
+	private static final long FULL_FRAME_FLAG = 1L << 63;
+
+	private static final int READ_BUFFER_SIZE = 1 << 20;
+
+	/** builds that are still running, so readers opening the same logfile share them */
+	private static final Map<File, CompletableFuture<LogfileIndex>> pendingBuilds = new ConcurrentHashMap<>();
+
+	private final ByteBuffer entries;
+
+	private final int frameCount;
+
+	/** the frames that contain a full scene graph in ascending order, to find them by binary search */
+	private final int[] fullFrames;
+
+	private LogfileIndex(ByteBuffer entries, int frameCount)
+	{
+		this.entries = entries;
+		this.frameCount = frameCount;
+
+		int[] full = new int[16];
+		int fullCount = 0;
+		for (int frame = 0; frame < frameCount; frame++) {
+			if (isFullFrame(frame)) {
+				if (fullCount == full.length) {
+					full = Arrays.copyOf(full, fullCount * 2);
+				}
+				full[fullCount++] = frame;
+			}
+		}
+		fullFrames = Arrays.copyOf(full, fullCount);
+	}
+
+	public int getFrameCount()
+	{
+		return frameCount;
+	}
+
+	/**
+	 * @return the byte offset of the line holding the passed frame
+	 */
+	public long getOffset(int frame)
+	{
+		return entries.getLong(HEADER_SIZE + frame * Long.BYTES) & ~FULL_FRAME_FLAG;
+	}
+
+	/**
+	 * @return true if the passed frame contains a full scene graph instead of a diff
+	 */
+	public boolean isFullFrame(int frame)
+	{
+		return (entries.getLong(HEADER_SIZE + frame * Long.BYTES) & FULL_FRAME_FLAG) != 0;
+	}
+
+	/**
+	 * @return the last frame at or before the passed one that contains a full scene graph, or -1 if
+	 *         there is none
+	 */
+	public int getFullFrameBefore(int frame)
+	{
+		int i = Arrays.binarySearch(fullFrames, frame);
+		if (i >= 0) {
+			return fullFrames[i];
+		}
+		// the insertion point is the first full frame after the passed one
+		int before = -i - 2;
+		return before >= 0 ? fullFrames[before] : -1;
+	}
+
+	/**
+	 * @return true if the logfile is stored uncompressed, so frames can be read at their offsets
+	 */
+	public static boolean isIndexable(File logfile)
+	{
+		return !ArchiveUtilKt.isArchive(logfile);
+	}
+
+	public static File getIndexFile(File logfile)
+	{
+		return new File(logfile.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Returns the index of the passed logfile. A valid stored index is loaded right away, otherwise
+	 * the index is built in a background thread. The future completes with null if the index can
+	 * not be built.
+	 */
+	public static CompletableFuture<LogfileIndex> get(File logfile)
+	{
+		LogfileIndex index = load(logfile);
+		if (index != null) {
+			return CompletableFuture.completedFuture(index);
+		}
+
+		File key = logfile.getAbsoluteFile();
+		CompletableFuture<LogfileIndex> created = new CompletableFuture<>();
+		CompletableFuture<LogfileIndex> pending = pendingBuilds.putIfAbsent(key, created);
+		if (pending != null) {
+			return pending;
+		}
+
+		Thread builder = new Thread(() -> {
+			try {
+				created.complete(build(logfile));
+			} catch (IOException e) {
+				LOGGER.error("Unable to index logfile " + logfile, e);
+				created.complete(null);
+			} finally {
+				pendingBuilds.remove(key);
+			}
+		}, "LogfileIndex");
+		builder.setDaemon(true);
+		builder.start();
+		return created;
+	}
+
+	/**
+	 * @return the stored index of the passed logfile, or null if there is none or it is outdated
+	 */
+	public static LogfileIndex load(File logfile)
+	{
+		File indexFile = getIndexFile(logfile);
+		if (!indexFile.isFile()) {
+			return null;
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r"); FileChannel channel = raf.getChannel()) {
+			if (channel.size() < HEADER_SIZE) {
+				return null;
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			int frameCount = buffer.getInt(24);
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != logfile.length() ||
+					buffer.getLong(16) != logfile.lastModified() || frameCount < 0 ||
+					channel.size() != HEADER_SIZE + (long) frameCount * Long.BYTES) {
+				LOGGER.debug("Ignoring outdated index " + indexFile);
+				return null;
+			}
+			return new LogfileIndex(buffer, frameCount);
+		} catch (IOException e) {
+			LOGGER.error("Unable to read index " + indexFile, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the whole logfile to create its index and stores the index next to it. If the index can
+	 * not be stored, it is only kept in memory.
+	 */
+	public static LogfileIndex build(File logfile) throws IOException
+	{
+		long size = logfile.length();
+		long modified = logfile.lastModified();
+
+		long[] frames = new long[1024];
+		int frameCount = 0;
+		try (InputStream in = new FileInputStream(logfile)) {
+			HeaderScanner scanner = new HeaderScanner();
+			byte[] buffer = new byte[READ_BUFFER_SIZE];
+			long lineStart = 0;
+			long position = 0;
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				for (int i = 0; i < read; i++) {
+					byte b = buffer[i];
+					if (b == '\n') {
+						if (frameCount == frames.length) {
+							frames = Arrays.copyOf(frames, frameCount * 2);
+						}
+						frames[frameCount++] = lineStart | (scanner.isFullFrame() ? FULL_FRAME_FLAG : 0);
+						scanner.reset();
+						lineStart = position + i + 1;
+					} else {
+						scanner.accept(b);
+					}
+				}
+				position += read;
+			}
+			if (lineStart < position) {
+				// last line without line break
+				if (frameCount == frames.length) {
+					frames = Arrays.copyOf(frames, frameCount + 1);
+				}
+				frames[frameCount++] = lineStart | (scanner.isFullFrame() ? FULL_FRAME_FLAG : 0);
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + frameCount * Long.BYTES);
+		buffer.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(modified).putInt(frameCount).putInt(0);
+		buffer.asLongBuffer().put(frames, 0, frameCount);
+
+		File indexFile = getIndexFile(logfile);
+		File tmpFile = null;
+		try {
+			// write to a temporary file first so other readers never see a partially written index
+			tmpFile = File.createTempFile(".index-", SUFFIX, indexFile.getAbsoluteFile().getParentFile());
+			Files.write(tmpFile.toPath(), buffer.array());
+			Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOGGER.debug("Unable to store index " + indexFile + ", keeping it in memory: " + e.getMessage());
+			if (tmpFile != null) {
+				tmpFile.delete();
+			}
+		}
+		return new LogfileIndex(buffer, frameCount);
+	}
+
+	/**
+	 * Finds the scene graph header of a line, "(RSG 0 1)" for full frames of the legacy protocol and
+	 * "(sg 1 0) full" for full frames of RSMP.
+	 */
+	private static class HeaderScanner
+	{
+		private static final int LEGACY_FULL = 0x28525347; // "(RSG"
+		private static final int LEGACY_DIFF = 0x28524453; // "(RDS"
+		private static final int RSMP_HEADER = 0x28736720; // "(sg "
+		private static final int RSMP_FULL = 0x66756c6c; // "full"
+
+		private static final int SEARCHING = 0;
+		private static final int RSMP_VERSION = 1;
+		private static final int RSMP_TYPE = 2;
+		private static final int DONE = 3;
+
+		private int state;
+		private int window;
+		private int typeLength;
+		private boolean fullFrame;
+
+		void accept(byte b)
+		{
+			switch (state) {
+			case SEARCHING:
+				window = (window << 8) | (b & 0xff);
+				if (window == LEGACY_FULL) {
+					fullFrame = true;
+					state = DONE;
+				} else if (window == LEGACY_DIFF) {
+					state = DONE;
+				} else if (window == RSMP_HEADER) {
+					state = RSMP_VERSION;
+				}
+				break;
+			case RSMP_VERSION:
+				if (b == ')') {
+					window = 0;
+					state = RSMP_TYPE;
+				}
+				break;
+			case RSMP_TYPE:
+				if (b != ' ' || typeLength > 0) {
+					window = (window << 8) | (b & 0xff);
+					if (++typeLength == 4) {
+						fullFrame = window == RSMP_FULL;
+						state = DONE;
+					}
+				}
+				break;
+			default:
+				break;
+			}
+		}
+
+		boolean isFullFrame()
+		{
+			return fullFrame;
+		}
+
+		void reset()
+		{
+			state = SEARCHING;
+			window = 0;
+			typeLength = 0;
+			fullFrame = false;
+		}
+	}
+}
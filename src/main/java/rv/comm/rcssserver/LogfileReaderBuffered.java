@@ -18,24 +18,43 @@ package rv.comm.rcssserver;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
- * Decorator of logfile readers that adds buffering to speed up stepping backwards.
+ * Decorator of logfile readers that adds buffering to speed up stepping backwards. The frames are
+ * kept as UTF-8 bytes in a ring buffer that is limited by memory rather than by a number of frames,
+ * so the most recent frames that fit into the budget can be reached again without reading them
+ * from the decoratee.
  *
  * @author klaus
  */
 public class LogfileReaderBuffered implements ILogfileReader
 {
+	/**
+	 * the number of frames past the buffer that are read by stepping forward, targets further away
+	 * are reached by letting the decoratee seek
+	 */
+	private static final int SEEK_DISTANCE = 200;
+
 	/** the reader to decorate */
 	private final ILogfileReader decoratee;
 
-	/** the maximal size of the buffer */
-	private final int bufferSize;
+	/** the maximal number of bytes of the buffered frames */
+	private final long bufferSize;
+
+	/** buffer for the frame messages, used as a ring with a power of two size, null while closed */
+	private byte[][] buffer = new byte[64][];
+
+	/** the position of the oldest frame in the buffer */
+	private int bufferStart;
 
-	/** buffer for the frame messages */
-	private List<String> buffer;
+	/** the number of buffered frames */
+	private int bufferCount;
+
+	/** the number of bytes of the buffered frames */
+	private long bufferBytes;
 
 	/** the frame that is buffered at position 0 of the buffer */
 	private int bufferZeroFrame;
@@ -43,15 +62,18 @@ public class LogfileReaderBuffered implements ILogfileReader
 	/** index of the current Frame */
 	private int currentFrame;
 
+	/** the decoded message of the current frame, null if not decoded yet */
+	private String currentFrameMessage;
+
 	/**
 	 * Default constructor
 	 *
 	 * @param decoratee
 	 *            the logfile to open
 	 * @param bufferSize
-	 *            the number of frames to buffer
+	 *            the number of bytes of frames to buffer
 	 */
-	public LogfileReaderBuffered(ILogfileReader decoratee, int bufferSize)
+	public LogfileReaderBuffered(ILogfileReader decoratee, long bufferSize)
 	{
 		this.decoratee = decoratee;
 		this.bufferSize = bufferSize;
@@ -59,14 +81,65 @@ public class LogfileReaderBuffered implements ILogfileReader
 	}
 
 	/**
-	 * Opens the file for buffered reading
+	 * Starts buffering at the current frame of the decoratee
 	 */
 	private void open()
 	{
-		buffer = new LinkedList<>();
-		buffer.add(decoratee.getCurrentFrameMessage());
-		bufferZeroFrame = 0;
-		currentFrame = 0;
+		Arrays.fill(buffer, null);
+		bufferStart = 0;
+		bufferCount = 0;
+		bufferBytes = 0;
+		bufferZeroFrame = decoratee.getCurrentFrame();
+		currentFrame = bufferZeroFrame;
+		currentFrameMessage = null;
+		add(decoratee.getCurrentFrameData());
+	}
+
+	/**
+	 * Appends a frame to the buffer, dropping the oldest frames if it exceeds its size
+	 */
+	private void add(ByteBuffer data)
+	{
+		byte[] frame = null;
+		if (data != null) {
+			frame = new byte[data.remaining()];
+			data.get(frame);
+		}
+		int frameBytes = frame != null ? frame.length : 0;
+
+		while (bufferCount > 0 && bufferBytes + frameBytes > bufferSize) {
+			bufferBytes -= length(buffer[bufferStart]);
+			buffer[bufferStart] = null;
+			bufferStart = (bufferStart + 1) & (buffer.length - 1);
+			bufferCount--;
+			bufferZeroFrame++;
+		}
+
+		if (bufferCount == buffer.length) {
+			// unroll the ring into a buffer of twice the size
+			byte[][] grown = new byte[buffer.length * 2][];
+			int tail = buffer.length - bufferStart;
+			System.arraycopy(buffer, bufferStart, grown, 0, tail);
+			System.arraycopy(buffer, 0, grown, tail, bufferStart);
+			buffer = grown;
+			bufferStart = 0;
+		}
+		buffer[(bufferStart + bufferCount) & (buffer.length - 1)] = frame;
+		bufferCount++;
+		bufferBytes += frameBytes;
+	}
+
+	private static int length(byte[] frame)
+	{
+		return frame != null ? frame.length : 0;
+	}
+
+	/**
+	 * @return the bytes of the current frame
+	 */
+	private byte[] getCurrentFrameBytes()
+	{
+		return buffer[(bufferStart + getBufferIndex(currentFrame)) & (buffer.length - 1)];
 	}
 
 	@Override
@@ -84,7 +157,7 @@ public class LogfileReaderBuffered implements ILogfileReader
 	@Override
 	public boolean isAtEndOfLog()
 	{
-		return decoratee.isAtEndOfLog() && getBufferIndex(currentFrame) == buffer.size() - 1;
+		return decoratee.isAtEndOfLog() && getBufferIndex(currentFrame) == bufferCount - 1;
 	}
 
 	@Override
@@ -108,31 +181,52 @@ public class LogfileReaderBuffered implements ILogfileReader
 	@Override
 	public String getCurrentFrameMessage()
 	{
-		return buffer.get(getBufferIndex(currentFrame));
+		if (currentFrameMessage == null) {
+			byte[] frame = getCurrentFrameBytes();
+			if (frame != null) {
+				currentFrameMessage = new String(frame, StandardCharsets.UTF_8);
+			}
+		}
+		return currentFrameMessage;
 	}
 
-	private String setCurrentFrame(int frame) throws IOException
+	@Override
+	public ByteBuffer getCurrentFrameData()
+	{
+		byte[] frame = getCurrentFrameBytes();
+		return frame != null ? ByteBuffer.wrap(frame) : null;
+	}
+
+	private void moveTo(int frame)
+	{
+		if (frame != currentFrame) {
+			currentFrame = frame;
+			currentFrameMessage = null;
+		}
+	}
+
+	private void setCurrentFrame(int frame) throws IOException
 	{
 		int bufferIndex = getBufferIndex(frame);
-		if (bufferIndex < 0) {
-			// outside buffer left: fill buffer starting with beginning of file
-			rewind();
-			while (currentFrame < frame) {
+		if (bufferIndex < 0 || bufferIndex >= bufferCount + SEEK_DISTANCE) {
+			// far outside buffer: let the decoratee seek and fill the buffer with the frames before
+			decoratee.stepAnywhere(Math.max(0, frame - SEEK_DISTANCE / 2));
+			open();
+			while (currentFrame < frame && !isAtEndOfLog()) {
 				stepForward();
 			}
 
-		} else if (bufferIndex >= buffer.size()) {
+		} else if (bufferIndex >= bufferCount) {
 			// outside buffer right: fill buffer continuing from current position
-			currentFrame = bufferZeroFrame + buffer.size() - 1;
+			moveTo(bufferZeroFrame + bufferCount - 1);
 			while (currentFrame < frame && !isAtEndOfLog()) {
 				stepForward();
 			}
 
 		} else {
 			// we are still inside the buffer
-			currentFrame = frame;
+			moveTo(frame);
 		}
-		return getCurrentFrameMessage();
 	}
 
 	@Override
@@ -146,29 +240,28 @@ public class LogfileReaderBuffered implements ILogfileReader
 	public void close() throws IOException
 	{
 		decoratee.close();
-		buffer = null;
+		Arrays.fill(buffer, null);
+		bufferCount = 0;
+		bufferBytes = 0;
+		currentFrameMessage = null;
 	}
 
 	@Override
-	public String stepForward() throws IOException
+	public void stepForward() throws IOException
 	{
-		if (getBufferIndex(currentFrame) == buffer.size() - 1) {
+		if (getBufferIndex(currentFrame) == bufferCount - 1) {
 			// stepping outside buffer right side
-			String line = decoratee.stepForward();
-			if (line != null) {
-				buffer.add(line);
-				if (buffer.size() > bufferSize) {
-					// before exceeding specified size we remove oldest entry
-					buffer.remove(0);
-					bufferZeroFrame++;
-				}
-				currentFrame++;
+			int decorateeFrame = decoratee.getCurrentFrame();
+			decoratee.stepForward();
+			ByteBuffer data = decoratee.getCurrentFrameData();
+			if (decoratee.getCurrentFrame() != decorateeFrame && data != null) {
+				add(data);
+				moveTo(currentFrame + 1);
 			}
 		} else {
 			// we are inside the buffer
-			currentFrame++;
+			moveTo(currentFrame + 1);
 		}
-		return getCurrentFrameMessage();
 	}
 
 	@Override
@@ -0,0 +1,338 @@
+package rv.comm.rcssserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Log file reader that follows an uncompressed logfile while it is still being written, like
+ * {@code tail -f}, e.g. one recorded by another RoboViz instance or the sparkmonitor.log of a
+ * running simulator. A background thread polls the size of the file and appends the offsets of
+ * the lines written since to the frame index, so any frame written so far can be read.
+ * <p>
+ * Only complete lines are frames, a line that is still being written becomes one once its line
+ * break has been written. The end of the log is the last complete frame, which moves as the file
+ * grows. Polling backs off while the file does not grow, since a finished logfile never does again.
+ */
+public class LogfileReaderFollowing implements ILogfileReader
+{
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** the interval the file is polled in while it is growing */
+	private static final long MIN_POLL_MILLIS = 20;
+
+	/** the interval polling backs off to while the file is not growing */
+	private static final long MAX_POLL_MILLIS = 1000;
+
+	private static final int READ_BUFFER_SIZE = 1 << 20;
+
+	/** the file to read from */
+	private final File logsrc;
+
+	private final FileChannel channel;
+
+	/** the start offsets of the complete lines, followed by the start of the next line */
+	private long[] lineStarts = new long[1024];
+
+	private int frameCount;
+
+	/** the offset up to which the file has been searched for line breaks */
+	private long scanPosition;
+
+	private final ByteBuffer scanBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+	/** index of the current frame */
+	private int framePtr;
+
+	/** holds the bytes of the current frame, grown to the longest frame read so far */
+	private ByteBuffer frameBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+	/** the bytes of the server message at the current frame position, null until it is written */
+	private ByteBuffer curFrameData;
+
+	/** stores the server message at the current frame position, decoded when requested */
+	private String curFrameMsg;
+
+	/** if we should execute draw commands */
+	private final boolean execDrawCmds;
+
+	private final List<LogfileListener> listeners = new ArrayList<>();
+
+	private volatile boolean closed;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param file
+	 *            the logfile, which may still be empty
+	 * @param execDrawCmds
+	 *            if draw commands should be executed
+	 * @throws IOException
+	 *             in case the logfile could not be opened
+	 */
+	public LogfileReaderFollowing(File file, boolean execDrawCmds) throws IOException
+	{
+		logsrc = file;
+		this.execDrawCmds = execDrawCmds;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		scan();
+		setFrame(0);
+
+		Thread follower = new Thread(this::follow, "LogfileFollower");
+		follower.setDaemon(true);
+		follower.start();
+	}
+
+	/**
+	 * Polls the file for new lines until the reader is closed
+	 */
+	private void follow()
+	{
+		long pollMillis = MIN_POLL_MILLIS;
+		while (!closed) {
+			synchronized (this) {
+				try {
+					wait(pollMillis);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			try {
+				pollMillis = scan() > 0 ? MIN_POLL_MILLIS : Math.min(pollMillis * 2, MAX_POLL_MILLIS);
+			} catch (IOException e) {
+				if (!closed) {
+					LOGGER.error("Unable to read logfile " + logsrc, e);
+					pollMillis = MAX_POLL_MILLIS;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Searches the part of the file written since the last scan for line breaks. Scanning only happens
+	 * in the constructor and the follower thread, only the found frames are shared.
+	 *
+	 * @return the number of frames found
+	 */
+	private int scan() throws IOException
+	{
+		long size = channel.size();
+		if (size < scanPosition) {
+			LOGGER.warn("Logfile " + logsrc + " was truncated, reading it from the start");
+			synchronized (this) {
+				frameCount = 0;
+				scanPosition = 0;
+				setFrame(0);
+			}
+		}
+
+		int found = 0;
+		while (scanPosition < size) {
+			scanBuffer.clear();
+			int read = channel.read(scanBuffer, scanPosition);
+			if (read <= 0) {
+				break;
+			}
+			synchronized (this) {
+				for (int i = 0; i < read; i++) {
+					if (scanBuffer.get(i) == '\n') {
+						addLineEnd(scanPosition + i);
+						found++;
+					}
+				}
+				scanPosition += read;
+			}
+		}
+		return found;
+	}
+
+	private void addLineEnd(long lineBreak)
+	{
+		if (frameCount + 2 > lineStarts.length) {
+			lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+		}
+		frameCount++;
+		lineStarts[frameCount] = lineBreak + 1;
+	}
+
+	private synchronized void setFrame(int frame)
+	{
+		framePtr = frame;
+		curFrameMsg = null;
+		curFrameData = null;
+		if (frame >= frameCount) {
+			return;
+		}
+
+		long start = lineStarts[frame];
+		int length = (int) (lineStarts[frame + 1] - 1 - start);
+		if (length > frameBuffer.capacity()) {
+			frameBuffer = ByteBuffer.allocate(Math.max(length, frameBuffer.capacity() * 2));
+		}
+		ByteBuffer data = frameBuffer.clear().limit(length);
+		try {
+			while (data.hasRemaining()) {
+				if (channel.read(data, start + data.position()) < 0) {
+					throw new IOException("Unexpected end of logfile");
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.error("Unable to read frame " + frame + " of logfile " + logsrc, e);
+			return;
+		}
+		data.flip();
+		if (data.hasRemaining() && data.get(data.limit() - 1) == '\r') {
+			data.limit(data.limit() - 1);
+		}
+		curFrameData = data;
+
+		if (curFrameData.hasRemaining() && curFrameData.get(0) == '[') {
+			curFrameMsg = Logfile.processDrawCmds(getCurrentFrameMessage(), execDrawCmds, listeners);
+			curFrameData = ByteBuffer.wrap(curFrameMsg.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	@Override
+	public boolean isValid()
+	{
+		return !closed;
+	}
+
+	@Override
+	public boolean isFollowing()
+	{
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isAtBeginningOfLog()
+	{
+		return framePtr == 0;
+	}
+
+	/**
+	 * @return true if no frame after the current one has been written yet
+	 */
+	@Override
+	public synchronized boolean isAtEndOfLog()
+	{
+		return framePtr >= frameCount - 1;
+	}
+
+	/**
+	 * Ignored, since the number of frames is the number of lines written so far
+	 */
+	@Override
+	public void setNumFrames(int numFrames)
+	{
+	}
+
+	@Override
+	public synchronized int getNumFrames()
+	{
+		return frameCount;
+	}
+
+	@Override
+	public synchronized int getCurrentFrame()
+	{
+		return framePtr;
+	}
+
+	@Override
+	public synchronized String getCurrentFrameMessage()
+	{
+		ByteBuffer data = getCurrentFrameData();
+		if (curFrameMsg == null && data != null) {
+			curFrameMsg = StandardCharsets.UTF_8.decode(data).toString();
+		}
+		return curFrameMsg;
+	}
+
+	/**
+	 * @return the server message at the current frame position, or null if the first frame has not
+	 *         been written yet
+	 */
+	@Override
+	public synchronized ByteBuffer getCurrentFrameData()
+	{
+		if (curFrameData == null && framePtr < frameCount && !closed) {
+			// the current frame has been written since it was selected
+			setFrame(framePtr);
+		}
+		return curFrameData != null ? curFrameData.duplicate() : null;
+	}
+
+	@Override
+	public void rewind()
+	{
+		setFrame(0);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		closed = true;
+		synchronized (this) {
+			notifyAll();
+			curFrameData = null;
+			curFrameMsg = null;
+		}
+		channel.close();
+	}
+
+	@Override
+	public synchronized void stepForward()
+	{
+		if (isAtEndOfLog())
+			return;
+
+		setFrame(framePtr + 1);
+	}
+
+	@Override
+	public synchronized void stepBackward()
+	{
+		if (framePtr > 0) {
+			setFrame(framePtr - 1);
+		}
+	}
+
+	/**
+	 * Moves to the passed frame, or to the last frame written so far if it has not been written yet
+	 */
+	@Override
+	public synchronized void stepAnywhere(int frame)
+	{
+		frame = Math.max(Math.min(frame, frameCount - 1), 0);
+		if (frame != framePtr) {
+			setFrame(frame);
+		}
+	}
+
+	@Override
+	public void addListener(LogfileListener l)
+	{
+		listeners.add(l);
+	}
+
+	@Override
+	public void removeListener(LogfileListener l)
+	{
+		listeners.remove(l);
+	}
+
+	@Override
+	public File getFile()
+	{
+		return logsrc;
+	}
+}
@@ -0,0 +1,386 @@
+package rv.comm.rcssserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Decorator of logfile readers that reads frames ahead of the current one in a background thread,
+ * so reading and decompressing frames does not delay playback. The frames are read in the direction
+ * and up to the distance set by {@link #setReadAhead(int, int)}. Frames that have not been read
+ * ahead are read when they are requested.
+ * <p>
+ * The decoratee strips draw commands without executing them. They are kept with their frame and
+ * executed when it becomes the current one, on the thread that moves to it.
+ */
+public class LogfileReaderPrefetching implements ILogfileReader
+{
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** the maximum number of frames that are read ahead */
+	public static final int MAX_READ_AHEAD = 1000;
+
+	/** a frame as it was read from the decoratee */
+	private static final class Frame
+	{
+		/** the frame the decoratee was at, which may differ from the requested one at the end of the log */
+		final int frame;
+
+		final byte[] data;
+
+		final boolean atEnd;
+
+		/** the draw commands stripped while reading the frame, or null if there are none */
+		final List<String> drawCmds;
+
+		String message;
+
+		Frame(int frame, byte[] data, boolean atEnd, List<String> drawCmds)
+		{
+			this.frame = frame;
+			this.data = data;
+			this.atEnd = atEnd;
+			this.drawCmds = drawCmds;
+		}
+
+		void executeDrawCmds()
+		{
+			if (drawCmds != null) {
+				for (String drawCmd : drawCmds) {
+					Logfile.executeDrawCmd(drawCmd);
+				}
+			}
+		}
+
+		String getMessage()
+		{
+			if (message == null && data != null) {
+				message = new String(data, StandardCharsets.UTF_8);
+			}
+			return message;
+		}
+	}
+
+	/** the reader to decorate, which is also locked while reading from it */
+	private final ILogfileReader decoratee;
+
+	/** frames that have been read ahead, by the frame they were requested for */
+	private final Map<Integer, Frame> frames = new HashMap<>();
+
+	private volatile Frame current;
+
+	/** 1 to read frames after the current one, -1 to read frames before it */
+	private int direction = 1;
+
+	/** the number of frames to read ahead */
+	private int readAhead;
+
+	/** the draw commands stripped by the decoratee since the last frame was created, guarded by the decoratee */
+	private final List<String> drawCmds = new ArrayList<>();
+
+	private boolean closed;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param decoratee
+	 *            the logfile to read from, opened without executing draw commands. It is rewound, so
+	 *            the draw commands of the first frame are stripped again.
+	 */
+	public LogfileReaderPrefetching(ILogfileReader decoratee) throws IOException
+	{
+		this.decoratee = decoratee;
+		decoratee.addListener(new LogfileListener() {
+			@Override
+			public void haveDrawCmds()
+			{
+			}
+
+			@Override
+			public void skippedDrawCmd(String drawCmd)
+			{
+				drawCmds.add(drawCmd);
+			}
+		});
+		synchronized (decoratee) {
+			decoratee.rewind();
+			current = createFrame();
+		}
+		current.executeDrawCmds();
+
+		Thread prefetcher = new Thread(this::prefetch, "LogfilePrefetcher");
+		prefetcher.setDaemon(true);
+		prefetcher.start();
+	}
+
+	/**
+	 * Sets how far frames are read ahead of the current frame.
+	 *
+	 * @param direction
+	 *            1 to read frames after the current one, -1 to read frames before it
+	 * @param frames
+	 *            the number of frames to read ahead, 0 to stop reading ahead
+	 */
+	public synchronized void setReadAhead(int direction, int frames)
+	{
+		this.direction = direction < 0 ? -1 : 1;
+		readAhead = Math.max(0, Math.min(frames, MAX_READ_AHEAD));
+		notifyAll();
+	}
+
+	private void prefetch()
+	{
+		while (true) {
+			int frame;
+			synchronized (this) {
+				try {
+					while ((frame = getNextMissingFrame()) < 0 && !closed) {
+						wait();
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (closed) {
+					return;
+				}
+			}
+
+			try {
+				Frame read = read(frame);
+				synchronized (this) {
+					// the current frame may have moved away while reading
+					if (Math.abs(frame - current.frame) <= readAhead) {
+						store(frame, read);
+					}
+				}
+			} catch (IOException e) {
+				LOGGER.error("Unable to read frame " + frame + " ahead", e);
+				synchronized (this) {
+					readAhead = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the next frame within the read ahead distance that has not been read, or -1 if there
+	 *         is none
+	 */
+	private int getNextMissingFrame()
+	{
+		if (readAhead == 0 || (direction > 0 && current.atEnd)) {
+			return -1;
+		}
+
+		for (int i = 1; i <= readAhead; i++) {
+			int frame = current.frame + i * direction;
+			if (frame < 0) {
+				return -1;
+			}
+			Frame read = frames.get(frame);
+			if (read == null) {
+				return frame;
+			}
+			if (read.atEnd || read.frame != frame) {
+				// the end of the log has been reached
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Moves the decoratee to the passed frame and reads it
+	 */
+	private Frame read(int frame) throws IOException
+	{
+		synchronized (decoratee) {
+			drawCmds.clear();
+			int decorateeFrame = decoratee.getCurrentFrame();
+			if (decorateeFrame + 1 == frame) {
+				decoratee.stepForward();
+			} else if (decorateeFrame != frame) {
+				decoratee.stepAnywhere(frame);
+			}
+			return createFrame();
+		}
+	}
+
+	private Frame createFrame()
+	{
+		synchronized (decoratee) {
+			byte[] data = null;
+			ByteBuffer buffer = decoratee.getCurrentFrameData();
+			if (buffer != null) {
+				data = new byte[buffer.remaining()];
+				buffer.get(data);
+			}
+			List<String> frameDrawCmds = drawCmds.isEmpty() ? null : List.copyOf(drawCmds);
+			drawCmds.clear();
+			return new Frame(decoratee.getCurrentFrame(), data, decoratee.isAtEndOfLog(), frameDrawCmds);
+		}
+	}
+
+	/**
+	 * Makes the passed frame the current one, reading it if it has not been read ahead
+	 */
+	private void setCurrentFrame(int frame) throws IOException
+	{
+		Frame next;
+		synchronized (this) {
+			next = frames.get(frame);
+		}
+		if (next == null) {
+			next = read(frame);
+		}
+
+		synchronized (this) {
+			current = next;
+			// keep the frames around the current one, so changing the direction does not read them again
+			frames.keySet().removeIf(key -> Math.abs(key - frame) > readAhead);
+			if (readAhead > 0) {
+				store(frame, next);
+			}
+			notifyAll();
+		}
+		next.executeDrawCmds();
+	}
+
+	private void store(int frame, Frame read)
+	{
+		frames.put(frame, read);
+		if (read.frame != frame) {
+			// the end of the log was found while stepping past this frame
+			frames.put(read.frame, read);
+		}
+	}
+
+	@Override
+	public boolean isValid()
+	{
+		return decoratee.isValid();
+	}
+
+	@Override
+	public boolean isAtBeginningOfLog()
+	{
+		return current.frame == 0;
+	}
+
+	@Override
+	public boolean isAtEndOfLog()
+	{
+		return current.atEnd;
+	}
+
+	@Override
+	public void setNumFrames(int numFrames)
+	{
+		decoratee.setNumFrames(numFrames);
+	}
+
+	@Override
+	public int getNumFrames()
+	{
+		return decoratee.getNumFrames();
+	}
+
+	@Override
+	public int getCurrentFrame()
+	{
+		return current.frame;
+	}
+
+	@Override
+	public String getCurrentFrameMessage()
+	{
+		return current.getMessage();
+	}
+
+	@Override
+	public ByteBuffer getCurrentFrameData()
+	{
+		byte[] data = current.data;
+		return data != null ? ByteBuffer.wrap(data) : null;
+	}
+
+	@Override
+	public void rewind() throws IOException
+	{
+		Frame first;
+		synchronized (decoratee) {
+			drawCmds.clear();
+			decoratee.rewind();
+			synchronized (this) {
+				frames.clear();
+				current = first = createFrame();
+				notifyAll();
+			}
+		}
+		first.executeDrawCmds();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		synchronized (this) {
+			closed = true;
+			frames.clear();
+			notifyAll();
+		}
+		synchronized (decoratee) {
+			decoratee.close();
+		}
+	}
+
+	@Override
+	public void stepForward() throws IOException
+	{
+		if (isAtEndOfLog())
+			return;
+
+		setCurrentFrame(current.frame + 1);
+	}
+
+	@Override
+	public void stepBackward() throws IOException
+	{
+		if (current.frame > 0) {
+			setCurrentFrame(current.frame - 1);
+		}
+	}
+
+	@Override
+	public void stepAnywhere(int frame) throws IOException
+	{
+		frame = Math.max(frame, 0);
+		if (frame != current.frame) {
+			setCurrentFrame(frame);
+		}
+	}
+
+	@Override
+	public File getFile()
+	{
+		return decoratee.getFile();
+	}
+
+	@Override
+	public void addListener(LogfileListener l)
+	{
+		decoratee.addListener(l);
+	}
+
+	@Override
+	public void removeListener(LogfileListener l)
+	{
+		decoratee.removeListener(l);
+	}
+}
@@ -16,95 +16,229 @@
 
 package rv.comm.rcssserver;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import jsgl.math.Maths;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * Log file reader that provides random access to non zipped logfiles.
+ * Log file reader that provides random access to non zipped logfiles. The logfile is
+ * memory-mapped and frames are handed out as views of the mapped lines, so neither opening nor
+ * jumping around in large logfiles requires reading the frames in between.
+ * <p>
+ * Until the {@link LogfileIndex} of the logfile is available, frame offsets are found by scanning
+ * the mapped file for line breaks up to the requested frame.
  *
  * @author justin
  */
 public class LogfileReaderRandomAccess implements ILogfileReader
 {
-	// position in bytes of the start of each line (server message) in the log
-	private List<Long> framePositions;
+	/** logfiles are mapped in segments of 1 GB, since a single mapping is limited to 2 GB */
+	private static final int SEGMENT_SHIFT = 30;
 
-	// used for frame-by-frame access when stepping forward or backward
-	private RandomAccessFile raf;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	/** the number of frames scanned on opening to estimate the number of frames */
+	private static final int ESTIMATE_FRAMES = 100;
 
 	/** the file to read from */
-	private File logsrc;
+	private final File logsrc;
+
+	/** frame offsets of the logfile, completes with null if it can not be indexed */
+	private final CompletableFuture<LogfileIndex> index;
+
+	/** the mapped segments of the file, null while closed */
+	private ByteBuffer[] segments;
+
+	private long size;
 
-	// frame that is referenced by the buffered reader
+	/** start offsets of the frames found by scanning, used until the index is available */
+	private long[] scannedFrames = new long[1024];
+
+	private int scannedFrameCount;
+
+	/** start of the last scanned frame, or the file size once the whole file is scanned */
+	private long scanPosition;
+
+	/** index of the current frame */
 	private int brFramePtr;
 
-	/** stores the server message at the current frame position */
+	/** the bytes of the server message at the current frame position */
+	private ByteBuffer curFrameData;
+
+	/** stores the server message at the current frame position, decoded when requested */
 	private String curFrameMsg;
 
-	/** the number of frames in the logfile */
+	/** the number of frames in the logfile, estimated until the index is available */
 	private int numFrames;
 
+	/** if we should execute draw commands */
+	private final boolean execDrawCmds;
+
+	private final List<LogfileListener> listeners = new ArrayList<>();
+
 	/**
 	 * Default constructor
 	 *
 	 * @param file
 	 *            the logfile
-	 * @throws Exception
+	 * @param execDrawCmds
+	 *            if draw commands should be executed
+	 * @throws IOException
 	 *             in case the logfile could not be opened
 	 */
-	public LogfileReaderRandomAccess(File file) throws Exception
+	public LogfileReaderRandomAccess(File file, boolean execDrawCmds) throws IOException
 	{
-		framePositions = null;
-		raf = new RandomAccessFile(file, "r");
-		brFramePtr = 0;
-		curFrameMsg = null;
+		logsrc = file;
+		this.execDrawCmds = execDrawCmds;
+		index = LogfileIndex.get(file);
 		open();
 	}
 
 	/**
-	 * Opens the file for buffered reading
+	 * Maps the file and moves to the first frame
 	 */
 	private void open() throws IOException
 	{
-		if (framePositions == null) {
-			framePositions = new ArrayList<>(500);
-			// read file to cache
-			BufferedReader br = new BufferedReader(new FileReader(logsrc));
-			long lastMark = 0;
-			String line;
-			while ((line = br.readLine()) != null) {
-				framePositions.add(lastMark);
-				// +1 for newline character
-				lastMark += line.length() + 1;
+		if (segments == null) {
+			try (FileChannel channel = FileChannel.open(logsrc.toPath(), StandardOpenOption.READ)) {
+				size = channel.size();
+				segments = new ByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+				for (int i = 0; i < segments.length; i++) {
+					long position = (long) i << SEGMENT_SHIFT;
+					segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+							Math.min(SEGMENT_MASK + 1, size - position));
+				}
+			}
+
+			scannedFrameCount = 0;
+			scanPosition = 0;
+			if (size > 0) {
+				scannedFrames[scannedFrameCount++] = 0;
+			}
+			getOffset(ESTIMATE_FRAMES);
+			if (scanPosition > 0 && scanPosition < size) {
+				numFrames = (int) (size * scannedFrameCount / scanPosition);
+			} else {
+				// the whole file is scanned, or the index is used
+				numFrames = scannedFrameCount;
 			}
 		}
-		raf = new RandomAccessFile(logsrc, "r");
-		curFrameMsg = raf.readLine();
-		brFramePtr = 0;
+		setFrame(0);
+	}
+
+	/**
+	 * @return the offset of the frame in the file, or -1 if the logfile has less frames
+	 */
+	private long getOffset(int frame)
+	{
+		LogfileIndex logfileIndex = index.getNow(null);
+		if (logfileIndex != null) {
+			return frame < logfileIndex.getFrameCount() ? logfileIndex.getOffset(frame) : -1;
+		}
+
+		while (frame >= scannedFrameCount && scanPosition < size) {
+			long next = findLineEnd(scanPosition) + 1;
+			if (next < size) {
+				if (scannedFrameCount == scannedFrames.length) {
+					scannedFrames = Arrays.copyOf(scannedFrames, scannedFrameCount * 2);
+				}
+				scannedFrames[scannedFrameCount++] = next;
+				scanPosition = next;
+			} else {
+				scanPosition = size;
+				numFrames = scannedFrameCount;
+			}
+		}
+		return frame < scannedFrameCount ? scannedFrames[frame] : -1;
+	}
+
+	/**
+	 * @return the position of the next line break, or the file size if there is none
+	 */
+	private long findLineEnd(long position)
+	{
+		while (position < size) {
+			ByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+			long segmentStart = position & ~SEGMENT_MASK;
+			for (int i = (int) (position & SEGMENT_MASK); i < segment.limit(); i++) {
+				if (segment.get(i) == '\n') {
+					return segmentStart + i;
+				}
+			}
+			position = segmentStart + segment.limit();
+		}
+		return size;
+	}
+
+	private byte get(long position)
+	{
+		return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & SEGMENT_MASK));
+	}
+
+	/**
+	 * @return a view of the mapped bytes, or a copy if they cross the border of two segments
+	 */
+	private ByteBuffer slice(long start, long end)
+	{
+		int length = (int) (end - start);
+		ByteBuffer segment = segments[(int) (start >>> SEGMENT_SHIFT)];
+		int offset = (int) (start & SEGMENT_MASK);
+		if (offset + length <= segment.limit()) {
+			return segment.slice(offset, length);
+		}
+
+		ByteBuffer copy = ByteBuffer.allocate(length);
+		for (long position = start; position < end; position++) {
+			copy.put(get(position));
+		}
+		return copy.flip();
+	}
+
+	private void setFrame(int frame)
+	{
+		brFramePtr = frame;
+		curFrameMsg = null;
+		curFrameData = null;
+
+		long start = getOffset(frame);
+		if (start < 0) {
+			return;
+		}
+		long end = findLineEnd(start);
+		if (end > start && get(end - 1) == '\r') {
+			end--;
+		}
+		curFrameData = slice(start, end);
+
+		if (curFrameData.hasRemaining() && curFrameData.get(0) == '[') {
+			curFrameMsg = Logfile.processDrawCmds(getCurrentFrameMessage(), execDrawCmds, listeners);
+			curFrameData = ByteBuffer.wrap(curFrameMsg.getBytes(StandardCharsets.UTF_8));
+		}
 	}
 
 	@Override
 	public boolean isValid()
 	{
-		return raf != null;
+		return segments != null;
 	}
 
 	@Override
 	public boolean isAtBeginningOfLog()
 	{
-		return false;
+		return brFramePtr == 0;
 	}
 
 	@Override
 	public boolean isAtEndOfLog()
 	{
-		return brFramePtr == numFrames;
+		return curFrameData == null;
 	}
 
 	@Override
@@ -116,7 +250,8 @@ public class LogfileReaderRandomAccess implements ILogfileReader
 	@Override
 	public int getNumFrames()
 	{
-		return numFrames;
+		LogfileIndex logfileIndex = index.getNow(null);
+		return logfileIndex != null ? logfileIndex.getFrameCount() : numFrames;
 	}
 
 	@Override
@@ -128,65 +263,73 @@ public class LogfileReaderRandomAccess implements ILogfileReader
 	@Override
 	public String getCurrentFrameMessage()
 	{
+		if (curFrameMsg == null && curFrameData != null) {
+			curFrameMsg = StandardCharsets.UTF_8.decode(curFrameData.duplicate()).toString();
+		}
 		return curFrameMsg;
 	}
 
-	private String setCurrentFrame(int frame) throws IOException
+	/**
+	 * @return a view of the mapped server message at the current frame position
+	 */
+	@Override
+	public ByteBuffer getCurrentFrameData()
 	{
-		// avoid seeking if frame hasn't changed
-		if (frame == brFramePtr) {
-			return curFrameMsg;
-		}
-		frame = Maths.clamp(frame, 0, numFrames - 1);
-		raf.seek(framePositions.get(frame));
-		curFrameMsg = raf.readLine();
-		return curFrameMsg;
+		return curFrameData != null ? curFrameData.duplicate() : null;
 	}
 
 	@Override
 	public void rewind() throws IOException
 	{
-		close();
 		open();
 	}
 
 	@Override
-	public void close() throws IOException
+	public void close()
 	{
-		raf.close();
+		// the mapping is released once the buffers are garbage collected
+		segments = null;
+		curFrameData = null;
+		curFrameMsg = null;
 	}
 
 	@Override
-	public String stepForward() throws IOException
+	public void stepForward()
 	{
 		if (isAtEndOfLog())
-			return curFrameMsg;
+			return;
 
-		curFrameMsg = raf.readLine();
-		brFramePtr++;
-		return curFrameMsg;
+		setFrame(brFramePtr + 1);
 	}
 
 	@Override
-	public void stepBackward() throws IOException
+	public void stepBackward()
 	{
-		setCurrentFrame(brFramePtr - 1);
+		if (brFramePtr > 0) {
+			setFrame(brFramePtr - 1);
+		}
 	}
 
 	@Override
-	public void stepAnywhere(int frame) throws IOException
+	public void stepAnywhere(int frame)
 	{
-		setCurrentFrame(frame);
+		// avoid seeking if frame hasn't changed
+		frame = Math.max(frame, 0);
+		if (frame != brFramePtr) {
+			setFrame(frame);
+		}
 	}
 
 	@Override
 	public void addListener(LogfileListener l)
 	{
+		listeners.add(l);
 	}
 
 	@Override
 	public void removeListener(LogfileListener l)
 	{
+		listeners.remove(l);
 	}
 
 	@Override
@@ -16,14 +16,16 @@
 
 package rv.comm.rcssserver;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import rv.comm.rcssserver.scenegraph.RSMPSceneGraphType;
 import rv.comm.rcssserver.scenegraph.SceneGraph;
 import rv.comm.rcssserver.scenegraph.SceneGraphHeader;
+import rv.comm.rcssserver.scenegraph.SceneGraphUpdate;
 import rv.world.WorldModel;
 
 /**
@@ -36,6 +38,14 @@ public class MessageParser
 {
 	private WorldModel world;
 
+	private final MessageVisitor visitor = new MessageVisitor();
+
+	/** the most recent full scene graph, which diffs are decoded for */
+	private SceneGraph decodedSceneGraph;
+
+	/** receives messages from buffers without an accessible array, e.g. memory-mapped logfiles */
+	private byte[] copyBuffer = new byte[0];
+
 	private static final Logger LOGGER = LogManager.getLogger();
 
 	public MessageParser(WorldModel world)
@@ -46,80 +56,443 @@ public class MessageParser
 	public void setWorldModel(WorldModel world)
 	{
 		this.world = world;
+		decodedSceneGraph = null;
+	}
+
+	/**
+	 * @return the most recent full scene graph that has been decoded, which diffs are decoded for
+	 */
+	SceneGraph getDecodedSceneGraph()
+	{
+		return decodedSceneGraph;
 	}
 
 	public void parse(String message) throws ParseException
 	{
-		synchronized (world) {
-			world.getGameState().startParseStep();
-
-			ArrayList<SExp> expressions = SExp.parse(message);
-
-			// Check if legacy mode shall be used
-			boolean legacyProtocol = !expressions.get(0).getChildren().get(0).getAtoms()[0].equals("RSMP");
-
-			if (legacyProtocol) {
-				world.getGameState().parse(expressions.get(0).getChildren());
-				SceneGraphHeader header = SceneGraphHeader.parse(expressions.get(1));
-				if (header.getType().equals(SceneGraphHeader.FULL)) {
-					// scene graph structure has changed, so replace the old one and tell
-					// any objects that rely on the scene graph to update their references
-					SceneGraph sg = new SceneGraph(expressions.get(2).getChildren(), false);
-					world.setSceneGraph(sg);
+		byte[] data = message.getBytes(StandardCharsets.UTF_8);
+		parse(data, 0, data.length);
+	}
+
+	/**
+	 * Parses a message directly from the bytes it was received as and applies it to the world
+	 * model
+	 *
+	 * @param data
+	 *            - buffer containing the message
+	 * @param offset
+	 *            - index of the first byte of the message
+	 * @param length
+	 *            - length of the message in bytes
+	 */
+	public void parse(byte[] data, int offset, int length) throws ParseException
+	{
+		apply(decode(data, offset, length));
+	}
+
+	/**
+	 * Parses the remaining bytes of a buffer and applies them to the world model, see
+	 * {@link #decode(ByteBuffer)}
+	 */
+	public void parse(ByteBuffer message) throws ParseException
+	{
+		apply(decode(message));
+	}
+
+	/**
+	 * Decodes the remaining bytes of a buffer like {@link #decode(byte[], int, int)}. Buffers that are
+	 * not backed by an accessible array are copied into a buffer that is reused for all messages. The
+	 * position of the buffer is not changed.
+	 */
+	public FrameUpdate decode(ByteBuffer message) throws ParseException
+	{
+		int length = message.remaining();
+		if (message.hasArray()) {
+			return decode(message.array(), message.arrayOffset() + message.position(), length);
+		}
+
+		if (copyBuffer.length < length) {
+			copyBuffer = new byte[Math.max(length, copyBuffer.length * 2)];
+		}
+		message.get(message.position(), copyBuffer, 0, length);
+		return decode(copyBuffer, 0, length);
+	}
+
+	/**
+	 * Decodes a message without modifying the world model, so no lock is held. Apart from game state
+	 * entries and full scene graphs, no expression tree is built. Messages have to be decoded in the
+	 * order they were received, since diffs are decoded for the most recent full scene graph.
+	 *
+	 * @param data
+	 *            - buffer containing the message, which may be reused once this method returns
+	 * @param offset
+	 *            - index of the first byte of the message
+	 * @param length
+	 *            - length of the message in bytes
+	 * @return the immutable content of the message
+	 */
+	public FrameUpdate decode(byte[] data, int offset, int length) throws ParseException
+	{
+		visitor.reset();
+		SExp.parse(data, offset, length, visitor);
+		return visitor.createUpdate();
+	}
+
+	/**
+	 * Applies a decoded message to the world model, or publishes it to be swapped in by the render
+	 * thread if the world model buffers updates. This is the only step that holds the world lock.
+	 *
+	 * @see WorldModel#publish(FrameUpdate)
+	 */
+	public void apply(FrameUpdate update)
+	{
+		world.publish(update);
+	}
+
+	/**
+	 * Like {@link #apply(FrameUpdate)}, but the update may be merged into the last one that has not
+	 * been swapped in yet.
+	 *
+	 * @see WorldModel#publish(FrameUpdate, boolean)
+	 */
+	public void apply(FrameUpdate update, boolean coalesce)
+	{
+		world.publish(update, coalesce);
+	}
+
+	/**
+	 * Decodes the parts of a message for the game state, world and scene graph. Messages either use
+	 * the legacy format:<br>
+	 * <br>
+	 * (game state entries)(RSG|RDS major minor)((nd ...)...)<br>
+	 * <br>
+	 * or the RSMP format:<br>
+	 * <br>
+	 * ((RSMP major minor)((gt major minor) time)((gs major minor) entries)((sg major minor) full|diff
+	 * (nd ...)...))
+	 */
+	private class MessageVisitor implements SExpVisitor
+	{
+		private static final int UNKNOWN = 0;
+		private static final int LEGACY = 1;
+		private static final int RSMP = 2;
+
+		private static final int COMPONENT_OTHER = 0;
+		private static final int COMPONENT_GLOBAL_TIME = 1;
+		private static final int COMPONENT_GAME_STATE = 2;
+		private static final int COMPONENT_SCENE_GRAPH = 3;
+
+		/**
+		 * collect game state entries, which are kept by the update and therefore copy their atoms,
+		 * and full scene graphs, which are turned into nodes while decoding
+		 */
+		private SExp.Builder gameState;
+		private SExp.Builder fullSceneGraph;
+
+		/**
+		 * reused for the game state of every message. Its expressions are not recycled and the atoms of
+		 * each message are copied to new storage, since the update keeps them after the next reset.
+		 */
+		private final SExp.Builder gameStateBuilder = new SExp.Builder(false, true);
+
+		/** the scene graph a diff is being decoded for */
+		private SceneGraph diffSceneGraph;
+
+		// decoded content
+		private boolean aborted;
+		private boolean hasGlobalTime;
+		private float globalTime;
+		private SceneGraph newSceneGraph;
+		private SceneGraphUpdate sceneGraphUpdate;
+
+		private int protocol;
+		private int depth;
+		private int topLevelIndex;
+
+		/** receives all events below delegateDepth */
+		private SExpVisitor delegate;
+		private int delegateDepth;
+
+		/** legacy scene graph header */
+		private boolean fullHeader;
+
+		/** index of the list in the RSMP root, 0 is the RSMP header */
+		private int componentIndex;
+		private int componentType;
+		private int componentAtoms;
+		private boolean readingHeader;
+		private int headerAtoms;
+		private int major;
+		private int minor;
+		private ProtocolVersion version;
+
+		void reset()
+		{
+			aborted = false;
+			hasGlobalTime = false;
+			gameState = null;
+			fullSceneGraph = null;
+			diffSceneGraph = null;
+			newSceneGraph = null;
+			sceneGraphUpdate = null;
+			protocol = UNKNOWN;
+			depth = 0;
+			topLevelIndex = 0;
+			delegate = null;
+			fullHeader = false;
+			headerAtoms = 0;
+			componentIndex = 0;
+		}
+
+		FrameUpdate createUpdate()
+		{
+			if (aborted)
+				return new FrameUpdate(false, false, 0, null, null, null, System.nanoTime());
+
+			List<SExp> entries = gameState != null ? List.copyOf(gameState.getExpressions()) : null;
+			return new FrameUpdate(
+					true, hasGlobalTime, globalTime, entries, newSceneGraph, sceneGraphUpdate, System.nanoTime());
+		}
+
+		@Override
+		public void enterList()
+		{
+			depth++;
+			if (aborted)
+				return;
+			if (delegate != null) {
+				delegate.enterList();
+				return;
+			}
+
+			if (protocol == LEGACY) {
+				if (topLevelIndex == 2 && depth == 1) {
+					if (fullHeader)
+						beginFullSceneGraph();
+					else
+						beginDiff();
+					delegateDepth = 1;
+				}
+			} else if (protocol == RSMP) {
+				if (depth == 2) {
+					componentType = COMPONENT_OTHER;
+					componentAtoms = 0;
+					headerAtoms = 0;
+					major = 0;
+					minor = 0;
+					version = null;
+					readingHeader = componentIndex == 0;
+				} else if (depth == 3 && version == null && componentIndex > 0) {
+					readingHeader = true;
+				}
+			}
+		}
+
+		@Override
+		public void atom(byte[] data, int offset, int length)
+		{
+			if (aborted)
+				return;
+			if (delegate != null) {
+				delegate.atom(data, offset, length);
+				return;
+			}
+
+			if (protocol == UNKNOWN) {
+				// the first atom of the first nested list tells the protocols apart
+				if (topLevelIndex != 0 || depth != 2)
+					return;
+				if (SExp.atomEquals(data, offset, length, "RSMP")) {
+					protocol = RSMP;
+					readingHeader = true;
+					headerAtoms = 1;
+					major = 0;
+					minor = 0;
 				} else {
-					world.getSceneGraph().update(expressions.get(2).getChildren());
+					beginLegacyGameState();
+					delegate.atom(data, offset, length);
+				}
+				return;
+			}
+
+			if (protocol == LEGACY) {
+				if (topLevelIndex == 1 && depth == 1 && headerAtoms++ == 0)
+					fullHeader = SExp.atomEquals(data, offset, length, SceneGraphHeader.FULL);
+			} else if (readingHeader) {
+				readHeaderAtom(data, offset, length);
+			} else if (depth == 2 && version != null && componentAtoms++ == 0) {
+				readComponentAtom(data, offset, length);
+			}
+		}
+
+		@Override
+		public void exitList()
+		{
+			int exitedDepth = depth--;
+			if (aborted)
+				return;
+
+			if (protocol == UNKNOWN && topLevelIndex == 0) {
+				// empty entries or an empty list can only be part of a legacy game state
+				if (exitedDepth == 2) {
+					beginLegacyGameState();
+				} else if (exitedDepth == 1) {
+					protocol = LEGACY;
 				}
-			} else {
-				final var root = expressions.get(0).getChildren();
-
-				// RSMP version check
-				var rsmpHeaderAtoms = root.get(0).getAtoms();
-				var rsmpVersion = new ProtocolVersion(Arrays.asList(rsmpHeaderAtoms).subList(1, 3));
-				if (!rsmpVersion.supports(1, 0)) {
-					LOGGER.error("unsupported RSMP version: {}.{}", rsmpHeaderAtoms[1], rsmpHeaderAtoms[2]);
+			}
+
+			if (delegate != null) {
+				if (exitedDepth > delegateDepth) {
+					delegate.exitList();
 					return;
 				}
+				delegate = null;
+			}
 
-				for (var protocolComponent : root.subList(1, root.size())) {
-					final var header = protocolComponent.getChildren().get(0);
-					final var componentName = header.getAtoms()[0];
-					final var version = new ProtocolVersion(Arrays.asList(header.getAtoms()).subList(1, 3));
-					final var componentContent =
-							protocolComponent.getChildren().subList(1, protocolComponent.getChildren().size());
-					switch (componentName) {
-					case "gt":
-						world.updateGlobalTime(protocolComponent.getAtoms(), version);
-						break;
-					case "sg":
-						if (!version.supports(1, 0)) {
-							LOGGER.error("unsupported scene graph version: {}", version);
-							continue;
-						}
-						final var sceneGraphType = protocolComponent.getAtoms()[0];
-						switch (sceneGraphType) {
-						case RSMPSceneGraphType.FULL:
-							final var sg = new SceneGraph(componentContent, true);
-							world.setSceneGraph(sg);
-							break;
-						case RSMPSceneGraphType.DIFF:
-							if (world.getSceneGraph() != null)
-								world.getSceneGraph().update(componentContent);
-							break;
-						default:
-							LOGGER.error("unsupported scene graph type: {}", protocolComponent.getAtoms()[0]);
-							continue;
-						}
-						break;
-					case "ge":
-						world.getGameState().parse(componentContent, version);
-						break;
-					case "gs":
-						world.getGameState().parse(componentContent, version);
-						break;
+			if (protocol == LEGACY) {
+				if (exitedDepth == 1 && topLevelIndex == 2)
+					finishSceneGraph(false);
+			} else if (protocol == RSMP) {
+				if (exitedDepth == 3 && readingHeader && componentIndex > 0) {
+					readingHeader = false;
+					beginComponent();
+				} else if (exitedDepth == 2) {
+					if (componentIndex == 0) {
+						readingHeader = false;
+						checkRSMPVersion();
+					} else if (componentType == COMPONENT_SCENE_GRAPH) {
+						finishSceneGraph(true);
 					}
+					componentIndex++;
+				}
+			}
+
+			if (exitedDepth == 1)
+				topLevelIndex++;
+		}
+
+		private void beginLegacyGameState()
+		{
+			protocol = LEGACY;
+			beginGameState();
+			delegateDepth = 1;
+			delegate.enterList();
+		}
+
+		private void beginGameState()
+		{
+			// entries of several game state components are collected together
+			if (gameState == null) {
+				gameStateBuilder.reset();
+				gameState = gameStateBuilder;
+			}
+			delegate = gameState;
+		}
+
+		private void beginFullSceneGraph()
+		{
+			fullSceneGraph = new SExp.Builder();
+			delegate = fullSceneGraph;
+		}
+
+		private void beginDiff()
+		{
+			diffSceneGraph = decodedSceneGraph;
+			if (diffSceneGraph == null) {
+				// set by the thread that applies updates or restores keyframes, so read it under the world lock
+				synchronized (world) {
+					diffSceneGraph = world.getSceneGraph();
+				}
+			}
+			if (diffSceneGraph != null)
+				delegate = diffSceneGraph.beginDiff();
+		}
+
+		private void finishSceneGraph(boolean rsmp)
+		{
+			if (fullSceneGraph != null) {
+				newSceneGraph = new SceneGraph(fullSceneGraph.getExpressions(), rsmp);
+				decodedSceneGraph = newSceneGraph;
+				fullSceneGraph = null;
+			} else if (diffSceneGraph != null) {
+				sceneGraphUpdate = diffSceneGraph.endDiff();
+				diffSceneGraph = null;
+			}
+		}
+
+		private void readHeaderAtom(byte[] data, int offset, int length)
+		{
+			switch (headerAtoms++) {
+			case 0:
+				if (SExp.atomEquals(data, offset, length, "gt"))
+					componentType = COMPONENT_GLOBAL_TIME;
+				else if (SExp.atomEquals(data, offset, length, "sg"))
+					componentType = COMPONENT_SCENE_GRAPH;
+				else if (SExp.atomEquals(data, offset, length, "ge") || SExp.atomEquals(data, offset, length, "gs"))
+					componentType = COMPONENT_GAME_STATE;
+				break;
+			case 1:
+				major = SExp.parseInt(data, offset, length);
+				break;
+			case 2:
+				minor = SExp.parseInt(data, offset, length);
+				break;
+			}
+		}
+
+		private void checkRSMPVersion()
+		{
+			var rsmpVersion = new ProtocolVersion(major, minor);
+			if (!rsmpVersion.supports(1, 0)) {
+				LOGGER.error("unsupported RSMP version: {}", rsmpVersion);
+				aborted = true;
+			}
+		}
+
+		private void beginComponent()
+		{
+			version = new ProtocolVersion(major, minor);
+			switch (componentType) {
+			case COMPONENT_GLOBAL_TIME:
+				if (!version.supports(1, 0)) {
+					LOGGER.error("unsupported global time version: {}", version);
+					componentType = COMPONENT_OTHER;
+				}
+				break;
+			case COMPONENT_GAME_STATE:
+				if (!version.supports(1, 0)) {
+					LOGGER.error("unsupported game state version: {}", version);
+				}
+				beginGameState();
+				delegateDepth = 2;
+				break;
+			case COMPONENT_SCENE_GRAPH:
+				if (!version.supports(1, 0)) {
+					LOGGER.error("unsupported scene graph version: {}", version);
+					componentType = COMPONENT_OTHER;
+				}
+				break;
+			}
+		}
+
+		private void readComponentAtom(byte[] data, int offset, int length)
+		{
+			switch (componentType) {
+			case COMPONENT_GLOBAL_TIME:
+				globalTime = SExp.parseFloat(data, offset, length);
+				hasGlobalTime = true;
+				break;
+			case COMPONENT_SCENE_GRAPH:
+				if (SExp.atomEquals(data, offset, length, RSMPSceneGraphType.FULL)) {
+					beginFullSceneGraph();
+				} else if (SExp.atomEquals(data, offset, length, RSMPSceneGraphType.DIFF)) {
+					beginDiff();
+				} else {
+					LOGGER.error("unsupported scene graph type: {}",
+							new String(data, offset, length, StandardCharsets.UTF_8));
 				}
+				delegateDepth = 2;
+				break;
 			}
-			world.getGameState().finishParseStep();
 		}
 	}
 }
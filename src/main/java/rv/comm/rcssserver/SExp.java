@@ -16,8 +16,11 @@
 
 package rv.comm.rcssserver;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * List-based data structure used by SimSpark network protocol for transmitting and receiving
@@ -27,25 +30,109 @@ import java.util.ArrayList;
  * (time (month 12) (day 25) (hour 9))<br>
  * <br>
  * The above example is a single s-expression that contains 1 atom and 3 sub-expressions; each child
- * expression has 2 atoms. Collectively, the list structure describes the a time.
+ * expression has 2 atoms. Collectively, the list structure describes the a time.<br>
+ * <br>
+ * Expressions are parsed directly from the received message bytes. Atoms are only stored as
+ * offset/length slices into these bytes and are converted to strings when they are requested.
+ * Consumers that do not need a tree can receive the parsed structure as a stream of events instead,
+ * see {@link #parse(byte[], int, int, SExpVisitor)}.
  *
  * @author Justin Stoecker
  */
 public class SExp
 {
-	private static final char EXPRESSION_START = '(';
-	private static final char EXPRESSION_CLOSE = ')';
+	private static final byte EXPRESSION_START = '(';
+	private static final byte EXPRESSION_CLOSE = ')';
+
+	/** powers of ten that are exactly representable as float */
+	private static final float[] FLOAT_POWERS_OF_TEN = {
+			1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+	/** powers of ten that are exactly representable as double */
+	private static final double[] DOUBLE_POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
 
-	private StringBuilder atomText = new StringBuilder();
+	/** atoms of an expression without any atoms, equivalent to splitting an empty string */
+	private static final String[] EMPTY_ATOMS = {""};
+
+	/** the message bytes the atoms of this expression point into */
+	private byte[] data;
 	private SExp parent;
 	private ArrayList<SExp> children;
+
+	/** list kept from a previous use of a recycled expression */
+	private ArrayList<SExp> recycledChildren;
+
+	/** offset and length of each atom in data, stored pairwise */
+	private int[] atomBounds = new int[4];
+	private int atomCount;
+
+	/** atoms converted to strings, created on first request */
 	private String[] atoms;
 
+	private SExp()
+	{
+	}
+
 	public String[] getAtoms()
 	{
+		if (atoms == null) {
+			if (atomCount == 0)
+				return EMPTY_ATOMS;
+			String[] strings = new String[atomCount];
+			for (int i = 0; i < atomCount; i++)
+				strings[i] = getAtom(i);
+			atoms = strings;
+		}
 		return atoms;
 	}
 
+	public int getAtomCount()
+	{
+		return atomCount;
+	}
+
+	/**
+	 * @return the atom at the given index converted to a string
+	 */
+	public String getAtom(int index)
+	{
+		if (atoms != null)
+			return atoms[index];
+		checkAtomIndex(index);
+		return new String(data, atomBounds[2 * index], atomBounds[2 * index + 1], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Compares an atom with a string without converting the atom to a string first
+	 *
+	 * @return true if the atom exists and consists of the same (ASCII) characters as text
+	 */
+	public boolean atomEquals(int index, String text)
+	{
+		if (index >= atomCount)
+			return false;
+		return atomEquals(data, atomBounds[2 * index], atomBounds[2 * index + 1], text);
+	}
+
+	public int parseAtomInt(int index)
+	{
+		checkAtomIndex(index);
+		return parseInt(data, atomBounds[2 * index], atomBounds[2 * index + 1]);
+	}
+
+	public float parseAtomFloat(int index)
+	{
+		checkAtomIndex(index);
+		return parseFloat(data, atomBounds[2 * index], atomBounds[2 * index + 1]);
+	}
+
+	public double parseAtomDouble(int index)
+	{
+		checkAtomIndex(index);
+		return parseDouble(data, atomBounds[2 * index], atomBounds[2 * index + 1]);
+	}
+
 	public SExp getParent()
 	{
 		return parent;
@@ -56,6 +143,211 @@ public class SExp
 		return children;
 	}
 
+	private void checkAtomIndex(int index)
+	{
+		if (index < 0 || index >= atomCount)
+			throw new ArrayIndexOutOfBoundsException(
+					"Atom index " + index + " out of bounds for " + atomCount + " atoms");
+	}
+
+	private void addChild(SExp child)
+	{
+		if (children == null) {
+			children = recycledChildren != null ? recycledChildren : new ArrayList<>();
+			recycledChildren = null;
+		}
+		children.add(child);
+		child.parent = this;
+	}
+
+	private void addAtom(byte[] data, int offset, int length)
+	{
+		this.data = data;
+		if (2 * atomCount == atomBounds.length)
+			atomBounds = Arrays.copyOf(atomBounds, atomBounds.length * 2);
+		atomBounds[2 * atomCount] = offset;
+		atomBounds[2 * atomCount + 1] = length;
+		atomCount++;
+	}
+
+	/**
+	 * Resets the expression so that it can be filled again by a {@link Builder}
+	 */
+	private void recycle()
+	{
+		data = null;
+		parent = null;
+		if (children != null) {
+			children.clear();
+			recycledChildren = children;
+			children = null;
+		}
+		atomCount = 0;
+		atoms = null;
+	}
+
+	/**
+	 * Compares a slice of ASCII bytes with a string
+	 */
+	public static boolean atomEquals(byte[] data, int offset, int length, String text)
+	{
+		if (length != text.length())
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (data[offset + i] != text.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Parses a decimal integer from a slice of ASCII bytes. Like {@link Integer#parseInt(String)},
+	 * values outside the range of int are rejected.
+	 */
+	public static int parseInt(byte[] data, int offset, int length)
+	{
+		int i = offset;
+		int end = offset + length;
+		boolean negative = false;
+		if (i < end && (data[i] == '-' || data[i] == '+')) {
+			negative = data[i] == '-';
+			i++;
+		}
+		if (i == end)
+			throw numberFormatException(data, offset, length);
+
+		long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = data[i] - '0';
+			if (digit < 0 || digit > 9)
+				throw numberFormatException(data, offset, length);
+			value = value * 10 + digit;
+			if (value > limit)
+				throw numberFormatException(data, offset, length);
+		}
+		return (int) (negative ? -value : value);
+	}
+
+	private static NumberFormatException numberFormatException(byte[] data, int offset, int length)
+	{
+		return new NumberFormatException(
+				"For input string: \"" + new String(data, offset, length, StandardCharsets.UTF_8) + "\"");
+	}
+
+	/**
+	 * Parses a decimal floating point number from a slice of ASCII bytes. The result is the same as
+	 * the one of {@link Float#parseFloat(String)}, but the simple numbers the server sends are parsed
+	 * without allocating. In addition, the C spellings "nan" and "inf" are accepted.
+	 */
+	public static float parseFloat(byte[] data, int offset, int length)
+	{
+		return (float) parseDecimal(data, offset, length, true);
+	}
+
+	/**
+	 * Parses a decimal floating point number from a slice of ASCII bytes. The result is the same as
+	 * the one of {@link Double#parseDouble(String)}, but the simple numbers the server sends are
+	 * parsed without allocating. In addition, the C spellings "nan" and "inf" are accepted.
+	 */
+	public static double parseDouble(byte[] data, int offset, int length)
+	{
+		return parseDecimal(data, offset, length, false);
+	}
+
+	/**
+	 * Parses numbers of the form [sign] digits [. digits] [e [sign] digits]. If both the significant
+	 * digits and the power of ten can be represented exactly, a single (correctly rounded) floating
+	 * point operation yields the result. All other input is passed on to the JDK parser.
+	 */
+	private static double parseDecimal(byte[] data, int offset, int length, boolean singlePrecision)
+	{
+		int i = offset;
+		int end = offset + length;
+
+		boolean negative = false;
+		if (i < end && (data[i] == '-' || data[i] == '+')) {
+			negative = data[i] == '-';
+			i++;
+		}
+
+		// SimSpark prints invalid values the way printf does, see
+		// https://gitlab.com/robocup-sim/SimSpark/issues/5
+		if (atomEquals(data, i, end - i, "nan"))
+			return Double.NaN;
+		if (atomEquals(data, i, end - i, "inf"))
+			return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+
+		long mantissa = 0;
+		int significantDigits = 0;
+		int exponent = 0;
+		boolean hasDigits = false;
+
+		for (; i < end; i++) {
+			int digit = data[i] - '0';
+			if (digit < 0 || digit > 9)
+				break;
+			hasDigits = true;
+			if (mantissa != 0 || digit != 0) {
+				mantissa = mantissa * 10 + digit;
+				significantDigits++;
+			}
+		}
+		if (i < end && data[i] == '.') {
+			for (i++; i < end; i++) {
+				int digit = data[i] - '0';
+				if (digit < 0 || digit > 9)
+					break;
+				hasDigits = true;
+				if (mantissa != 0 || digit != 0) {
+					mantissa = mantissa * 10 + digit;
+					significantDigits++;
+				}
+				exponent--;
+			}
+		}
+		if (hasDigits && i < end && (data[i] == 'e' || data[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (data[i] == '-' || data[i] == '+')) {
+				negativeExponent = data[i] == '-';
+				i++;
+			}
+			int exponentStart = i;
+			int explicitExponent = 0;
+			for (; i < end && i - exponentStart < 4; i++) {
+				int digit = data[i] - '0';
+				if (digit < 0 || digit > 9)
+					break;
+				explicitExponent = explicitExponent * 10 + digit;
+			}
+			if (i == exponentStart)
+				hasDigits = false;
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+
+		if (hasDigits && i == end && significantDigits <= 18) {
+			if (mantissa == 0)
+				return negative ? -0.0 : 0.0;
+
+			double value = Double.NaN;
+			if (singlePrecision) {
+				if (mantissa < (1L << 24) && exponent >= -10 && exponent <= 10) {
+					value = exponent < 0 ? (float) mantissa / FLOAT_POWERS_OF_TEN[-exponent]
+										 : (float) mantissa * FLOAT_POWERS_OF_TEN[exponent];
+				}
+			} else if (mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+				value = exponent < 0 ? (double) mantissa / DOUBLE_POWERS_OF_TEN[-exponent]
+									 : (double) mantissa * DOUBLE_POWERS_OF_TEN[exponent];
+			}
+			if (!Double.isNaN(value))
+				return negative ? -value : value;
+		}
+
+		String text = new String(data, offset, length, StandardCharsets.US_ASCII);
+		return singlePrecision ? Float.parseFloat(text) : Double.parseDouble(text);
+	}
+
 	/**
 	 * Recursively prints the entire s-expression. Each line contains a pair of brackets
 	 * representing an s-expression with comma separated atoms between. Levels of indentation
@@ -84,6 +376,7 @@ public class SExp
 		sb.append("--".repeat(Math.max(0, depth)));
 
 		// print atoms
+		String[] atoms = getAtoms();
 		sb.append("[");
 		for (int i = 0; i < atoms.length; i++)
 			sb.append(atoms[i] + (i < atoms.length - 1 ? "," : ""));
@@ -105,55 +398,108 @@ public class SExp
 	 */
 	public static ArrayList<SExp> parse(String text) throws ParseException
 	{
-		ArrayList<SExp> expressions = new ArrayList<>();
-		SExp curExpr = null;
+		byte[] data = text.getBytes(StandardCharsets.UTF_8);
+		return parse(data, 0, data.length);
+	}
 
-		for (int i = 0; i < text.length(); i++) {
-			char c = text.charAt(i);
+	/**
+	 * Parses s-expressions contained in the remaining bytes of a buffer. Buffers backed by an
+	 * accessible array are parsed in place, other buffers are copied first.
+	 *
+	 * @return the list of expressions, or null if there are none
+	 */
+	public static ArrayList<SExp> parse(ByteBuffer buffer) throws ParseException
+	{
+		if (buffer.hasArray())
+			return parse(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+
+		byte[] data = new byte[buffer.remaining()];
+		buffer.duplicate().get(data);
+		return parse(data, 0, data.length);
+	}
+
+	/**
+	 * Parses s-expressions contained in a slice of a byte array. The array is referenced by the
+	 * resulting expressions, so it must not be modified while they are in use.
+	 *
+	 * @param data
+	 *            - ASCII / UTF-8 encoded message bytes
+	 * @param offset
+	 *            - index of the first byte to parse
+	 * @param length
+	 *            - number of bytes to parse
+	 * @return the list of expressions, or null if there are none
+	 */
+	public static ArrayList<SExp> parse(byte[] data, int offset, int length) throws ParseException
+	{
+		Builder builder = new Builder();
+		parse(data, offset, length, builder);
+		ArrayList<SExp> expressions = builder.getExpressions();
+		return expressions.size() == 0 ? null : expressions;
+	}
+
+	/**
+	 * Parses s-expressions contained in a slice of a byte array without building a tree. The
+	 * structure is reported to the visitor as it is read. Atoms that are not enclosed by any
+	 * expression are ignored.
+	 *
+	 * @param data
+	 *            - ASCII / UTF-8 encoded message bytes
+	 * @param offset
+	 *            - index of the first byte to parse
+	 * @param length
+	 *            - number of bytes to parse
+	 * @param visitor
+	 *            - receives the parsed structure
+	 * @throws ParseException
+	 *             if the brackets are not balanced. Events up to the error have already been
+	 *             reported to the visitor.
+	 */
+	public static void parse(byte[] data, int offset, int length, SExpVisitor visitor) throws ParseException
+	{
+		int depth = 0;
+		int end = offset + length;
+
+		int i = offset;
+		while (i < end) {
+			byte c = data[i];
 			if (c == EXPRESSION_START) {
-				// new expression started
-				SExp expr = new SExp();
-
-				// if current expression is already set, the current expression
-				// is the parent of this new expression
-				if (curExpr != null) {
-					if (curExpr.children == null)
-						curExpr.children = new ArrayList<>();
-					curExpr.children.add(expr);
-					expr.parent = curExpr;
-				}
-				curExpr = expr;
+				depth++;
+				visitor.enterList();
+				i++;
 			} else if (c == EXPRESSION_CLOSE) {
-				// end of current expression
-				if (curExpr == null)
+				if (depth == 0)
 					throw new ParseException("Trying to end s-expression, "
 													 + "but no s-expression has been started",
-							i);
-
-				// if parent is null, this is the end of the list
-				if (curExpr.parent == null)
-					expressions.add(curExpr);
-
-				// tokenize atoms
-				curExpr.atoms = curExpr.atomText.toString().split("\\s+");
-				curExpr.atomText = null;
-				curExpr = curExpr.parent;
-
+							i - offset);
+				depth--;
+				visitor.exitList();
+				i++;
+			} else if (isWhitespace(c)) {
+				i++;
 			} else {
-				// append character to current expression's list of atoms or
-				// ignore it if there is no expression started
-				if (curExpr != null)
-					curExpr.atomText.append(c);
+				// atom: everything up to the next whitespace or bracket
+				int atomStart = i;
+				while (i < end && !isWhitespace(data[i]) && data[i] != EXPRESSION_START &&
+						data[i] != EXPRESSION_CLOSE) {
+					i++;
+				}
+				if (depth > 0)
+					visitor.atom(data, atomStart, i - atomStart);
 			}
 		}
 
-		// if current expression isn't null there is an unclosed expression
-		if (curExpr != null)
+		// if depth isn't 0 there is an unclosed expression
+		if (depth != 0)
 			throw new ParseException("S-expression not closed; expecting end "
 											 + "of expression with ')'",
-					text.length());
+					length);
+	}
 
-		return expressions.size() == 0 ? null : expressions;
+	private static boolean isWhitespace(byte c)
+	{
+		// space, tabs, line breaks and all other ASCII control characters
+		return c >= 0 && c <= ' ';
 	}
 
 	@Override
@@ -163,4 +509,142 @@ public class SExp
 		printExpression(0, sb);
 		return sb.toString();
 	}
+
+	/**
+	 * Builds expression trees from parse events. Can also be used to collect a part of a message
+	 * as a tree while the rest of it is streamed to other visitors.
+	 */
+	public static class Builder implements SExpVisitor
+	{
+		private final boolean recycleExpressions;
+
+		private final boolean copyAtoms;
+
+		/** storage for copied atoms, a new one is started after each reset */
+		private byte[] atomData;
+
+		private int atomDataLength;
+
+		/** completed top level expressions */
+		private final ArrayList<SExp> expressions = new ArrayList<>();
+
+		/** expressions created by this builder that are reused after a reset */
+		private final ArrayList<SExp> pool = new ArrayList<>();
+
+		private int poolIndex;
+
+		private SExp current;
+
+		public Builder()
+		{
+			this(false);
+		}
+
+		/**
+		 * @param recycleExpressions
+		 *            if true, the expressions of this builder are reused after {@link #reset()}, so
+		 *            they are only valid until then. This avoids allocations when the builder is
+		 *            used for every message.
+		 */
+		public Builder(boolean recycleExpressions)
+		{
+			this(recycleExpressions, false);
+		}
+
+		/**
+		 * @param recycleExpressions
+		 *            see {@link #Builder(boolean)}
+		 * @param copyAtoms
+		 *            if true, atoms are copied out of the parsed data, so the expressions stay
+		 *            valid when the buffer holding the message is reused
+		 */
+		public Builder(boolean recycleExpressions, boolean copyAtoms)
+		{
+			this.recycleExpressions = recycleExpressions;
+			this.copyAtoms = copyAtoms;
+		}
+
+		/**
+		 * Discards all expressions collected so far
+		 */
+		public void reset()
+		{
+			expressions.clear();
+			poolIndex = 0;
+			current = null;
+			// expressions of a non-recycling builder may still be in use
+			atomData = null;
+			atomDataLength = 0;
+		}
+
+		/**
+		 * @return the completed top level expressions
+		 */
+		public ArrayList<SExp> getExpressions()
+		{
+			return expressions;
+		}
+
+		@Override
+		public void enterList()
+		{
+			SExp expr = createExpression();
+
+			// if current expression is already set, the current expression
+			// is the parent of this new expression
+			if (current != null)
+				current.addChild(expr);
+			current = expr;
+		}
+
+		@Override
+		public void atom(byte[] data, int offset, int length)
+		{
+			if (current == null)
+				return;
+
+			if (!copyAtoms) {
+				current.addAtom(data, offset, length);
+				return;
+			}
+
+			if (atomData == null) {
+				atomData = new byte[Math.max(64, length)];
+			} else if (atomDataLength + length > atomData.length) {
+				// copy the old contents, so offsets of atoms added before stay valid
+				atomData = Arrays.copyOf(atomData, Math.max(2 * atomData.length, atomDataLength + length));
+			}
+			System.arraycopy(data, offset, atomData, atomDataLength, length);
+			current.addAtom(atomData, atomDataLength, length);
+			atomDataLength += length;
+		}
+
+		@Override
+		public void exitList()
+		{
+			if (current == null)
+				return;
+
+			// if parent is null, this is the end of the list
+			if (current.parent == null)
+				expressions.add(current);
+			current = current.parent;
+		}
+
+		private SExp createExpression()
+		{
+			if (!recycleExpressions)
+				return new SExp();
+
+			if (poolIndex < pool.size()) {
+				SExp expr = pool.get(poolIndex++);
+				expr.recycle();
+				return expr;
+			}
+			SExp expr = new SExp();
+			pool.add(expr);
+			poolIndex++;
+			return expr;
+		}
+	}
 }
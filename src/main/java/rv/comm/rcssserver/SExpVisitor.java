@@ -0,0 +1,31 @@
+package rv.comm.rcssserver;
+
+/**
+ * Receives the structure of s-expressions while they are parsed, without an intermediate
+ * {@link SExp} tree. For example, (time (month 12)) is reported as:<br>
+ * <br>
+ * enterList, atom(time), enterList, atom(month), atom(12), exitList, exitList
+ *
+ * @see SExp#parse(byte[], int, int, SExpVisitor)
+ */
+public interface SExpVisitor
+{
+	/** Called when an expression is opened with '(' */
+	void enterList();
+
+	/**
+	 * Called for each atom of the current expression. The atom is only valid during the call, so
+	 * the bytes need to be copied or converted if they are needed later on.
+	 *
+	 * @param data
+	 *            - the message bytes
+	 * @param offset
+	 *            - index of the first byte of the atom
+	 * @param length
+	 *            - number of bytes of the atom
+	 */
+	void atom(byte[] data, int offset, int length);
+
+	/** Called when the current expression is closed with ')' */
+	void exitList();
+}
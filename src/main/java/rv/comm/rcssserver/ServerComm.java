@@ -17,12 +17,15 @@
 package rv.comm.rcssserver;
 
 import java.io.BufferedWriter;
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -46,9 +49,21 @@ import rv.world.WorldModel;
  */
 public class ServerComm implements DrawCommListener
 {
+	/**
+	 * A message received from the server, decoded but not yet applied to the world model. The text
+	 * of the message is only kept when recording a logfile.
+	 */
+	private record ReceivedMessage(String logText, FrameUpdate update)
+	{
+		/** queued once the connection has been closed */
+		static final ReceivedMessage END_OF_STREAM = new ReceivedMessage(null, null);
+	}
+
 	/**
 	 * Receives messages from rcssserver3d and hands them off to a message parser to handle the data
-	 * contained in each message
+	 * contained in each message. Messages are decoded on the receiving thread without holding any
+	 * lock, so only applying them to the world model competes with rendering. They are received into
+	 * a reused buffer and parsed in place.
 	 */
 	private class MessageReceiver extends Thread
 	{
@@ -67,25 +82,40 @@ public class ServerComm implements DrawCommListener
 		@Override
 		public void run()
 		{
-			// Receive messages in a separate thread and put them in a queue
-			LinkedBlockingQueue<Optional<String>> messages = new LinkedBlockingQueue<>(3000);
+			// Receive and decode messages in a separate thread and put them in a queue
+			LinkedBlockingQueue<ReceivedMessage> messages = new LinkedBlockingQueue<>(3000);
 			new Thread(() -> {
 				try {
-					socket = new Socket(host, port);
+					SocketChannel channel = openChannel();
+					socket = channel.socket();
 					out = new PrintWriter(socket.getOutputStream(), true);
-					in = new DataInputStream(socket.getInputStream());
+					FramedMessageReader reader = new FramedMessageReader(channel, INITIAL_RECEIVE_BUFFER_SIZE);
 					setConnected(true);
-					String message;
-					do {
-						message = readMessage();
-						messages.put(Optional.ofNullable(message));
-					} while (message != null);
+					while (reader.next()) {
+						long receivedNanos = System.nanoTime();
+						byte[] data = reader.getData();
+						int offset = reader.getOffset();
+						int length = reader.getLength();
+						try {
+							FrameUpdate update = parser.decode(data, offset, length);
+							world.getLatencyMonitor().record(
+									LatencyMonitor.Stage.RECEIVE_TO_PARSE, update.getDecodedNanos() - receivedNanos);
+							// only copy the message if it is needed after the buffer has been reused
+							String logText =
+									recordLogs ? new String(data, offset, length, StandardCharsets.UTF_8) : null;
+							messages.put(new ReceivedMessage(logText, update));
+						} catch (ParseException e) {
+							parseErrorCount++;
+							LOGGER.error("Unable to parse server message", e);
+						}
+					}
+					messages.put(ReceivedMessage.END_OF_STREAM);
 				} catch (IOException | InterruptedException e) {
 					// This is fine, just leave.
-					// The surrounding thread will quit when receiving an
-					// empty optional.
+					// The surrounding thread will quit when receiving the
+					// end of stream message.
 					try {
-						messages.put(Optional.empty());
+						messages.put(ReceivedMessage.END_OF_STREAM);
 					} catch (InterruptedException ignored) {
 					}
 				}
@@ -102,9 +132,10 @@ public class ServerComm implements DrawCommListener
 				setupNewLogfile();
 			}
 
-			Optional<String> message = Optional.empty();
+			ReceivedMessage message = ReceivedMessage.END_OF_STREAM;
 			long lastUpdateTimestamp = 0;
 			long monitorStepMillis = Math.round(Networking.INSTANCE.getMonitorStep() * 1000.0);
+			boolean warnedCoalesceIgnored = false;
 			do {
 				// Retrieve a message from the queue
 				try {
@@ -113,7 +144,8 @@ public class ServerComm implements DrawCommListener
 					continue;
 				}
 
-				if (Networking.INSTANCE.getUseBuffer()) {
+				boolean useBuffer = Networking.INSTANCE.getUseBuffer();
+				if (useBuffer) {
 					// Wait until the time for one monitor frame elapsed.
 					// This ensures that two messages are not applied immediately after each
 					// other. That may be the case with a bad network connection.
@@ -129,39 +161,40 @@ public class ServerComm implements DrawCommListener
 					lastUpdateTimestamp = System.currentTimeMillis();
 				}
 
-				// Process message
-				message.ifPresent(msg -> {
-					try {
-						parser.parse(msg);
-						if (logfileOutput != null)
-							writeToLogfile(msg);
-					} catch (ParseException e) {
-						LOGGER.error("Unable to parse server message", e);
-					}
-				});
-			} while (message.isPresent());
+				// Process message. The backlog builds up among the updates waiting for the render
+				// thread, so that is where they are merged. The network buffer spreads messages out
+				// to show each of them, so they are not merged while it is used.
+				boolean coalesce = Networking.INSTANCE.getCoalesceFrames() && !useBuffer;
+				if (useBuffer && Networking.INSTANCE.getCoalesceFrames() && !warnedCoalesceIgnored) {
+					LOGGER.warn("Coalesce Frames is ignored while the network buffer is used");
+					warnedCoalesceIgnored = true;
+				}
+				if (message != ReceivedMessage.END_OF_STREAM) {
+					record(message);
+					parser.apply(message.update(), coalesce);
+				}
+			} while (message != ReceivedMessage.END_OF_STREAM);
 		}
 
-		private String readMessage() throws IOException
+		private void record(ReceivedMessage message)
 		{
-			// message is prefixed by its size in bytes
-			int length = in.readInt();
-			if (length <= 0)
-				return null;
-
-			// read from stream until all bytes in message are read
-			byte[] buf = new byte[length];
-			int bytesRead = 0;
-			while (bytesRead < length) {
-				int tmp = in.read(buf, bytesRead, length - bytesRead);
-				if (tmp < 0) {
-					// Unexpected EOF
-					return null;
-				}
-				bytesRead += tmp;
-			}
+			if (logfileOutput != null && message.logText() != null)
+				writeToLogfile(message.logText());
+		}
 
-			return new String(buf);
+		private SocketChannel openChannel() throws IOException
+		{
+			SocketChannel channel = SocketChannel.open();
+			try {
+				int receiveBufferSize = Networking.INSTANCE.getReceiveBufferSize();
+				if (receiveBufferSize > 0)
+					channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+				channel.connect(new InetSocketAddress(host, port));
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+			return channel;
 		}
 	}
 
@@ -171,13 +204,14 @@ public class ServerComm implements DrawCommListener
 	}
 
 	private static final Logger LOGGER = LogManager.getLogger();
+	/** initial size of the buffer messages are received into, it grows for larger messages */
+	private static final int INITIAL_RECEIVE_BUFFER_SIZE = 1 << 16;
 	private final List<ServerChangeListener> changeListeners = new CopyOnWriteArrayList<>();
 	private Timer autoConnectTimer;
 
 	private Socket socket;
 	private PrintWriter out = null;
 	private final WorldModel world;
-	private DataInputStream in;
 	private boolean connected = false;
 	private String serverHost;
 	private int serverPort;
@@ -185,6 +219,7 @@ public class ServerComm implements DrawCommListener
 	private boolean recordLogs = false;
 	private String logfileDirectory = null;
 	private String drawCommands = "";
+	private volatile long parseErrorCount;
 
 	private void setConnected(boolean connected)
 	{
@@ -208,6 +243,31 @@ public class ServerComm implements DrawCommListener
 		return connected;
 	}
 
+	/**
+	 * @return the number of received messages waiting to be swapped in by the render thread, which is
+	 *         where the backlog builds up when rendering falls behind
+	 */
+	public int getQueueDepth()
+	{
+		return world.getPublishedUpdateCount();
+	}
+
+	/**
+	 * @return the number of messages whose diff has been merged into a later message
+	 */
+	public long getMergedFrameCount()
+	{
+		return world.getMergedUpdateCount();
+	}
+
+	/**
+	 * @return the number of messages that have been skipped because they could not be parsed
+	 */
+	public long getParseErrorCount()
+	{
+		return parseErrorCount;
+	}
+
 	public WorldModel getWorldModel()
 	{
 		return world;
@@ -221,6 +281,8 @@ public class ServerComm implements DrawCommListener
 		}
 		logfileOutput.write(msg);
 		logfileOutput.write("\n");
+		// write complete frames right away, so the logfile can be followed while it is recorded
+		logfileOutput.flush();
 	}
 
 	public ServerComm(WorldModel world, Mode viewerMode)
@@ -303,11 +365,6 @@ public class ServerComm implements DrawCommListener
 
 		setConnected(false);
 		if (socket != null) {
-			try {
-				in.close();
-			} catch (IOException e) {
-				LOGGER.error("Closing input stream with server", e);
-			}
 			out.close();
 
 			try {
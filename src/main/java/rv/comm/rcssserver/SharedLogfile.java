@@ -0,0 +1,457 @@
+package rv.comm.rcssserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.magmaoffenburg.roboviz.util.ArchiveUtilKt;
+
+/**
+ * Decompresses a logfile that can only be read sequentially once, in a background thread, and
+ * shares its frames between any number of readers. The frames are stored uncompressed in a
+ * temporary file, so readers can access every frame that has been decompressed so far without
+ * reading the log again. Readers that request a frame that has not been decompressed yet wait for
+ * it.
+ * <p>
+ * This way playback and {@link LogAnalyzerThread} read archives like tar.bz2 without decompressing
+ * them twice.
+ */
+public class SharedLogfile implements Closeable
+{
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** the amount of decompressed frames that is collected before making them available to readers */
+	private static final int WRITE_BATCH_SIZE = 64 * 1024;
+
+	/** the amount of bytes read from the decompressing stream at once */
+	private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+	private final File logsrc;
+
+	/** the temporary file holding the decompressed lines, each terminated by a line break */
+	private final File frameFile;
+
+	private final FileChannel channel;
+
+	/** start offset of each frame in the frame file, followed by the end of the last frame */
+	private long[] offsets = new long[1024];
+
+	private int frameCount;
+
+	private boolean finished;
+
+	private volatile boolean closed;
+
+	/**
+	 * Starts decompressing the passed logfile in the background.
+	 */
+	public SharedLogfile(File file) throws IOException
+	{
+		logsrc = file;
+		frameFile = File.createTempFile("roboviz-log", ".log");
+		frameFile.deleteOnExit();
+		channel = FileChannel.open(frameFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		Thread decoder = new Thread(this::decode, "SharedLogfile");
+		decoder.setDaemon(true);
+		decoder.start();
+	}
+
+	/**
+	 * @return true if the logfile can only be read sequentially, so reading it twice is expensive
+	 */
+	public static boolean isSequential(File file)
+	{
+		return !LogfileIndex.isIndexable(file) && !BlockLogfile.isBlockLogfile(file);
+	}
+
+	private void decode()
+	{
+		try (InputStream in = ArchiveUtilKt.createInputStream(logsrc)) {
+			ByteArrayOutputStream batch = new ByteArrayOutputStream(WRITE_BATCH_SIZE * 2);
+			List<Long> batchOffsets = new ArrayList<>();
+			long position = 0;
+			byte[] chunk = new byte[READ_CHUNK_SIZE];
+			boolean inLine = false;
+			// a carriage return at the end of a chunk, which is dropped if a line break follows
+			boolean pendingCR = false;
+			int read;
+			while ((read = in.read(chunk)) >= 0 && !closed) {
+				int start = 0;
+				while (start < read) {
+					if (!inLine) {
+						batchOffsets.add(position + batch.size());
+						inLine = true;
+					}
+					int end = indexOfLineBreak(chunk, start, read);
+					if (pendingCR && end != start) {
+						batch.write('\r');
+					}
+					pendingCR = false;
+
+					if (end < 0) {
+						// the line continues in the next chunk
+						int length = read - start;
+						if (chunk[read - 1] == '\r') {
+							pendingCR = true;
+							length--;
+						}
+						batch.write(chunk, start, length);
+						break;
+					}
+
+					int length = end - start;
+					if (length > 0 && chunk[end - 1] == '\r') {
+						length--;
+					}
+					batch.write(chunk, start, length);
+					batch.write('\n');
+					inLine = false;
+					start = end + 1;
+					if (batch.size() >= WRITE_BATCH_SIZE) {
+						position = writeBatch(batch, batchOffsets, position);
+						if (position < 0) {
+							return;
+						}
+					}
+				}
+			}
+			if (inLine) {
+				// the last line is not terminated
+				batch.write('\n');
+			}
+			writeBatch(batch, batchOffsets, position);
+		} catch (IOException e) {
+			if (!closed) {
+				LOGGER.error("Unable to read logfile " + logsrc, e);
+			}
+		} finally {
+			synchronized (this) {
+				finished = true;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the first line break in the range of the chunk, or -1 if there is none
+	 */
+	private static int indexOfLineBreak(byte[] chunk, int start, int end)
+	{
+		for (int i = start; i < end; i++) {
+			if (chunk[i] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Writes the collected frames to the frame file and makes them available to the readers. If the
+	 * frames can not be written, e.g. because the disk is full, the log ends with the frames written
+	 * so far.
+	 *
+	 * @return the position in the frame file after the batch, or -1 if it could not be written
+	 */
+	private long writeBatch(ByteArrayOutputStream batch, List<Long> batchOffsets, long position)
+	{
+		ByteBuffer bytes = ByteBuffer.wrap(batch.toByteArray());
+		try {
+			while (bytes.hasRemaining()) {
+				channel.write(bytes, position + bytes.position());
+			}
+		} catch (IOException e) {
+			if (!closed) {
+				LOGGER.error("Unable to store decompressed frames of {} in {}, ending the log after {} frames: {}",
+						logsrc, frameFile, getFrameCount(), e.getMessage());
+			}
+			return -1;
+		}
+		long end = position + batch.size();
+
+		synchronized (this) {
+			if (frameCount + batchOffsets.size() + 1 > offsets.length) {
+				offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, frameCount + batchOffsets.size() + 1));
+			}
+			for (long offset : batchOffsets) {
+				offsets[frameCount++] = offset;
+			}
+			offsets[frameCount] = end;
+			notifyAll();
+		}
+
+		batch.reset();
+		batchOffsets.clear();
+		return end;
+	}
+
+	/**
+	 * Waits until the passed frame has been decompressed or the whole logfile has been read.
+	 *
+	 * @return the number of frames that are available
+	 */
+	private synchronized int awaitFrame(int frame) throws IOException
+	{
+		try {
+			while (frame >= frameCount && !finished) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for frame " + frame, e);
+		}
+		return frameCount;
+	}
+
+	/**
+	 * @return the number of frames decompressed so far
+	 */
+	public synchronized int getFrameCount()
+	{
+		return frameCount;
+	}
+
+	/**
+	 * @return true if the whole logfile has been decompressed
+	 */
+	public synchronized boolean isFinished()
+	{
+		return finished;
+	}
+
+	/**
+	 * @return the line of the frame, waiting for it if necessary, or null past the end of the log
+	 */
+	private byte[] read(int frame) throws IOException
+	{
+		if (frame < 0 || frame >= awaitFrame(frame) || closed) {
+			return null;
+		}
+
+		long start;
+		long end;
+		synchronized (this) {
+			start = offsets[frame];
+			end = offsets[frame + 1] - 1;
+		}
+		ByteBuffer line = ByteBuffer.allocate((int) (end - start));
+		while (line.hasRemaining()) {
+			if (channel.read(line, start + line.position()) < 0) {
+				throw new IOException("Frame " + frame + " is missing in " + frameFile);
+			}
+		}
+		return line.array();
+	}
+
+	/**
+	 * @param execDrawCmds
+	 *            if draw commands should be executed by the reader
+	 * @return a new reader positioned at the first frame
+	 */
+	public ILogfileReader newReader(boolean execDrawCmds)
+	{
+		return new Reader(execDrawCmds);
+	}
+
+	/**
+	 * Stops decompressing and deletes the decompressed frames. Readers behave like at the end of the
+	 * log afterwards.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		closed = true;
+		synchronized (this) {
+			finished = true;
+			notifyAll();
+		}
+		try {
+			channel.close();
+		} finally {
+			Files.deleteIfExists(frameFile.toPath());
+		}
+	}
+
+	private class Reader implements ILogfileReader
+	{
+		/** index of the current frame */
+		private int curFramePtr;
+
+		/** the frame whose message is stored, -1 if none */
+		private int loadedFrame = -1;
+
+		private ByteBuffer curFrameData;
+
+		private String curFrameMsg;
+
+		/** the number of frames reported until the whole log is decompressed */
+		private int numFrames = 1700;
+
+		/** if we should execute draw commands */
+		private final boolean execDrawCmds;
+
+		private final List<LogfileListener> listeners = new ArrayList<>();
+
+		private Reader(boolean execDrawCmds)
+		{
+			this.execDrawCmds = execDrawCmds;
+		}
+
+		/**
+		 * Reads the current frame if that has not happened yet
+		 */
+		private void load()
+		{
+			if (loadedFrame == curFramePtr) {
+				return;
+			}
+
+			curFrameMsg = null;
+			curFrameData = null;
+			try {
+				byte[] line = read(curFramePtr);
+				if (line != null) {
+					curFrameData = ByteBuffer.wrap(line);
+					if (line.length > 0 && line[0] == '[') {
+						curFrameMsg = Logfile.processDrawCmds(
+								new String(line, StandardCharsets.UTF_8), execDrawCmds, listeners);
+						curFrameData = ByteBuffer.wrap(curFrameMsg.getBytes(StandardCharsets.UTF_8));
+					}
+				}
+			} catch (IOException e) {
+				if (!closed) {
+					LOGGER.error("Unable to read frame " + curFramePtr, e);
+				}
+			}
+			loadedFrame = curFramePtr;
+		}
+
+		@Override
+		public boolean isValid()
+		{
+			return !closed;
+		}
+
+		@Override
+		public boolean isAtBeginningOfLog()
+		{
+			return curFramePtr == 0;
+		}
+
+		@Override
+		public boolean isAtEndOfLog()
+		{
+			// must not wait for the frame, since this is also called from the user interface
+			synchronized (SharedLogfile.this) {
+				return finished && curFramePtr >= frameCount;
+			}
+		}
+
+		@Override
+		public void setNumFrames(int numFrames)
+		{
+			this.numFrames = numFrames;
+		}
+
+		@Override
+		public int getNumFrames()
+		{
+			synchronized (SharedLogfile.this) {
+				return finished ? frameCount : Math.max(numFrames, frameCount);
+			}
+		}
+
+		@Override
+		public int getCurrentFrame()
+		{
+			return curFramePtr;
+		}
+
+		@Override
+		public String getCurrentFrameMessage()
+		{
+			load();
+			if (curFrameMsg == null && curFrameData != null) {
+				curFrameMsg = new String(curFrameData.array(), StandardCharsets.UTF_8);
+			}
+			return curFrameMsg;
+		}
+
+		@Override
+		public ByteBuffer getCurrentFrameData()
+		{
+			load();
+			return curFrameData != null ? curFrameData.duplicate() : null;
+		}
+
+		@Override
+		public void rewind()
+		{
+			curFramePtr = 0;
+			// read the first frame again, so its draw commands are processed again
+			loadedFrame = -1;
+		}
+
+		@Override
+		public void close()
+		{
+			// the frames are owned by the shared logfile
+			loadedFrame = -1;
+			curFrameData = null;
+			curFrameMsg = null;
+		}
+
+		@Override
+		public void stepForward()
+		{
+			load();
+			if (curFrameData != null) {
+				curFramePtr++;
+			}
+		}
+
+		@Override
+		public void stepBackward()
+		{
+			if (curFramePtr > 0) {
+				curFramePtr--;
+			}
+		}
+
+		@Override
+		public void stepAnywhere(int frame) throws IOException
+		{
+			frame = Math.max(frame, 0);
+			curFramePtr = Math.min(frame, awaitFrame(frame));
+		}
+
+		@Override
+		public void addListener(LogfileListener l)
+		{
+			listeners.add(l);
+		}
+
+		@Override
+		public void removeListener(LogfileListener l)
+		{
+			listeners.remove(l);
+		}
+
+		@Override
+		public File getFile()
+		{
+			return logsrc;
+		}
+	}
+}
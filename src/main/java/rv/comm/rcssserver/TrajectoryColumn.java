@@ -0,0 +1,72 @@
+package rv.comm.rcssserver;
+
+import java.util.Locale;
+
+/**
+ * The columns of a trajectory file, with one row per pose of an agent or the ball in a frame. The
+ * positions are in field coordinates as sent by the server, the orientations are unit quaternions
+ * with a non-negative w.
+ *
+ * @see TrajectoryWriter
+ * @see TrajectoryReader
+ */
+public enum TrajectoryColumn
+{
+	/** the frame of the logfile */
+	FRAME(Type.INT),
+	/** the game time in seconds */
+	TIME(Type.FLOAT),
+	/** Team.LEFT or Team.RIGHT for agents, -1 for the ball */
+	TEAM(Type.BYTE),
+	/** the number of the agent, 0 for the ball */
+	UNUM(Type.BYTE),
+	X(Type.FLOAT),
+	Y(Type.FLOAT),
+	Z(Type.FLOAT),
+	QW(Type.FLOAT),
+	QX(Type.FLOAT),
+	QY(Type.FLOAT),
+	QZ(Type.FLOAT);
+
+	public enum Type
+	{
+		BYTE(1),
+		INT(4),
+		FLOAT(4);
+
+		private final int size;
+
+		Type(int size)
+		{
+			this.size = size;
+		}
+
+		/**
+		 * @return the number of bytes of a value
+		 */
+		public int getSize()
+		{
+			return size;
+		}
+	}
+
+	private final Type type;
+
+	TrajectoryColumn(Type type)
+	{
+		this.type = type;
+	}
+
+	public Type getType()
+	{
+		return type;
+	}
+
+	/**
+	 * @return the name of the column in a trajectory file
+	 */
+	public String getName()
+	{
+		return name().toLowerCase(Locale.ROOT);
+	}
+}
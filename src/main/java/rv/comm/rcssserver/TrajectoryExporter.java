@@ -0,0 +1,224 @@
+package rv.comm.rcssserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import rv.comm.rcssserver.scenegraph.Node;
+import rv.comm.rcssserver.scenegraph.SceneGraph;
+import rv.comm.rcssserver.scenegraph.TransformNode;
+import rv.world.Team;
+import rv.world.WorldModel;
+import rv.world.objects.Agent;
+import rv.world.objects.Ball;
+
+/**
+ * Exports the poses of all agents and the ball in every frame of a logfile into a columnar
+ * trajectory file, without opening a window. The logfile is parsed into a {@link WorldModel} frame
+ * by frame and the poses are taken from the scene graph: the torso of each agent and the ball. The
+ * rows of a frame are the ball followed by the agents of the left and the right team by number.
+ * <p>
+ * Usage: {@code TrajectoryExporter [--output=<file>] <logfile>}
+ *
+ * @see TrajectoryReader
+ */
+public class TrajectoryExporter
+{
+	public static final String SUFFIX = ".trajectory";
+
+	public record Summary(int frames, long rows)
+	{
+	}
+
+	/** a node whose pose is exported */
+	private record Target(int team, int unum, Node node)
+	{
+	}
+
+	private final WorldModel world = new WorldModel();
+	private final MessageParser parser = new MessageParser(world);
+	private final TrajectoryWriter writer;
+
+	private SceneGraph sceneGraph;
+	private String teamLeft;
+	private String teamRight;
+	private final List<Target> targets = new ArrayList<>();
+
+	private final double[] matrix = new double[16];
+	private final double[] position = new double[3];
+	private int frames;
+
+	private TrajectoryExporter(TrajectoryWriter writer)
+	{
+		this.writer = writer;
+	}
+
+	/**
+	 * Reads all frames of a logfile in a single pass and writes the poses to the output file
+	 */
+	public static Summary export(File logfile, File output) throws IOException
+	{
+		try {
+			try (ILogfileReader reader = ILogfileReader.open(logfile, false);
+					TrajectoryWriter writer = new TrajectoryWriter(output)) {
+				TrajectoryExporter exporter = new TrajectoryExporter(writer);
+				exporter.run(reader);
+				return new Summary(exporter.frames, writer.getNumRows());
+			}
+		} catch (IOException | RuntimeException e) {
+			// do not leave an incomplete trajectory behind
+			output.delete();
+			throw e;
+		}
+	}
+
+	public static File getTrajectoryFile(File logfile)
+	{
+		return new File(logfile.getPath() + SUFFIX);
+	}
+
+	private void run(ILogfileReader logfile) throws IOException
+	{
+		while (true) {
+			ByteBuffer data = logfile.getCurrentFrameData();
+			if (data != null) {
+				try {
+					FrameUpdate update = parser.decode(data);
+					parser.apply(update);
+					if (update.isSupported()) {
+						exportFrame(logfile.getCurrentFrame());
+						frames++;
+					}
+				} catch (ParseException e) {
+					// skip broken frames like the log player does
+				}
+			}
+			if (logfile.isAtEndOfLog()) {
+				break;
+			}
+			logfile.stepForward();
+		}
+		if (world.getSceneGraph() == null) {
+			throw new IOException("No scene graph found in " + logfile.getFile());
+		}
+
+		GameState gameState = world.getGameState();
+		writer.setTeams(gameState.getTeamLeft(), gameState.getTeamRight());
+		writer.setNumFrames(logfile.getNumFrames());
+	}
+
+	private void exportFrame(int frame) throws IOException
+	{
+		GameState gameState = world.getGameState();
+		if (world.getSceneGraph() != sceneGraph || !Objects.equals(gameState.getTeamLeft(), teamLeft) ||
+				!Objects.equals(gameState.getTeamRight(), teamRight)) {
+			sceneGraph = world.getSceneGraph();
+			teamLeft = gameState.getTeamLeft();
+			teamRight = gameState.getTeamRight();
+			findTargets();
+		}
+
+		float time = gameState.getTime();
+		for (Target target : targets) {
+			target.node().getWorldTransform().wrap().get(matrix);
+			position[0] = matrix[12];
+			position[1] = matrix[13];
+			position[2] = matrix[14];
+			writer.add(frame, time, target.team(), target.unum(), position, toRotation(matrix));
+		}
+	}
+
+	/**
+	 * Looks up the nodes of the ball and the agents, which only changes with the scene graph or the
+	 * team names
+	 */
+	private void findTargets()
+	{
+		targets.clear();
+		if (sceneGraph == null) {
+			return;
+		}
+
+		Node ball = Ball.findNode(sceneGraph);
+		if (ball != null) {
+			targets.add(new Target(-1, 0, ball));
+		}
+		for (int team : new int[] {Team.LEFT, Team.RIGHT}) {
+			String name = team == Team.LEFT ? teamLeft : teamRight;
+			for (int unum = 1; unum <= Team.MAX_AGENTS; unum++) {
+				Node root = Team.findAgentNode(sceneGraph, team, name, unum);
+				if (root == null) {
+					continue;
+				}
+				Node body = Agent.findBodyNode(sceneGraph, root);
+				targets.add(new Target(team, unum, body != null ? body : root));
+			}
+		}
+	}
+
+	/**
+	 * @return the rotation of a world transformation as unit quaternion with a non-negative w,
+	 *         ignoring any scale
+	 */
+	private static double[] toRotation(double[] m)
+	{
+		for (int column = 0; column < 3; column++) {
+			int i = column * 4;
+			double length = Math.sqrt(m[i] * m[i] + m[i + 1] * m[i + 1] + m[i + 2] * m[i + 2]);
+			if (length > 0) {
+				m[i] /= length;
+				m[i + 1] /= length;
+				m[i + 2] /= length;
+			}
+		}
+
+		double[] q = TransformNode.toQuaternion(m);
+		double length = Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+		if (q[0] < 0) {
+			length = -length;
+		}
+		for (int i = 0; i < 4; i++) {
+			q[i] /= length;
+		}
+		return q;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		File output = null;
+		File logfile = null;
+		boolean valid = true;
+
+		for (String arg : args) {
+			if (arg.startsWith("--output=")) {
+				output = new File(arg.substring(arg.indexOf('=') + 1));
+			} else if (arg.startsWith("--") || logfile != null) {
+				valid = false;
+			} else {
+				logfile = new File(arg);
+			}
+		}
+
+		if (!valid || logfile == null) {
+			System.err.println("Usage: TrajectoryExporter [--output=<file>] <logfile>");
+			System.exit(1);
+		}
+		if (!logfile.isFile()) {
+			System.err.println("Logfile " + logfile + " does not exist");
+			System.exit(1);
+		}
+		if (output == null) {
+			output = getTrajectoryFile(logfile);
+		}
+
+		long start = System.nanoTime();
+		Summary summary = export(logfile, output);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf(Locale.ROOT, "Exported %d poses of %d frames to %s in %.1f s (%.1f MB -> %.2f MB)%n",
+				summary.rows(), summary.frames(), output, seconds, logfile.length() / 1e6, output.length() / 1e6);
+	}
+}
@@ -0,0 +1,210 @@
+package rv.comm.rcssserver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the columns of a trajectory file written by {@link TrajectoryWriter}. Each column is read
+ * into an array with one value per row, skipping the data of the other columns, e.g.
+ *
+ * <pre>
+ * try (TrajectoryReader reader = new TrajectoryReader(file)) {
+ * 	int[] frames = reader.readInts(TrajectoryColumn.FRAME);
+ * 	float[] x = reader.readFloats(TrajectoryColumn.X);
+ * }
+ * </pre>
+ */
+public class TrajectoryReader implements Closeable
+{
+	private final RandomAccessFile file;
+
+	/** the columns in the order they are stored in each block */
+	private final List<String> columnNames = new ArrayList<>();
+
+	private final List<TrajectoryColumn.Type> columnTypes = new ArrayList<>();
+
+	private final long[] blockOffsets;
+
+	private final int[] blockSizes;
+
+	private final int numRows;
+
+	private final int numFrames;
+
+	private final String teamLeft;
+
+	private final String teamRight;
+
+	public TrajectoryReader(File file) throws IOException
+	{
+		this.file = new RandomAccessFile(file, "r");
+		try {
+			if (this.file.length() < 20 || this.file.readInt() != TrajectoryWriter.MAGIC) {
+				throw new IOException("Not a trajectory file: " + file);
+			}
+			int version = this.file.readInt();
+			if (version != TrajectoryWriter.VERSION) {
+				throw new IOException("Unsupported trajectory file version " + version + ": " + file);
+			}
+			TrajectoryColumn.Type[] types = TrajectoryColumn.Type.values();
+			int columnCount = this.file.readInt();
+			for (int i = 0; i < columnCount; i++) {
+				columnNames.add(this.file.readUTF());
+				columnTypes.add(types[this.file.readByte()]);
+			}
+
+			this.file.seek(this.file.length() - 8);
+			this.file.seek(this.file.readLong());
+			int blockCount = this.file.readInt();
+			blockOffsets = new long[blockCount];
+			blockSizes = new int[blockCount];
+			long rows = 0;
+			for (int i = 0; i < blockCount; i++) {
+				blockOffsets[i] = this.file.readLong();
+				blockSizes[i] = this.file.readInt();
+				rows += blockSizes[i];
+			}
+			if (rows > Integer.MAX_VALUE) {
+				throw new IOException("Too many rows in trajectory file: " + file);
+			}
+			numRows = (int) rows;
+			numFrames = this.file.readInt();
+			teamLeft = this.file.readUTF();
+			teamRight = this.file.readUTF();
+		} catch (IOException | RuntimeException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	public int getNumRows()
+	{
+		return numRows;
+	}
+
+	/**
+	 * @return the number of frames of the logfile the trajectories were exported from
+	 */
+	public int getNumFrames()
+	{
+		return numFrames;
+	}
+
+	public String getTeamLeft()
+	{
+		return teamLeft;
+	}
+
+	public String getTeamRight()
+	{
+		return teamRight;
+	}
+
+	public boolean hasColumn(TrajectoryColumn column)
+	{
+		return columnNames.contains(column.getName());
+	}
+
+	public byte[] readBytes(TrajectoryColumn column) throws IOException
+	{
+		byte[] values = new byte[numRows];
+		readColumn(column, TrajectoryColumn.Type.BYTE, (buffer, offset, count) -> buffer.get(values, offset, count));
+		return values;
+	}
+
+	public int[] readInts(TrajectoryColumn column) throws IOException
+	{
+		int[] values = new int[numRows];
+		readColumn(column, TrajectoryColumn.Type.INT,
+				(buffer, offset, count) -> buffer.asIntBuffer().get(values, offset, count));
+		return values;
+	}
+
+	public float[] readFloats(TrajectoryColumn column) throws IOException
+	{
+		float[] values = new float[numRows];
+		readColumn(column, TrajectoryColumn.Type.FLOAT,
+				(buffer, offset, count) -> buffer.asFloatBuffer().get(values, offset, count));
+		return values;
+	}
+
+	private interface BlockConsumer
+	{
+		void accept(ByteBuffer buffer, int offset, int count);
+	}
+
+	private void readColumn(TrajectoryColumn column, TrajectoryColumn.Type type, BlockConsumer consumer)
+			throws IOException
+	{
+		int index = columnNames.indexOf(column.getName());
+		if (index < 0) {
+			throw new IOException("Trajectory file has no column " + column.getName());
+		}
+		if (columnTypes.get(index) != type || column.getType() != type) {
+			throw new IllegalArgumentException("Column " + column.getName() + " is not of type " + type);
+		}
+
+		int size = type.getSize();
+		byte[] shuffled = new byte[TrajectoryWriter.BLOCK_ROWS * size];
+		byte[] values = new byte[TrajectoryWriter.BLOCK_ROWS * size];
+		byte[] compressed = new byte[0];
+		Inflater inflater = new Inflater();
+		try {
+			int row = 0;
+			for (int block = 0; block < blockOffsets.length; block++) {
+				long offset = blockOffsets[block] + 4;
+				file.seek(offset);
+				for (int i = 0; i < index; i++) {
+					int length = file.readInt();
+					offset += 4 + length;
+					file.seek(offset);
+				}
+
+				int length = file.readInt();
+				if (compressed.length < length) {
+					compressed = new byte[length];
+				}
+				file.readFully(compressed, 0, length);
+
+				int count = blockSizes[block];
+				inflater.reset();
+				inflater.setInput(compressed, 0, length);
+				if (inflater.inflate(shuffled, 0, count * size) != count * size) {
+					throw new IOException("Truncated block " + block + " of column " + column.getName());
+				}
+				unshuffle(shuffled, values, count, size);
+				consumer.accept(ByteBuffer.wrap(values, 0, count * size), row, count);
+				row += count;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt column " + column.getName(), e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Reverses {@link TrajectoryWriter#shuffle(byte[], byte[], int, int)}
+	 */
+	private static void unshuffle(byte[] shuffled, byte[] result, int count, int size)
+	{
+		for (int b = 0; b < size; b++) {
+			for (int i = 0; i < count; i++) {
+				result[i * size + b] = shuffled[b * count + i];
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		file.close();
+	}
+}
@@ -0,0 +1,198 @@
+package rv.comm.rcssserver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes poses into a columnar trajectory file. Rows are buffered until {@link #BLOCK_ROWS} of them
+ * are collected, then every column of the block is compressed and written on its own, so the memory
+ * needed does not depend on the length of the logfile and a column can be read without the others.
+ * <p>
+ * Format (big endian): magic, version, the names and types of the columns, the blocks, the footer
+ * and the offset of the footer. A block is its number of rows followed by the compressed size and
+ * data of each column. The bytes of the values of a column are grouped by their significance before
+ * compressing, which compresses slowly changing values much better. The footer holds the offsets and
+ * row counts of the blocks, the number of frames of the logfile and the team names.
+ *
+ * @see TrajectoryReader
+ */
+public class TrajectoryWriter implements Closeable
+{
+	static final int MAGIC = 0x5256544a; // "RVTJ"
+
+	static final int VERSION = 1;
+
+	/** the number of rows buffered before they are written as a block */
+	public static final int BLOCK_ROWS = 1 << 16;
+
+	private static final TrajectoryColumn[] COLUMNS = TrajectoryColumn.values();
+
+	private final DataOutputStream out;
+
+	/** the offset in the file the next block is written to */
+	private long fileOffset;
+
+	private final ByteBuffer[] columns = new ByteBuffer[COLUMNS.length];
+
+	private int blockRows;
+
+	private final List<Long> blockOffsets = new ArrayList<>();
+
+	private final List<Integer> blockSizes = new ArrayList<>();
+
+	private long numRows;
+
+	private int numFrames;
+
+	private String teamLeft;
+
+	private String teamRight;
+
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+	private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+	private final byte[] deflateBuffer = new byte[1 << 16];
+
+	private final byte[] shuffled = new byte[BLOCK_ROWS * 4];
+
+	public TrajectoryWriter(File file) throws IOException
+	{
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		for (TrajectoryColumn column : COLUMNS) {
+			columns[column.ordinal()] = ByteBuffer.allocate(BLOCK_ROWS * column.getType().getSize());
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(COLUMNS.length);
+		for (TrajectoryColumn column : COLUMNS) {
+			out.writeUTF(column.getName());
+			out.writeByte(column.getType().ordinal());
+		}
+		fileOffset = out.size();
+	}
+
+	/**
+	 * Adds the pose of an agent or the ball in a frame
+	 *
+	 * @param position
+	 *            x, y and z in field coordinates
+	 * @param rotation
+	 *            the orientation as unit quaternion (w, x, y, z)
+	 */
+	public void add(int frame, float time, int team, int unum, double[] position, double[] rotation)
+			throws IOException
+	{
+		columns[TrajectoryColumn.FRAME.ordinal()].putInt(frame);
+		columns[TrajectoryColumn.TIME.ordinal()].putFloat(time);
+		columns[TrajectoryColumn.TEAM.ordinal()].put((byte) team);
+		columns[TrajectoryColumn.UNUM.ordinal()].put((byte) unum);
+		columns[TrajectoryColumn.X.ordinal()].putFloat((float) position[0]);
+		columns[TrajectoryColumn.Y.ordinal()].putFloat((float) position[1]);
+		columns[TrajectoryColumn.Z.ordinal()].putFloat((float) position[2]);
+		columns[TrajectoryColumn.QW.ordinal()].putFloat((float) rotation[0]);
+		columns[TrajectoryColumn.QX.ordinal()].putFloat((float) rotation[1]);
+		columns[TrajectoryColumn.QY.ordinal()].putFloat((float) rotation[2]);
+		columns[TrajectoryColumn.QZ.ordinal()].putFloat((float) rotation[3]);
+		numRows++;
+		if (++blockRows == BLOCK_ROWS) {
+			writeBlock();
+		}
+	}
+
+	public long getNumRows()
+	{
+		return numRows;
+	}
+
+	public void setNumFrames(int numFrames)
+	{
+		this.numFrames = numFrames;
+	}
+
+	public void setTeams(String teamLeft, String teamRight)
+	{
+		this.teamLeft = teamLeft;
+		this.teamRight = teamRight;
+	}
+
+	private void writeBlock() throws IOException
+	{
+		blockOffsets.add(fileOffset);
+		blockSizes.add(blockRows);
+		out.writeInt(blockRows);
+		fileOffset += 4;
+
+		for (TrajectoryColumn column : COLUMNS) {
+			ByteBuffer buffer = columns[column.ordinal()];
+			int size = column.getType().getSize();
+			int length = blockRows * size;
+			shuffle(buffer.array(), shuffled, blockRows, size);
+
+			compressed.reset();
+			deflater.reset();
+			deflater.setInput(shuffled, 0, length);
+			deflater.finish();
+			while (!deflater.finished()) {
+				int count = deflater.deflate(deflateBuffer);
+				compressed.write(deflateBuffer, 0, count);
+			}
+
+			out.writeInt(compressed.size());
+			compressed.writeTo(out);
+			fileOffset += 4 + compressed.size();
+			buffer.clear();
+		}
+		blockRows = 0;
+	}
+
+	/**
+	 * Groups the bytes of the values by their significance, e.g. the most significant bytes of all
+	 * values first
+	 */
+	static void shuffle(byte[] values, byte[] result, int count, int size)
+	{
+		for (int i = 0; i < count; i++) {
+			for (int b = 0; b < size; b++) {
+				result[b * count + i] = values[i * size + b];
+			}
+		}
+	}
+
+	/**
+	 * Writes the remaining rows and the footer
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try {
+			if (blockRows > 0) {
+				writeBlock();
+			}
+
+			long footerOffset = fileOffset;
+			out.writeInt(blockOffsets.size());
+			for (int i = 0; i < blockOffsets.size(); i++) {
+				out.writeLong(blockOffsets.get(i));
+				out.writeInt(blockSizes.get(i));
+			}
+			out.writeInt(numFrames);
+			out.writeUTF(teamLeft != null ? teamLeft : "");
+			out.writeUTF(teamRight != null ? teamRight : "");
+			out.writeLong(footerOffset);
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+}
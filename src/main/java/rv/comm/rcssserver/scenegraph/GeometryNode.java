@@ -16,6 +16,9 @@
 
 package rv.comm.rcssserver.scenegraph;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 import jsgl.math.vector.Matrix;
 import jsgl.math.vector.Vec3f;
@@ -36,6 +39,9 @@ public abstract class GeometryNode extends Node
 	protected String[] materials = new String[0];
 	protected float[] rgba;
 
+	/** ball hack state of the streamed update currently being applied */
+	private boolean updateBallHack;
+
 	public boolean isVisible()
 	{
 		return visible;
@@ -93,58 +99,66 @@ public abstract class GeometryNode extends Node
 	private void applyOperations(List<SExp> exp)
 	{
 		boolean ballHack = false;
-		for (SExp e : exp) {
-			String operation = e.getAtoms()[0];
-			switch (operation) {
-			case "load":
-				load(e);
-				if (parent != null && parent.parent != null && parent.parent instanceof DescriptionNode dn &&
-						dn.getDescriptions().get(0)[0].equals("ball")) {
-					// TODO terrible hack, use the StdUnitSphere instead and use a suitable ball texture.
-					name = "models/soccerball.obj";
-					materials = new String[0];
-					visible = true;
-					transparent = false;
-					rgba = null;
-					ballHack = true;
-				}
-				break;
-			case "sSc":
-				setScale(e);
-				break;
-			case "setVisible":
-				visible = e.getAtoms()[1].equals("1");
-				break;
-			case "resetMaterials":
-				if (ballHack)
-					break;
-				materials = new String[e.getAtoms().length - 1];
-				System.arraycopy(e.getAtoms(), 1, materials, 0, materials.length);
-				break;
-			case "sMat":
-				if (ballHack)
-					break;
-				materials = new String[1];
-				materials[0] = e.getAtoms()[1];
-				if (materials[0].equals("jersey_mat")) {
-					// TODO this is a hack to hide jersey boxes
-					// I cannot use the suppressed meshes for this because they match on the model name, not the
-					// material name.
-					visible = false;
-				}
-				break;
-			case "rgba":
-				if (ballHack)
-					break;
-				var atoms = e.getAtoms();
-				rgba = new float[] {Float.parseFloat(atoms[1]), Float.parseFloat(atoms[2]), Float.parseFloat(atoms[3]),
-						Float.parseFloat(atoms[4])};
+		for (SExp e : exp)
+			ballHack = applyOperation(e, ballHack);
+	}
+
+	/**
+	 * @return whether the ball hack is active after the operation
+	 */
+	private boolean applyOperation(SExp e, boolean ballHack)
+	{
+		String operation = e.getAtoms()[0];
+		switch (operation) {
+		case "load":
+			load(e);
+			if (parent != null && parent.parent != null && parent.parent instanceof DescriptionNode dn &&
+					dn.getDescriptions().get(0)[0].equals("ball")) {
+				// TODO terrible hack, use the StdUnitSphere instead and use a suitable ball texture.
+				name = "models/soccerball.obj";
+				materials = new String[0];
+				visible = true;
+				transparent = false;
+				rgba = null;
+				ballHack = true;
+			}
+			break;
+		case "sSc":
+			setScale(e);
+			break;
+		case "setVisible":
+			visible = e.getAtoms()[1].equals("1");
+			break;
+		case "resetMaterials":
+			if (ballHack)
 				break;
-			case "setTransparent":
-				transparent = true;
+			materials = new String[e.getAtoms().length - 1];
+			System.arraycopy(e.getAtoms(), 1, materials, 0, materials.length);
+			break;
+		case "sMat":
+			if (ballHack)
 				break;
+			materials = new String[1];
+			materials[0] = e.getAtoms()[1];
+			if (materials[0].equals("jersey_mat")) {
+				// TODO this is a hack to hide jersey boxes
+				// I cannot use the suppressed meshes for this because they match on the model name, not the
+				// material name.
+				visible = false;
 			}
+			break;
+		case "rgba":
+			if (ballHack)
+				break;
+			var atoms = e.getAtoms();
+			rgba = new float[] {Float.parseFloat(atoms[1]), Float.parseFloat(atoms[2]), Float.parseFloat(atoms[3]),
+					Float.parseFloat(atoms[4])};
+			break;
+		case "setTransparent":
+			transparent = true;
+			break;
 		}
+		return ballHack;
 	}
 
 	protected abstract void load(SExp exp);
@@ -166,6 +180,49 @@ public abstract class GeometryNode extends Node
 		return false;
 	}
 
+	@Override
+	protected void writeState(DataOutput out) throws IOException
+	{
+		out.writeBoolean(transparent);
+		out.writeBoolean(visible);
+		// the local transformation is only set by a scale operation
+		out.writeBoolean(localTransform != null);
+		for (int i = 0; i < 3; i++)
+			out.writeFloat((float) scale.wrap().get(5 * i));
+		out.writeBoolean(name != null);
+		if (name != null)
+			out.writeUTF(name);
+		out.writeInt(materials.length);
+		for (String material : materials)
+			out.writeUTF(material);
+		out.writeBoolean(rgba != null);
+		if (rgba != null) {
+			for (float value : rgba)
+				out.writeFloat(value);
+		}
+	}
+
+	@Override
+	protected void readState(DataInput in) throws IOException
+	{
+		transparent = in.readBoolean();
+		visible = in.readBoolean();
+		boolean scaled = in.readBoolean();
+		scale = Matrix.createScale(new Vec3f(in.readFloat(), in.readFloat(), in.readFloat()));
+		localTransform = scaled ? scale : null;
+		name = in.readBoolean() ? in.readUTF() : null;
+		materials = new String[in.readInt()];
+		for (int i = 0; i < materials.length; i++)
+			materials[i] = in.readUTF();
+		if (in.readBoolean()) {
+			rgba = new float[4];
+			for (int i = 0; i < 4; i++)
+				rgba[i] = in.readFloat();
+		} else {
+			rgba = null;
+		}
+	}
+
 	@Override
 	public void update(List<SExp> exp)
 	{
@@ -175,6 +232,15 @@ public abstract class GeometryNode extends Node
 		super.update(exp);
 	}
 
+	@Override
+	protected void applyUpdate(SExp operation, int index)
+	{
+		// the first expression starts a new update, see applyOperations()
+		if (index == 0)
+			updateBallHack = false;
+		updateBallHack = applyOperation(operation, updateBallHack);
+	}
+
 	@Override
 	public String toString()
 	{
@@ -16,6 +16,9 @@
 
 package rv.comm.rcssserver.scenegraph;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import jsgl.math.vector.Matrix;
@@ -71,17 +74,26 @@ public abstract class Node
 	 */
 	public Matrix getWorldTransform()
 	{
+		Matrix local = getLocalTransform();
 		if (parent == null) {
-			if (localTransform == null)
+			if (local == null)
 				return Matrix.createIdentity();
-			return localTransform;
+			return local;
 		} else {
-			if (localTransform == null)
+			if (local == null)
 				return parent.getWorldTransform();
-			return parent.getWorldTransform().times(localTransform);
+			return parent.getWorldTransform().times(local);
 		}
 	}
 
+	/**
+	 * The local transformation as it is rendered, null for an identity
+	 */
+	protected Matrix getLocalTransform()
+	{
+		return localTransform;
+	}
+
 	public Node(Node parent)
 	{
 		this.parent = parent;
@@ -97,13 +109,43 @@ public abstract class Node
 		int childIndex = 0;
 		int size = children.size();
 		for (SExp e : exp) {
-			if (e.getAtoms()[0].equals(Node.DECL_ABRV) && childIndex < size) {
+			if (e.atomEquals(0, Node.DECL_ABRV) && childIndex < size) {
 				Node child = children.get(childIndex++);
 				child.update(e.getChildren());
 			}
 		}
 	}
 
+	/**
+	 * Applies a single operation of a streamed update, e.g. (SLT ...) or (sMat ...). Child node
+	 * declarations are not passed to this method.
+	 *
+	 * @param operation
+	 *            - the operation expression
+	 * @param index
+	 *            - position of the operation among all child expressions of this node's declaration
+	 * @see SceneGraph#apply(SceneGraphUpdate)
+	 */
+	protected void applyUpdate(SExp operation, int index)
+	{
+	}
+
+	/**
+	 * Writes the properties of this node that updates can change, but not its children.
+	 *
+	 * @see SceneGraph#writeState(DataOutput)
+	 */
+	protected void writeState(DataOutput out) throws IOException
+	{
+	}
+
+	/**
+	 * Restores the properties written by {@link #writeState(DataOutput)}
+	 */
+	protected void readState(DataInput in) throws IOException
+	{
+	}
+
 	/**
 	 * Finds a child node with the supplied type
 	 * @param recursive whether to recursively search for the node
@@ -16,11 +16,16 @@
 
 package rv.comm.rcssserver.scenegraph;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import rv.comm.rcssserver.SExp;
+import rv.comm.rcssserver.SExpVisitor;
 
 /**
  * Contains scene information from rcssserver: geometry, transformations, lighting, etc.
@@ -42,6 +47,24 @@ public class SceneGraph
 
 	private final Node root;
 
+	/**
+	 * Update plan: all nodes in the order in which their declarations appear in a diff message
+	 * (depth-first, root first), together with the index following the subtree of each node
+	 */
+	private Node[] planNodes;
+	private int[] planSubtreeEnds;
+
+	private DiffVisitor diffVisitor;
+
+	/** counts the updates, so transform nodes know if the last one changed them */
+	private int updateCount;
+
+	/** if transform nodes keep their matrix from before an update for interpolation */
+	private boolean interpolationEnabled;
+
+	/** how far rendering has progressed from the previous to the current matrices, 0 to 1 */
+	private double interpolationProgress = 1;
+
 	public boolean isGeneratedFromRSMP()
 	{
 		return generatedFromRSMP;
@@ -196,6 +219,7 @@ public class SceneGraph
 		this.generatedFromRSMP = rsmp;
 		root = new BaseNode();
 		readNodes(root, exp);
+		compileUpdatePlan();
 	}
 
 	/**
@@ -205,9 +229,159 @@ public class SceneGraph
 	{
 		if (exp == null)
 			return;
+		updateCount++;
 		root.update(exp);
 	}
 
+	/**
+	 * Starts decoding a diff message for this scene graph. The returned visitor expects the node
+	 * declarations below the root node, e.g. (nd (SLT ...)) (nd), and decodes them while they are
+	 * parsed, so no expression tree is built for the message. The scene graph itself is not
+	 * modified, so decoding does not need to hold the world lock. Only one diff can be decoded at a
+	 * time.<br>
+	 * <br>
+	 * Node declarations are matched against the update plan compiled when the scene graph was
+	 * created, and SLT matrices are parsed straight into an array. Declarations or operations that
+	 * do not have the expected layout are handled like in {@link #update(List)}.
+	 *
+	 * @see #endDiff()
+	 */
+	public SExpVisitor beginDiff()
+	{
+		if (diffVisitor == null)
+			diffVisitor = new DiffVisitor();
+		diffVisitor.reset();
+		return diffVisitor;
+	}
+
+	/**
+	 * @return the diff decoded since {@link #beginDiff()}
+	 */
+	public SceneGraphUpdate endDiff()
+	{
+		return diffVisitor.createUpdate();
+	}
+
+	/**
+	 * Applies a decoded diff. Like {@link #update(List)}, the structure of the scene graph remains
+	 * unchanged.
+	 *
+	 * @return false if the diff was decoded for a different scene graph and has been ignored
+	 */
+	public boolean apply(SceneGraphUpdate update)
+	{
+		if (update.sceneGraph != this)
+			return false;
+
+		updateCount++;
+		for (int i = 0; i < update.matrixNodes.length; i++)
+			((TransformNode) planNodes[update.matrixNodes[i]]).setMatrix(update.matrices, 16 * i);
+		for (int i = 0; i < update.operationNodes.length; i++)
+			planNodes[update.operationNodes[i]].applyUpdate(update.operations[i], update.operationPositions[i]);
+		return true;
+	}
+
+	/**
+	 * Writes everything about the nodes that updates can change, like matrices, visibility and
+	 * materials. Together with the full scene graph message this graph was created from, the state
+	 * allows to restore the scene graph as it was without replaying the diffs since.
+	 *
+	 * @see #readState(DataInput)
+	 */
+	public void writeState(DataOutput out) throws IOException
+	{
+		out.writeInt(planNodes.length);
+		for (Node node : planNodes)
+			node.writeState(out);
+	}
+
+	/**
+	 * Restores a state written by {@link #writeState(DataOutput)} for a scene graph of the same
+	 * structure
+	 */
+	public void readState(DataInput in) throws IOException
+	{
+		if (in.readInt() != planNodes.length)
+			throw new IOException("The state was written for a scene graph of a different structure");
+		updateCount++;
+		for (Node node : planNodes)
+			node.readState(in);
+	}
+
+	/**
+	 * Sets how transform nodes are rendered between two updates. While interpolation is enabled,
+	 * the nodes changed by the last update blend from their previous to their current matrix:
+	 * translations are interpolated linearly and rotations spherically. Nodes keep their previous
+	 * matrix only while interpolation is enabled, so there is no cost otherwise.
+	 *
+	 * @param progress
+	 *            - how far rendering has progressed from the previous to the last update, from 0 to
+	 *            1
+	 */
+	public void setInterpolation(boolean enabled, double progress)
+	{
+		interpolationEnabled = enabled;
+		interpolationProgress = enabled ? Math.max(0, Math.min(progress, 1)) : 1;
+	}
+
+	boolean isInterpolationEnabled()
+	{
+		return interpolationEnabled;
+	}
+
+	double getInterpolationProgress()
+	{
+		return interpolationProgress;
+	}
+
+	int getUpdateCount()
+	{
+		return updateCount;
+	}
+
+	/**
+	 * @return the number of nodes in the update plan
+	 */
+	int getPlanSize()
+	{
+		return planNodes.length;
+	}
+
+	private void compileUpdatePlan()
+	{
+		List<Node> nodes = new ArrayList<>();
+		appendPlanNode(nodes, root);
+		planNodes = nodes.toArray(new Node[0]);
+		planSubtreeEnds = new int[planNodes.length];
+		computeSubtreeEnd(0);
+	}
+
+	private void appendPlanNode(List<Node> nodes, Node node)
+	{
+		nodes.add(node);
+		if (node instanceof TransformNode transformNode)
+			transformNode.sceneGraph = this;
+		if (node.children != null) {
+			for (Node child : node.children)
+				appendPlanNode(nodes, child);
+		}
+	}
+
+	/**
+	 * @return the plan index following the subtree of the node at the given plan index
+	 */
+	private int computeSubtreeEnd(int index)
+	{
+		Node node = planNodes[index];
+		int end = index + 1;
+		if (node.children != null) {
+			for (int i = 0; i < node.children.size(); i++)
+				end = computeSubtreeEnd(end);
+		}
+		planSubtreeEnds[index] = end;
+		return end;
+	}
+
 	/**
 	 * Recursive method that reads nodes from expression and adds them to parent
 	 */
@@ -217,9 +391,8 @@ public class SceneGraph
 			return;
 		for (SExp e : exp) {
 			// each node declaration starts with "nd" followed by its type
-			String[] atoms = e.getAtoms();
-			if (atoms[0].equals(Node.DECL_ABRV)) {
-				String type = atoms[1];
+			if (e.atomEquals(0, Node.DECL_ABRV)) {
+				String type = e.getAtom(1);
 				Node node = null;
 				switch (type) {
 				case TransformNode.EXP_ABRV:
@@ -250,4 +423,238 @@ public class SceneGraph
 			}
 		}
 	}
+
+	/**
+	 * Decodes a streamed diff by walking the update plan along with the message. Node declarations
+	 * are matched to the children of the current node by their order, just like in
+	 * {@link Node#update(List)}. SLT matrices of transform nodes are parsed directly into an array;
+	 * all other operations are collected into expressions that are later passed to
+	 * {@link Node#applyUpdate(SExp, int)}.
+	 */
+	private class DiffVisitor implements SExpVisitor
+	{
+		/** list whose first atom has not been read yet */
+		private static final int PENDING = 0;
+		/** declaration of a node that is being updated */
+		private static final int NODE = 1;
+		/** SLT matrix of the transform node of the parent level */
+		private static final int MATRIX = 2;
+		/** operation of the node of the parent level */
+		private static final int OPERATION = 3;
+		/** list nested in an operation */
+		private static final int NESTED = 4;
+		/** list that is ignored together with all its contents */
+		private static final int SKIP = 5;
+
+		/** operations are kept by the update, so they must not refer to the message buffer */
+		private final SExp.Builder operationBuilder = new SExp.Builder(false, true);
+
+		// decoded matrices, the one being read is stored after the last complete one
+		private int[] matrixNodes = new int[64];
+		private double[] matrices = new double[16 * 64];
+		private int matrixCount;
+		private int matrixValueCount;
+
+		/** atoms of the matrix being read, kept in case it has to be handled as operation */
+		private byte[] matrixData;
+		private final int[] matrixAtoms = new int[2 * 17];
+
+		// decoded operations
+		private final List<SExp> operations = new ArrayList<>();
+		private int[] operationNodes = new int[16];
+		private int[] operationPositions = new int[16];
+
+		// per nesting level, level 0 is the root node
+		private int[] kinds = new int[16];
+		private int[] planIndices = new int[16];
+		private int[] nextChildren = new int[16];
+		private int[] listCounts = new int[16];
+		private int[] positions = new int[16];
+
+		private int depth;
+
+		void reset()
+		{
+			depth = 0;
+			kinds[0] = NODE;
+			planIndices[0] = 0;
+			nextChildren[0] = 1;
+			listCounts[0] = 0;
+			matrixCount = 0;
+			operations.clear();
+		}
+
+		SceneGraphUpdate createUpdate()
+		{
+			int operationCount = operations.size();
+			return new SceneGraphUpdate(SceneGraph.this, Arrays.copyOf(matrixNodes, matrixCount),
+					Arrays.copyOf(matrices, 16 * matrixCount), Arrays.copyOf(operationNodes, operationCount),
+					Arrays.copyOf(operationPositions, operationCount), operations.toArray(new SExp[0]));
+		}
+
+		@Override
+		public void enterList()
+		{
+			int parentKind = kinds[depth];
+			if (parentKind == MATRIX) {
+				// not a plain matrix after all
+				replayMatrixAsOperation();
+				parentKind = OPERATION;
+			}
+
+			if (++depth == kinds.length) {
+				kinds = Arrays.copyOf(kinds, depth * 2);
+				planIndices = Arrays.copyOf(planIndices, depth * 2);
+				nextChildren = Arrays.copyOf(nextChildren, depth * 2);
+				listCounts = Arrays.copyOf(listCounts, depth * 2);
+				positions = Arrays.copyOf(positions, depth * 2);
+			}
+
+			switch (parentKind) {
+			case NODE:
+				kinds[depth] = PENDING;
+				positions[depth] = listCounts[depth - 1]++;
+				break;
+			case OPERATION:
+			case NESTED:
+				kinds[depth] = NESTED;
+				operationBuilder.enterList();
+				break;
+			case PENDING:
+				// a list before the first atom cannot be a node declaration or an operation
+				kinds[depth - 1] = SKIP;
+				kinds[depth] = SKIP;
+				break;
+			default:
+				kinds[depth] = SKIP;
+				break;
+			}
+		}
+
+		@Override
+		public void atom(byte[] data, int offset, int length)
+		{
+			switch (kinds[depth]) {
+			case PENDING:
+				if (SExp.atomEquals(data, offset, length, Node.DECL_ABRV))
+					beginNode();
+				else
+					beginOperation(data, offset, length);
+				break;
+			case MATRIX:
+				readMatrixValue(data, offset, length);
+				break;
+			case OPERATION:
+			case NESTED:
+				operationBuilder.atom(data, offset, length);
+				break;
+			}
+		}
+
+		@Override
+		public void exitList()
+		{
+			if (depth == 0)
+				return;
+
+			switch (kinds[depth]) {
+			case MATRIX:
+				if (matrixValueCount == 16) {
+					matrixNodes[matrixCount++] = planIndices[depth - 1];
+					break;
+				}
+				replayMatrixAsOperation();
+				// fall through to add the operation
+			case OPERATION:
+				operationBuilder.exitList();
+				addOperation(operationBuilder.getExpressions().get(0));
+				break;
+			case NESTED:
+				operationBuilder.exitList();
+				break;
+			}
+			depth--;
+		}
+
+		private void beginNode()
+		{
+			int parent = planIndices[depth - 1];
+			int child = nextChildren[depth - 1];
+			if (child < planSubtreeEnds[parent]) {
+				kinds[depth] = NODE;
+				planIndices[depth] = child;
+				nextChildren[depth] = child + 1;
+				listCounts[depth] = 0;
+				nextChildren[depth - 1] = planSubtreeEnds[child];
+			} else {
+				// more declarations than children
+				kinds[depth] = SKIP;
+			}
+		}
+
+		private void beginOperation(byte[] data, int offset, int length)
+		{
+			if (positions[depth] == 0 && planNodes[planIndices[depth - 1]] instanceof TransformNode &&
+					SExp.atomEquals(data, offset, length, "SLT")) {
+				kinds[depth] = MATRIX;
+				if (matrixCount == matrixNodes.length) {
+					matrixNodes = Arrays.copyOf(matrixNodes, matrixCount * 2);
+					matrices = Arrays.copyOf(matrices, 16 * matrixCount * 2);
+				}
+				matrixData = data;
+				matrixValueCount = 0;
+				matrixAtoms[0] = offset;
+				matrixAtoms[1] = length;
+				return;
+			}
+
+			kinds[depth] = OPERATION;
+			operationBuilder.reset();
+			operationBuilder.enterList();
+			operationBuilder.atom(data, offset, length);
+		}
+
+		private void readMatrixValue(byte[] data, int offset, int length)
+		{
+			if (matrixValueCount < 16) {
+				matrixAtoms[2 * matrixValueCount + 2] = offset;
+				matrixAtoms[2 * matrixValueCount + 3] = length;
+				try {
+					matrices[16 * matrixCount + matrixValueCount] = SExp.parseDouble(data, offset, length);
+					matrixValueCount++;
+					return;
+				} catch (NumberFormatException e) {
+					// handled by the node
+				}
+			}
+
+			// unexpected layout, let the node handle it
+			replayMatrixAsOperation();
+			operationBuilder.atom(data, offset, length);
+		}
+
+		/**
+		 * Continues reading the current matrix as a regular operation
+		 */
+		private void replayMatrixAsOperation()
+		{
+			kinds[depth] = OPERATION;
+			operationBuilder.reset();
+			operationBuilder.enterList();
+			for (int i = 0; i < 2 * matrixValueCount + 2; i += 2)
+				operationBuilder.atom(matrixData, matrixAtoms[i], matrixAtoms[i + 1]);
+		}
+
+		private void addOperation(SExp operation)
+		{
+			int count = operations.size();
+			if (count == operationNodes.length) {
+				operationNodes = Arrays.copyOf(operationNodes, count * 2);
+				operationPositions = Arrays.copyOf(operationPositions, count * 2);
+			}
+			operationNodes[count] = planIndices[depth - 1];
+			operationPositions[count] = positions[depth];
+			operations.add(operation);
+		}
+	}
 }
@@ -70,10 +70,9 @@ public class SceneGraphHeader
 	{
 		// s-expression: (<type> <major> <minor>)
 		// ex. (RDS 0 1)
-		String[] atoms = sexp.getAtoms();
-		String type = atoms[0];
-		int majorVersion = Integer.parseInt(atoms[1]);
-		int minorVersion = Integer.parseInt(atoms[2]);
+		String type = sexp.getAtom(0);
+		int majorVersion = sexp.parseAtomInt(1);
+		int minorVersion = sexp.parseAtomInt(2);
 
 		return new SceneGraphHeader(type, majorVersion, minorVersion);
 	}
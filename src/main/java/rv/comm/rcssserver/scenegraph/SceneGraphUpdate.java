@@ -0,0 +1,113 @@
+package rv.comm.rcssserver.scenegraph;
+
+import java.util.Arrays;
+import rv.comm.rcssserver.SExp;
+
+/**
+ * Immutable content of a decoded diff scene graph message. It is created without modifying the
+ * scene graph and applied later by {@link SceneGraph#apply(SceneGraphUpdate)}.
+ *
+ * @see SceneGraph#beginDiff()
+ */
+public final class SceneGraphUpdate
+{
+	/** the scene graph the diff was decoded for */
+	final SceneGraph sceneGraph;
+
+	/** plan indices of transform nodes with a new matrix */
+	final int[] matrixNodes;
+
+	/** 16 values per entry of matrixNodes */
+	final double[] matrices;
+
+	/** plan indices of nodes with other operations, with the position and expression of each */
+	final int[] operationNodes;
+	final int[] operationPositions;
+	final SExp[] operations;
+
+	SceneGraphUpdate(SceneGraph sceneGraph, int[] matrixNodes, double[] matrices, int[] operationNodes,
+			int[] operationPositions, SExp[] operations)
+	{
+		this.sceneGraph = sceneGraph;
+		this.matrixNodes = matrixNodes;
+		this.matrices = matrices;
+		this.operationNodes = operationNodes;
+		this.operationPositions = operationPositions;
+		this.operations = operations;
+	}
+
+	public SceneGraph getSceneGraph()
+	{
+		return sceneGraph;
+	}
+
+	/**
+	 * @return the number of nodes that receive new data
+	 */
+	public int getUpdatedNodeCount()
+	{
+		return matrixNodes.length + operationNodes.length;
+	}
+
+	/**
+	 * Combines this diff with the diff that follows it into one that has the same effect as
+	 * applying both. Matrices of the later diff replace those of this one, other operations of both
+	 * are kept in order.
+	 *
+	 * @return the combined diff, or null if the diffs were decoded for different scene graphs
+	 */
+	public SceneGraphUpdate merge(SceneGraphUpdate next)
+	{
+		if (next.sceneGraph != sceneGraph)
+			return null;
+
+		// entry of each node in the merged matrices, plus one
+		int[] matrixEntries = new int[sceneGraph.getPlanSize()];
+		int[] mergedMatrixNodes = new int[matrixNodes.length + next.matrixNodes.length];
+		double[] mergedMatrices = new double[16 * mergedMatrixNodes.length];
+		int matrixCount = 0;
+		for (int i = 0; i < matrixNodes.length; i++) {
+			System.arraycopy(matrices, 16 * i, mergedMatrices, 16 * matrixCount, 16);
+			mergedMatrixNodes[matrixCount] = matrixNodes[i];
+			matrixEntries[matrixNodes[i]] = ++matrixCount;
+		}
+
+		boolean[] nextSetsMatrix = new boolean[matrixEntries.length];
+		for (int i = 0; i < next.matrixNodes.length; i++) {
+			int node = next.matrixNodes[i];
+			nextSetsMatrix[node] = true;
+			int entry = matrixEntries[node] - 1;
+			if (entry < 0) {
+				entry = matrixCount++;
+				mergedMatrixNodes[entry] = node;
+				matrixEntries[node] = matrixCount;
+			}
+			System.arraycopy(next.matrices, 16 * i, mergedMatrices, 16 * entry, 16);
+		}
+
+		int operationCount = 0;
+		int totalOperations = operationNodes.length + next.operationNodes.length;
+		int[] mergedOperationNodes = new int[totalOperations];
+		int[] mergedOperationPositions = new int[totalOperations];
+		SExp[] mergedOperations = new SExp[totalOperations];
+		for (int i = 0; i < operationNodes.length; i++) {
+			// matrices are applied before operations, so a matrix set by an operation of this diff
+			// would overwrite the newer one
+			if (operationPositions[i] == 0 && nextSetsMatrix[operationNodes[i]])
+				continue;
+			mergedOperationNodes[operationCount] = operationNodes[i];
+			mergedOperationPositions[operationCount] = operationPositions[i];
+			mergedOperations[operationCount++] = operations[i];
+		}
+		for (int i = 0; i < next.operationNodes.length; i++) {
+			mergedOperationNodes[operationCount] = next.operationNodes[i];
+			mergedOperationPositions[operationCount] = next.operationPositions[i];
+			mergedOperations[operationCount++] = next.operations[i];
+		}
+
+		return new SceneGraphUpdate(sceneGraph, Arrays.copyOf(mergedMatrixNodes, matrixCount),
+				Arrays.copyOf(mergedMatrices, 16 * matrixCount), Arrays.copyOf(mergedOperationNodes, operationCount),
+				Arrays.copyOf(mergedOperationPositions, operationCount),
+				Arrays.copyOf(mergedOperations, operationCount));
+	}
+}
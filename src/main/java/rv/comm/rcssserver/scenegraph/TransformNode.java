@@ -16,6 +16,9 @@
 
 package rv.comm.rcssserver.scenegraph;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 import jsgl.math.vector.Matrix;
 import org.apache.logging.log4j.LogManager;
@@ -35,6 +38,31 @@ public class TransformNode extends Node
 	/** Abbreviation declaring this node type in an s-expression */
 	public static final String EXP_ABRV = "TRF";
 
+	/** tolerance for the rotation part of a matrix to be considered orthonormal */
+	private static final double ROTATION_TOLERANCE = 1e-3;
+
+	/** quaternions closer than this are interpolated linearly */
+	private static final double SLERP_THRESHOLD = 0.9995;
+
+	/** elements of the local transformation in column-major order */
+	private final double[] matrix = new double[16];
+
+	/** the graph this node belongs to, which controls interpolation */
+	SceneGraph sceneGraph;
+
+	/** elements of the local transformation before the last update that changed it */
+	private double[] previousMatrix;
+
+	/** the update of the scene graph that set the previous matrix, -1 if it is not known */
+	private int previousUpdate = -1;
+
+	// the last interpolated transformation and what it was computed for
+	private double[] interpolatedMatrix;
+	private Matrix interpolatedTransform;
+	private int interpolatedUpdate = -1;
+	private double interpolatedProgress;
+	private boolean interpolatedValid;
+
 	public TransformNode(Node parent, SExp exp)
 	{
 		super(parent);
@@ -44,34 +72,231 @@ public class TransformNode extends Node
 		// [ny oy ay Px]
 		// [nz oz az Pz]
 		// [ 0 0 0 1]
-		setMatrix(exp.getChildren().get(0).getAtoms());
+		setMatrix(exp.getChildren().get(0));
 	}
 
-	private void setMatrix(String[] atoms)
+	private void setMatrix(SExp exp)
 	{
-		if (atoms[0].equals("SLT")) {
-			double[] a = new double[16];
+		if (exp.atomEquals(0, "SLT")) {
+			// updates are written into the storage of the existing matrix
+			keepPreviousMatrix();
+			if (localTransform == null)
+				localTransform = new Matrix(matrix);
 			for (int i = 0; i < 16; i++) {
+				double value = 0;
 				try {
-					a[i] = Double.parseDouble(atoms[i + 1]);
+					value = exp.parseAtomDouble(i + 1);
 				} catch (NumberFormatException e) {
 					LOGGER.error("Error setting matrix", e);
-					// ignore nan values from a server bug (see https://gitlab.com/robocup-sim/SimSpark/issues/5)
 				}
+				setMatrixElement(i, value);
 			}
-			localTransform = new Matrix(a);
 		}
 	}
 
+	/**
+	 * Sets the local transformation from the 16 parsed values of an SLT expression
+	 */
+	void setMatrix(double[] values, int offset)
+	{
+		keepPreviousMatrix();
+		if (localTransform == null)
+			localTransform = new Matrix(matrix);
+		for (int i = 0; i < 16; i++)
+			setMatrixElement(i, values[offset + i]);
+	}
+
+	/**
+	 * Copies the matrix before it is changed by an update, if the scene graph interpolates
+	 */
+	private void keepPreviousMatrix()
+	{
+		if (localTransform == null || sceneGraph == null || !sceneGraph.isInterpolationEnabled()) {
+			previousUpdate = -1;
+			return;
+		}
+		if (previousMatrix == null)
+			previousMatrix = new double[16];
+		System.arraycopy(matrix, 0, previousMatrix, 0, 16);
+		previousUpdate = sceneGraph.getUpdateCount();
+	}
+
+	/**
+	 * Blends from the previous to the current matrix if the last update of the scene graph changed
+	 * this node and rendering has not caught up with it yet
+	 */
+	@Override
+	protected Matrix getLocalTransform()
+	{
+		if (previousUpdate < 0 || previousUpdate != sceneGraph.getUpdateCount())
+			return localTransform;
+		double progress = sceneGraph.getInterpolationProgress();
+		if (progress >= 1)
+			return localTransform;
+
+		if (interpolatedUpdate != previousUpdate || interpolatedProgress != progress) {
+			if (interpolatedMatrix == null) {
+				interpolatedMatrix = new double[16];
+				interpolatedTransform = new Matrix(interpolatedMatrix);
+			}
+			interpolatedValid = interpolate(previousMatrix, matrix, progress, interpolatedMatrix);
+			interpolatedUpdate = previousUpdate;
+			interpolatedProgress = progress;
+		}
+		return interpolatedValid ? interpolatedTransform : localTransform;
+	}
+
+	/**
+	 * Interpolates between two rigid transformations, linearly for the translation and spherically
+	 * for the rotation
+	 *
+	 * @return false if one of the transformations is not rigid, so the result is undefined
+	 */
+	static boolean interpolate(double[] from, double[] to, double t, double[] result)
+	{
+		if (!isRigid(from) || !isRigid(to))
+			return false;
+
+		double[] q0 = toQuaternion(from);
+		double[] q1 = toQuaternion(to);
+		double dot = q0[0] * q1[0] + q0[1] * q1[1] + q0[2] * q1[2] + q0[3] * q1[3];
+		// take the shorter way around
+		double sign = 1;
+		if (dot < 0) {
+			sign = -1;
+			dot = -dot;
+		}
+
+		double a = 1 - t;
+		double b = t;
+		if (dot < SLERP_THRESHOLD) {
+			double theta = Math.acos(dot);
+			double sinTheta = Math.sin(theta);
+			a = Math.sin((1 - t) * theta) / sinTheta;
+			b = Math.sin(t * theta) / sinTheta;
+		}
+		b *= sign;
+
+		double w = a * q0[0] + b * q1[0];
+		double x = a * q0[1] + b * q1[1];
+		double y = a * q0[2] + b * q1[2];
+		double z = a * q0[3] + b * q1[3];
+		double length = Math.sqrt(w * w + x * x + y * y + z * z);
+		w /= length;
+		x /= length;
+		y /= length;
+		z /= length;
+
+		result[0] = 1 - 2 * (y * y + z * z);
+		result[1] = 2 * (x * y + z * w);
+		result[2] = 2 * (x * z - y * w);
+		result[3] = 0;
+		result[4] = 2 * (x * y - z * w);
+		result[5] = 1 - 2 * (x * x + z * z);
+		result[6] = 2 * (y * z + x * w);
+		result[7] = 0;
+		result[8] = 2 * (x * z + y * w);
+		result[9] = 2 * (y * z - x * w);
+		result[10] = 1 - 2 * (x * x + y * y);
+		result[11] = 0;
+		for (int i = 12; i < 15; i++)
+			result[i] = from[i] + t * (to[i] - from[i]);
+		result[15] = 1;
+		return true;
+	}
+
+	/**
+	 * @return true if the matrix is a rotation followed by a translation
+	 */
+	private static boolean isRigid(double[] m)
+	{
+		if (m[3] != 0 || m[7] != 0 || m[11] != 0 || m[15] != 1)
+			return false;
+		for (int i = 0; i < 3; i++) {
+			for (int j = i; j < 3; j++) {
+				double dot = m[4 * i] * m[4 * j] + m[4 * i + 1] * m[4 * j + 1] + m[4 * i + 2] * m[4 * j + 2];
+				if (Math.abs(dot - (i == j ? 1 : 0)) > ROTATION_TOLERANCE)
+					return false;
+			}
+		}
+		double det = m[0] * (m[5] * m[10] - m[9] * m[6]) - m[4] * (m[1] * m[10] - m[9] * m[2]) +
+					 m[8] * (m[1] * m[6] - m[5] * m[2]);
+		return det > 0;
+	}
+
+	/**
+	 * @return the rotation of a rigid matrix as quaternion (w, x, y, z)
+	 */
+	public static double[] toQuaternion(double[] m)
+	{
+		double trace = m[0] + m[5] + m[10];
+		double s;
+		if (trace > 0) {
+			s = 2 * Math.sqrt(trace + 1);
+			return new double[] {s / 4, (m[6] - m[9]) / s, (m[8] - m[2]) / s, (m[1] - m[4]) / s};
+		} else if (m[0] > m[5] && m[0] > m[10]) {
+			s = 2 * Math.sqrt(1 + m[0] - m[5] - m[10]);
+			return new double[] {(m[6] - m[9]) / s, s / 4, (m[4] + m[1]) / s, (m[8] + m[2]) / s};
+		} else if (m[5] > m[10]) {
+			s = 2 * Math.sqrt(1 + m[5] - m[0] - m[10]);
+			return new double[] {(m[8] - m[2]) / s, (m[4] + m[1]) / s, s / 4, (m[9] + m[6]) / s};
+		} else {
+			s = 2 * Math.sqrt(1 + m[10] - m[0] - m[5]);
+			return new double[] {(m[1] - m[4]) / s, (m[8] + m[2]) / s, (m[9] + m[6]) / s, s / 4};
+		}
+	}
+
+	private void setMatrixElement(int index, double value)
+	{
+		if (Double.isNaN(value)) {
+			// ignore nan values from a server bug (see https://gitlab.com/robocup-sim/SimSpark/issues/5)
+			LOGGER.error("Error setting matrix: ignoring nan value");
+			value = 0;
+		}
+		matrix[index] = value;
+	}
+
 	@Override
 	public void update(List<SExp> exp)
 	{
 		if (exp != null) {
-			setMatrix(exp.get(0).getAtoms());
+			setMatrix(exp.get(0));
 		}
 		super.update(exp);
 	}
 
+	@Override
+	protected void applyUpdate(SExp operation, int index)
+	{
+		// only the first expression may contain the matrix, like in update()
+		if (index == 0)
+			setMatrix(operation);
+	}
+
+	@Override
+	protected void writeState(DataOutput out) throws IOException
+	{
+		out.writeBoolean(localTransform != null);
+		if (localTransform != null) {
+			for (double value : matrix)
+				out.writeDouble(value);
+		}
+	}
+
+	@Override
+	protected void readState(DataInput in) throws IOException
+	{
+		previousUpdate = -1;
+		if (!in.readBoolean()) {
+			localTransform = null;
+			return;
+		}
+		if (localTransform == null)
+			localTransform = new Matrix(matrix);
+		for (int i = 0; i < 16; i++)
+			matrix[i] = in.readDouble();
+	}
+
 	@Override
 	public String toString()
 	{
@@ -0,0 +1,89 @@
+package rv.ui.screens;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.glu.GLU;
+import com.jogamp.opengl.util.awt.TextRenderer;
+import com.jogamp.opengl.util.gl2.GLUT;
+import java.awt.Font;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import jsgl.jogl.view.Viewport;
+import org.magmaoffenburg.roboviz.rendering.Renderer;
+import rv.comm.rcssserver.LatencyMonitor;
+import rv.comm.rcssserver.ServerComm;
+import rv.util.LatencyHistogram;
+
+/**
+ * Displays the latency of server messages for each stage from being received until being rendered,
+ * the time spent swapping in updates and between frames, and in live mode the number of received
+ * messages waiting to be rendered.
+ */
+public class LatencyOverlay extends ScreenBase
+{
+	private static final int LINE_HEIGHT = 18;
+	private static final int PADDING = 8;
+	private static final int WIDTH = 380;
+	private static final int SCREEN_OFFSET = 17;
+
+	private final TextRenderer tr;
+
+	private ServerComm server;
+
+	public LatencyOverlay()
+	{
+		tr = new TextRenderer(new Font("Monospaced", Font.PLAIN, 14), true, false);
+		visible = false;
+	}
+
+	/**
+	 * @param server
+	 *            - the connection whose message counts are shown, or null
+	 */
+	public void setServer(ServerComm server)
+	{
+		this.server = server;
+	}
+
+	@Override
+	public void render(GL2 gl, GLU glu, GLUT glut, Viewport vp)
+	{
+		List<String> lines = createLines(Renderer.world.getLatencyMonitor());
+		int height = lines.size() * LINE_HEIGHT + 2 * PADDING;
+
+		gl.glBegin(GL2.GL_QUADS);
+		gl.glColor4f(0, 0, 0, 0.5f);
+		GameStateOverlay.drawBox(gl, SCREEN_OFFSET, SCREEN_OFFSET, WIDTH, height);
+		gl.glEnd();
+
+		tr.beginRendering(vp.w, vp.h);
+		tr.setColor(0.9f, 0.9f, 0.9f, 1);
+		int y = SCREEN_OFFSET + height - PADDING - LINE_HEIGHT + 4;
+		for (String line : lines) {
+			tr.draw(line, SCREEN_OFFSET + PADDING, y);
+			y -= LINE_HEIGHT;
+		}
+		tr.endRendering();
+	}
+
+	private List<String> createLines(LatencyMonitor monitor)
+	{
+		List<String> lines = new ArrayList<>();
+		lines.add(String.format("%-17s %8s %8s %8s", "latency [ms]", "p50", "p99", "max"));
+		for (LatencyMonitor.Stage stage : LatencyMonitor.Stage.values()) {
+			LatencyHistogram histogram = monitor.getHistogram(stage);
+			lines.add(String.format(Locale.US, "%-17s %8.2f %8.2f %8.2f", stage.getLabel(),
+					histogram.getPercentileMillis(0.5), histogram.getPercentileMillis(0.99),
+					histogram.getMaxMillis()));
+		}
+		lines.add(String.format(Locale.US, "swap %.2f ms / %d updates, max %.2f ms", monitor.getLastSwapNanos() / 1e6,
+				monitor.getLastSwapUpdateCount(), monitor.getMaxSwapNanos() / 1e6));
+		lines.add(String.format(Locale.US, "frame time %.2f ms, jitter %.2f ms", monitor.getAverageFrameTimeMS(),
+				monitor.getFrameTimeJitterMS()));
+		if (server != null) {
+			lines.add(String.format("queue %d, merged %d, parse errors %d", server.getQueueDepth(),
+					server.getMergedFrameCount(), server.getParseErrorCount()));
+		}
+		return lines;
+	}
+}
@@ -50,6 +50,7 @@ public class LiveGameScreen extends ViewerScreenBase implements ServerComm.Serve
 		overlays.add(playmodeOverlay);
 		connectionOverlay = new InfoOverlay().setMessage(getConnectionMessage());
 		overlays.add(connectionOverlay);
+		latencyOverlay.setServer(getServer());
 	}
 
 	@Override
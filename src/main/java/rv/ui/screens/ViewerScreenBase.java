@@ -67,6 +67,7 @@ public abstract class ViewerScreenBase
 	protected final GameStateOverlay gameStateOverlay;
 	private final Field2DOverlay fieldOverlay;
 	private final FoulListOverlay foulListOverlay;
+	protected final LatencyOverlay latencyOverlay;
 	protected final List<Screen> overlays = new ArrayList<>();
 
 	protected final BorderTextRenderer overlayTextRenderer;
@@ -94,6 +95,8 @@ public abstract class ViewerScreenBase
 		overlays.add(fieldOverlay);
 		foulListOverlay = new FoulListOverlay();
 		overlays.add(foulListOverlay);
+		latencyOverlay = new LatencyOverlay();
+		overlays.add(latencyOverlay);
 
 		overlayTextRenderer = new BorderTextRenderer(new Font("Arial", Font.PLAIN, 48), true, false);
 		Font font = new Font("Arial", Font.BOLD, 16);
@@ -556,6 +559,11 @@ public abstract class ViewerScreenBase
 		return foulListOverlay;
 	}
 
+	public LatencyOverlay getLatencyOverlay()
+	{
+		return latencyOverlay;
+	}
+
 	public List<TextOverlay> getTextOverlays()
 	{
 		return textOverlays;
@@ -0,0 +1,94 @@
+package rv.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with a resolution of one microsecond and a relative error of at most
+ * 1/16. Recording only increments a counter, so it is cheap enough to be done for every message,
+ * and it may be done from any thread.
+ */
+public class LatencyHistogram
+{
+	/** each power of two is split into this many buckets */
+	private static final int SUB_BUCKETS = 16;
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	public void record(long nanos)
+	{
+		long micros = Math.max(0, nanos / 1000);
+		counts.incrementAndGet(bucketIndex(micros));
+		count.incrementAndGet();
+		maxMicros.accumulateAndGet(micros, Math::max);
+	}
+
+	public void reset()
+	{
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			counts.set(i, 0);
+		count.set(0);
+		maxMicros.set(0);
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	public double getMaxMillis()
+	{
+		return maxMicros.get() / 1000.0;
+	}
+
+	/**
+	 * @param fraction
+	 *            - e.g. 0.99 for the 99th percentile
+	 * @return the duration that the given fraction of recorded durations does not exceed, or 0 if
+	 *         nothing has been recorded
+	 */
+	public double getPercentileMillis(double fraction)
+	{
+		long total = 0;
+		long[] snapshot = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				long upperBound = i + 1 < BUCKET_COUNT ? bucketLowerBound(i + 1) - 1 : Long.MAX_VALUE;
+				return Math.min(upperBound, maxMicros.get()) / 1000.0;
+			}
+		}
+		return getMaxMillis();
+	}
+
+	private static int bucketIndex(long micros)
+	{
+		if (micros < SUB_BUCKETS)
+			return (int) micros;
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long bucketLowerBound(int index)
+	{
+		if (index < SUB_BUCKETS)
+			return index;
+		int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+		long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+	}
+}
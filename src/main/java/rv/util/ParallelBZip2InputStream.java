@@ -0,0 +1,344 @@
+package rv.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Decompresses a bzip2 file on all cores. The blocks of a bzip2 stream are compressed
+ * independently and start with a magic number, so the file is scanned for these numbers and each
+ * block is decompressed as a stream of its own on the common fork join pool. The output is
+ * delivered in the order of the blocks, with a limited number of blocks decompressed ahead.
+ * <p>
+ * Concatenated streams, like the ones written by pbzip2, are supported. The file is
+ * memory-mapped, so it can be at most 2 GB.
+ */
+public class ParallelBZip2InputStream extends InputStream
+{
+	private static final long BLOCK_MAGIC = 0x314159265359L;
+
+	private static final long END_MAGIC = 0x177245385090L;
+
+	private static final int MAGIC_BITS = 48;
+
+	private static final long MAGIC_MASK = (1L << MAGIC_BITS) - 1;
+
+	private static final int CRC_BITS = 32;
+
+	private static final int HEADER_SIZE = 4;
+
+	/** the number of blocks a block is merged with when it fails to decompress, see {@link #await} */
+	private static final int MAX_MERGED_BLOCKS = 4;
+
+	/**
+	 * For each byte value, the bit shifts at which a block magic (lower 8 bits) or end of stream
+	 * magic (upper 8 bits) ending in the following byte contains this byte
+	 */
+	private static final int[] MAGIC_CANDIDATES = new int[256];
+
+	static {
+		for (int shift = 0; shift < 8; shift++) {
+			MAGIC_CANDIDATES[(int) (BLOCK_MAGIC >>> (8 - shift)) & 0xFF] |= 1 << shift;
+			MAGIC_CANDIDATES[(int) (END_MAGIC >>> (8 - shift)) & 0xFF] |= 1 << (shift + 8);
+		}
+	}
+
+	/** a block between two bit positions of the file and its decompressed bytes */
+	private record Block(long start, long end, byte level, Future<byte[]> data)
+	{
+	}
+
+	private final ByteBuffer input;
+
+	private final int inputSize;
+
+	private final ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/** blocks that are decompressed ahead of the one that is read */
+	private final ArrayDeque<Block> pendingBlocks = new ArrayDeque<>();
+
+	private final int maxPendingBlocks = 2 * pool.getParallelism() + 1;
+
+	/** the next byte of the file to scan for magic numbers */
+	private int scanPosition;
+
+	/** the last scanned bytes */
+	private long scanRegister;
+
+	/** the bit position magic numbers have to start at or after */
+	private long minMagicStart;
+
+	/** the bit position of the block that has been found last, -1 if it has been submitted */
+	private long blockStart = -1;
+
+	/** the block size of the current stream, '1' to '9' */
+	private byte level;
+
+	private byte[] block = new byte[0];
+
+	private int blockPosition;
+
+	private boolean closed;
+
+	public ParallelBZip2InputStream(File file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("bzip2 file is too large to be mapped: " + file);
+			}
+			inputSize = (int) channel.size();
+			input = channel.map(FileChannel.MapMode.READ_ONLY, 0, inputSize);
+		}
+		if (!readStreamHeader(0)) {
+			throw new IOException("Not a bzip2 file: " + file);
+		}
+	}
+
+	/**
+	 * Continues scanning after the stream header at the passed position, if there is one
+	 */
+	private boolean readStreamHeader(int position)
+	{
+		if (position + HEADER_SIZE > inputSize || input.get(position) != 'B' || input.get(position + 1) != 'Z' ||
+				input.get(position + 2) != 'h') {
+			return false;
+		}
+		level = input.get(position + 3);
+		if (level < '1' || level > '9') {
+			return false;
+		}
+		scanPosition = position + HEADER_SIZE;
+		scanRegister = 0;
+		minMagicStart = 8L * scanPosition;
+		return true;
+	}
+
+	/**
+	 * Scans for the next magic number and submits the block that ends there.
+	 *
+	 * @return the submitted block, or null at the end of the file
+	 */
+	private Block scanNextBlock() throws IOException
+	{
+		while (scanPosition < inputSize) {
+			// only check for a magic number if the previous byte can be part of one
+			int candidates = MAGIC_CANDIDATES[(int) scanRegister & 0xFF];
+			scanRegister = (scanRegister << 8) | (input.get(scanPosition++) & 0xFF);
+
+			while (candidates != 0) {
+				int candidate = Integer.numberOfTrailingZeros(candidates);
+				candidates &= candidates - 1;
+
+				int shift = candidate & 7;
+				boolean end = candidate >= 8;
+				long magicStart = 8L * scanPosition - shift - MAGIC_BITS;
+				if (((scanRegister >>> shift) & MAGIC_MASK) != (end ? END_MAGIC : BLOCK_MAGIC) ||
+						magicStart < minMagicStart) {
+					continue;
+				}
+
+				Block found = blockStart >= 0 ? submit(blockStart, magicStart, level) : null;
+				if (end) {
+					// the stream ends with its CRC, padded to a full byte, and may be followed by another stream
+					blockStart = -1;
+					if (!readStreamHeader((int) ((magicStart + MAGIC_BITS + CRC_BITS + 7) / 8))) {
+						scanPosition = inputSize;
+					}
+				} else {
+					blockStart = magicStart;
+					minMagicStart = magicStart + MAGIC_BITS;
+				}
+				if (found != null) {
+					return found;
+				}
+				break;
+			}
+		}
+
+		if (blockStart >= 0) {
+			throw new IOException("bzip2 file is truncated");
+		}
+		return null;
+	}
+
+	private Block submit(long start, long end, byte level)
+	{
+		return new Block(start, end, level, CompletableFuture.supplyAsync(() -> {
+			try {
+				return decompress(start, end, level);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, pool));
+	}
+
+	/**
+	 * Decompresses the bits between two positions of the file, starting with a block magic, by
+	 * wrapping them into a stream with a single block.
+	 */
+	private byte[] decompress(long start, long end, byte level) throws IOException
+	{
+		long blockBits = end - start;
+		byte[] stream = new byte[(int) ((8L * HEADER_SIZE + blockBits + MAGIC_BITS + CRC_BITS + 7) / 8)];
+		stream[0] = 'B';
+		stream[1] = 'Z';
+		stream[2] = 'h';
+		stream[3] = level;
+
+		int shift = (int) (start & 7);
+		int fullBytes = (int) (blockBits / 8);
+		int in = (int) (start / 8);
+		for (int i = 0; i < fullBytes; i++, in++) {
+			int bits = (input.get(in) & 0xFF) << shift;
+			if (shift > 0) {
+				bits |= (input.get(in + 1) & 0xFF) >>> (8 - shift);
+			}
+			stream[HEADER_SIZE + i] = (byte) bits;
+		}
+
+		long position = 8L * (HEADER_SIZE + fullBytes);
+		int remainingBits = (int) (blockBits & 7);
+		writeBits(stream, position, readBits(start + 8L * fullBytes, remainingBits), remainingBits);
+		position += remainingBits;
+		writeBits(stream, position, END_MAGIC, MAGIC_BITS);
+		// the CRC of a stream with a single block is the CRC of the block, which follows the magic
+		writeBits(stream, position + MAGIC_BITS, readBits(start + MAGIC_BITS, CRC_BITS), CRC_BITS);
+
+		try (InputStream decompressed = new BZip2CompressorInputStream(new ByteArrayInputStream(stream))) {
+			return decompressed.readAllBytes();
+		}
+	}
+
+	private long readBits(long position, int count)
+	{
+		long value = 0;
+		for (int i = 0; i < count; i++, position++) {
+			int bit = (input.get((int) (position >>> 3)) >>> (7 - (position & 7))) & 1;
+			value = (value << 1) | bit;
+		}
+		return value;
+	}
+
+	private static void writeBits(byte[] buffer, long position, long value, int count)
+	{
+		for (int i = count - 1; i >= 0; i--, position++) {
+			if (((value >>> i) & 1) != 0) {
+				buffer[(int) (position >>> 3)] |= (byte) (0x80 >>> (position & 7));
+			}
+		}
+	}
+
+	/**
+	 * Waits for a block to be decompressed. The magic number is not guaranteed to be unique, so a
+	 * block that fails to decompress may have been split by a false match. It is then merged with
+	 * the blocks after it.
+	 */
+	private byte[] await(Block block) throws IOException
+	{
+		for (int merged = 0;; merged++) {
+			try {
+				return block.data().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while decompressing bzip2 block");
+			} catch (ExecutionException e) {
+				fillPendingBlocks();
+				Block next = pendingBlocks.poll();
+				if (merged == MAX_MERGED_BLOCKS || next == null || next.level() != block.level()) {
+					throw new IOException("Corrupt bzip2 block at bit " + block.start(), e.getCause());
+				}
+				next.data().cancel(false);
+				block = submit(block.start(), next.end(), block.level());
+			}
+		}
+	}
+
+	private void fillPendingBlocks() throws IOException
+	{
+		while (pendingBlocks.size() < maxPendingBlocks) {
+			Block next = scanNextBlock();
+			if (next == null) {
+				break;
+			}
+			pendingBlocks.add(next);
+		}
+	}
+
+	/**
+	 * @return false if there are no more blocks
+	 */
+	private boolean nextBlock() throws IOException
+	{
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		fillPendingBlocks();
+		Block next = pendingBlocks.poll();
+		if (next == null) {
+			return false;
+		}
+		block = await(next);
+		blockPosition = 0;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		while (blockPosition == block.length) {
+			if (!nextBlock()) {
+				return -1;
+			}
+		}
+		return block[blockPosition++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		Objects.checkFromIndexSize(off, len, b.length);
+		if (len == 0) {
+			return 0;
+		}
+		while (blockPosition == block.length) {
+			if (!nextBlock()) {
+				return -1;
+			}
+		}
+		int count = Math.min(len, block.length - blockPosition);
+		System.arraycopy(block, blockPosition, b, off, count);
+		blockPosition += count;
+		return count;
+	}
+
+	@Override
+	public int available()
+	{
+		return block.length - blockPosition;
+	}
+
+	@Override
+	public void close()
+	{
+		closed = true;
+		for (Block pending : pendingBlocks) {
+			pending.data().cancel(false);
+		}
+		pendingBlocks.clear();
+		block = new byte[0];
+		blockPosition = 0;
+	}
+}
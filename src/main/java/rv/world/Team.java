@@ -154,16 +154,31 @@ public class Team implements ISceneGraphItem, GameStateChangeListener
 	 * the root node containing that agent's mesh nodes if it can be found; otherwise, returns null.
 	 */
 	private Node findAgent(int agentID, SceneGraph sg)
+	{
+		return findAgentNode(sg, id, name, agentID);
+	}
+
+	/**
+	 * Locates an agent in the scene graph without a team instance, e.g. when processing logfiles
+	 * without a window.
+	 *
+	 * @param teamID
+	 *            Team.LEFT or Team.RIGHT
+	 * @param teamName
+	 *            the name of the team, which identifies the agents of scene graphs from RSMP
+	 * @return the root node containing the mesh nodes of the agent, or null if it can't be found
+	 */
+	public static Node findAgentNode(SceneGraph sg, int teamID, String teamName, int agentID)
 	{
 		// the agents might be added in any order (two teams joining at once),
 		// so the "root" node is found by finding the branch containing a mesh
 		// with specific materials that only belong to this agent
 		String matAgentID = "matNum" + agentID;
-		String matTeamID = id == Team.LEFT ? "matLeft" : "matRight";
+		String matTeamID = teamID == Team.LEFT ? "matLeft" : "matRight";
 		String[] materials = {matAgentID, matTeamID};
 
 		if (sg.isGeneratedFromRSMP())
-			return findRSMPAgent(sg.getRoot(), agentID);
+			return findRSMPAgent(sg.getRoot(), teamName, agentID);
 
 		// see if a node can be found with these materials
 		StaticMeshNode leaf = sg.findStaticMeshNode(sg.getRoot(), materials);
@@ -181,7 +196,7 @@ public class Team implements ISceneGraphItem, GameStateChangeListener
 		return root;
 	}
 
-	private Node findRSMPAgent(Node n, int agentID)
+	private static Node findRSMPAgent(Node n, String teamName, int agentID)
 	{
 		if (n.getChildren() == null || n.getChildren().isEmpty())
 			return null;
@@ -189,7 +204,7 @@ public class Team implements ISceneGraphItem, GameStateChangeListener
 		if (n instanceof DescriptionNode dsc) {
 			for (var d : dsc.getDescriptions()) {
 				if (d.length == 3 && d[0].equals("agent")) {
-					if (d[1].equals(name) && d[2].equals(Integer.toString(agentID))) {
+					if (d[1].equals(teamName) && d[2].equals(Integer.toString(agentID))) {
 						return n.getChildren().get(0);
 					} else
 						return null; // this is the wrong agent
@@ -197,7 +212,7 @@ public class Team implements ISceneGraphItem, GameStateChangeListener
 			}
 		}
 		for (var child : n.getChildren()) {
-			final var root = findRSMPAgent(child, agentID);
+			final var root = findRSMPAgent(child, teamName, agentID);
 			if (root != null)
 				return root;
 		}
@@ -20,6 +20,12 @@ import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.fixedfunc.GLLightingFunc;
 import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import jsgl.jogl.light.DirLight;
 import jsgl.jogl.light.LightModel;
@@ -31,9 +37,12 @@ import org.magmaoffenburg.roboviz.configuration.Config;
 import org.magmaoffenburg.roboviz.configuration.Config.TeamColors;
 import org.magmaoffenburg.roboviz.rendering.CameraController;
 import org.magmaoffenburg.roboviz.util.Mode;
+import rv.comm.rcssserver.FrameUpdate;
 import rv.comm.rcssserver.GameState;
 import rv.comm.rcssserver.ISceneGraphItem;
+import rv.comm.rcssserver.LatencyMonitor;
 import rv.comm.rcssserver.ProtocolVersion;
+import rv.comm.rcssserver.SExp;
 import rv.comm.rcssserver.scenegraph.SceneGraph;
 import rv.comm.rcssserver.scenegraph.SceneGraph.SceneGraphListener;
 import rv.content.ContentManager;
@@ -64,6 +73,12 @@ public class WorldModel
 
 	private static final Logger LOGGER = LogManager.getLogger();
 
+	/**
+	 * Number of published updates after which the publishing thread applies them itself, e.g. when
+	 * rendering is stalled
+	 */
+	private static final int MAX_PUBLISHED_UPDATES = 500;
+
 	private final GameState gameState = new GameState();
 	private SceneGraph sceneGraph = null;
 	private float globalTime;
@@ -82,6 +97,17 @@ public class WorldModel
 	private float ballCircleTimeLeft;
 	private float ballCircleTime;
 
+	/** decoded frames waiting to be swapped in by the render thread */
+	private final ArrayDeque<FrameUpdate> publishedUpdates = new ArrayDeque<>();
+	private volatile boolean bufferUpdates = false;
+	private volatile long mergedUpdateCount;
+	private final LatencyMonitor latencyMonitor = new LatencyMonitor();
+
+	/** when the last scene graph update was received, see {@link #getUpdateProgress(long)} */
+	private long lastUpdateNanos;
+	/** moving average of the time between scene graph updates */
+	private double updateIntervalNanos;
+
 	private final ArrayList<GlobalTimeListener> gtListeners = new ArrayList<>();
 	private final ArrayList<SceneGraphListener> sgListeners = new ArrayList<>();
 	private final ArrayList<SelectionChangeListener> selListeners = new ArrayList<>();
@@ -181,17 +207,240 @@ public class WorldModel
 		return globalTime;
 	}
 
-	public void updateGlobalTime(String[] sexp, ProtocolVersion version)
+	public void updateGlobalTime(SExp sexp, ProtocolVersion version)
 	{
 		if (!version.supports(1, 0)) {
 			LOGGER.error("unsupported global time version: {}", version);
 			return;
 		}
-		this.globalTime = Float.parseFloat(sexp[0]);
+		this.globalTime = sexp.parseAtomFloat(0);
+		for (GlobalTimeListener gtl : gtListeners)
+			gtl.globalTimeChanged(this.globalTime);
+	}
+
+	/**
+	 * Updates the global time with a value that has already been decoded
+	 */
+	public void updateGlobalTime(float globalTime)
+	{
+		this.globalTime = globalTime;
 		for (GlobalTimeListener gtl : gtListeners)
 			gtl.globalTimeChanged(this.globalTime);
 	}
 
+	/**
+	 * If enabled, published frame updates are buffered until the render thread swaps them in with
+	 * {@link #applyPublishedUpdates()} at the start of a frame. Threads publishing updates then
+	 * never wait for a frame to be rendered. Should only be enabled for the world model that is
+	 * displayed.
+	 */
+	public void setBufferUpdates(boolean bufferUpdates)
+	{
+		this.bufferUpdates = bufferUpdates;
+		if (!bufferUpdates)
+			applyPublishedUpdates();
+	}
+
+	/**
+	 * Hands a decoded frame to the world model. It is applied right away, unless updates are
+	 * buffered for rendering.
+	 *
+	 * @see #setBufferUpdates(boolean)
+	 */
+	public void publish(FrameUpdate update)
+	{
+		publish(update, false);
+	}
+
+	/**
+	 * Hands a decoded frame to the world model.
+	 *
+	 * @param coalesce
+	 *            if the update may be merged into the last one waiting to be swapped in, so the
+	 *            render thread only applies the latest state instead of every intermediate one. Full
+	 *            scene graphs and game state events are never merged.
+	 * @see FrameUpdate#merge(FrameUpdate)
+	 */
+	public void publish(FrameUpdate update, boolean coalesce)
+	{
+		if (!bufferUpdates) {
+			synchronized (this) {
+				apply(update);
+			}
+			return;
+		}
+
+		synchronized (publishedUpdates) {
+			FrameUpdate last = coalesce ? publishedUpdates.peekLast() : null;
+			FrameUpdate merged = last != null ? last.merge(update) : null;
+			if (merged != null) {
+				publishedUpdates.pollLast();
+				publishedUpdates.add(merged);
+				mergedUpdateCount++;
+				return;
+			}
+
+			publishedUpdates.add(update);
+			if (publishedUpdates.size() <= MAX_PUBLISHED_UPDATES)
+				return;
+		}
+
+		// the render thread doesn't keep up, so catch up here
+		applyPublishedUpdates();
+	}
+
+	/**
+	 * Swaps in all published frame updates in the order they were published
+	 */
+	public synchronized void applyPublishedUpdates()
+	{
+		long start = System.nanoTime();
+		int count = 0;
+
+		FrameUpdate update;
+		while ((update = pollPublishedUpdate()) != null) {
+			apply(update);
+			count++;
+		}
+
+		if (count > 0)
+			latencyMonitor.updatesSwapped(count, System.nanoTime() - start);
+	}
+
+	private FrameUpdate pollPublishedUpdate()
+	{
+		synchronized (publishedUpdates) {
+			return publishedUpdates.poll();
+		}
+	}
+
+	/**
+	 * @return the number of published updates that have been merged into a later one
+	 */
+	public long getMergedUpdateCount()
+	{
+		return mergedUpdateCount;
+	}
+
+	/**
+	 * @return the number of published updates that have not been swapped in yet
+	 */
+	public int getPublishedUpdateCount()
+	{
+		synchronized (publishedUpdates) {
+			return publishedUpdates.size();
+		}
+	}
+
+	/**
+	 * Captures the state that server messages change: the global time, the game state and the
+	 * state of the scene graph nodes. Published updates are applied first.
+	 *
+	 * @return the serialized state, or null if there is no scene graph yet
+	 * @see #restoreState(SceneGraph, byte[])
+	 */
+	public synchronized byte[] saveState() throws IOException
+	{
+		applyPublishedUpdates();
+		if (sceneGraph == null)
+			return null;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeFloat(globalTime);
+			gameState.writeState(out);
+			sceneGraph.writeState(out);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Replaces the current state with one captured by {@link #saveState()}. Updates that have been
+	 * published but not applied yet are discarded.
+	 *
+	 * @param sceneGraph
+	 *            a scene graph with the structure of the one the state was captured from, which
+	 *            becomes the scene graph of this world model
+	 */
+	public synchronized void restoreState(SceneGraph sceneGraph, byte[] state) throws IOException
+	{
+		synchronized (publishedUpdates) {
+			publishedUpdates.clear();
+		}
+
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(state))) {
+			float time = in.readFloat();
+			gameState.readState(in);
+			sceneGraph.readState(in);
+			if (sceneGraph != this.sceneGraph)
+				setSceneGraph(sceneGraph);
+			updateGlobalTime(time);
+		}
+	}
+
+	private void apply(FrameUpdate update)
+	{
+		gameState.startParseStep();
+		if (!update.isSupported())
+			return;
+
+		if (update.hasGlobalTime())
+			updateGlobalTime(update.getGlobalTime());
+		if (update.getGameState() != null)
+			gameState.parse(update.getGameState());
+
+		if (update.getFullSceneGraph() != null) {
+			// scene graph structure has changed, so replace the old one and tell
+			// any objects that rely on the scene graph to update their references
+			setSceneGraph(update.getFullSceneGraph());
+		} else if (update.getSceneGraphUpdate() != null && sceneGraph != null) {
+			if (sceneGraph.apply(update.getSceneGraphUpdate()))
+				updateInterval(update.getDecodedNanos());
+		}
+
+		gameState.finishParseStep();
+		latencyMonitor.updateApplied(update);
+	}
+
+	private void updateInterval(long nanos)
+	{
+		long interval = nanos - lastUpdateNanos;
+		if (lastUpdateNanos != 0 && interval > 0)
+			updateIntervalNanos = updateIntervalNanos == 0 ? interval : 0.9 * updateIntervalNanos + 0.1 * interval;
+		lastUpdateNanos = nanos;
+	}
+
+	/**
+	 * Estimates how far time has progressed towards the next scene graph update, based on when the
+	 * last update was received and the average time between updates. This is used to interpolate
+	 * transforms while rendering live games.
+	 *
+	 * @return the progress from 0 to 1, 1 if the time between updates is not known yet
+	 */
+	public synchronized double getUpdateProgress(long nanos)
+	{
+		if (updateIntervalNanos == 0)
+			return 1;
+		return Math.max(0, Math.min((nanos - lastUpdateNanos) / updateIntervalNanos, 1));
+	}
+
+	/**
+	 * @see SceneGraph#setInterpolation(boolean, double)
+	 */
+	public synchronized void setInterpolation(boolean enabled, double progress)
+	{
+		if (sceneGraph != null)
+			sceneGraph.setInterpolation(enabled, progress);
+	}
+
+	/**
+	 * @return the latency of server messages from being received until they are rendered
+	 */
+	public LatencyMonitor getLatencyMonitor()
+	{
+		return latencyMonitor;
+	}
+
 	public LightModel getLighting()
 	{
 		return lighting;
@@ -363,6 +612,12 @@ public class WorldModel
 
 	public synchronized void reset()
 	{
+		// updates published so far belong to the state that is discarded
+		synchronized (publishedUpdates) {
+			publishedUpdates.clear();
+		}
+		latencyMonitor.reset();
+
 		gameState.reset();
 		if (cm != null)
 			initTeams();
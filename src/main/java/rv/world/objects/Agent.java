@@ -136,6 +136,27 @@ public class Agent implements ISelectable
 		}
 	}
 
+	/**
+	 * @return whether the mesh node with the passed name is the torso of an agent
+	 */
+	public static boolean isBodyNode(String nodeName)
+	{
+		return nodeName.matches(".*body.*[.]obj$") ||
+				((nodeName.contains("T1/") || nodeName.contains("K1/")) && nodeName.endsWith("Trunk.STL"));
+	}
+
+	/**
+	 * @return the torso mesh node of the agent with the passed root node, or null if there is none
+	 */
+	public static StaticMeshNode findBodyNode(SceneGraph sg, Node rootNode)
+	{
+		for (StaticMeshNode node : sg.getAllMeshNodes(rootNode)) {
+			if (isBodyNode(node.getName()))
+				return node;
+		}
+		return null;
+	}
+
 	private enum RobotType
 	{
 		NAO,
@@ -174,9 +195,7 @@ public class Agent implements ISelectable
 																						: new Vec3f(1, 0, 0))
 											.minus(headCenter)
 											.normalize();
-				} else if (nodeName.matches(".*body.*[.]obj$") ||
-						   ((robotType == RobotType.T1 || robotType == RobotType.K1) &&
-								   nodeName.endsWith("Trunk.STL"))) {
+				} else if (isBodyNode(nodeName)) {
 					// Store body direction for third person view
 					Matrix bodyRot = modelMat;
 					Vec3f bodyCenter = bodyRot.transform(new Vec3f(0));
@@ -44,12 +44,19 @@ public class Ball implements ISelectable, ISceneGraphItem
 
 	@Override
 	public void sceneGraphChanged(SceneGraph sg)
+	{
+		node = findNode(sg);
+	}
+
+	/**
+	 * @return the mesh node of the ball in the passed scene graph, or null if there is none
+	 */
+	public static StaticMeshNode findNode(SceneGraph sg)
 	{
 		if (sg.isGeneratedFromRSMP()) {
-			node = findBall(sg.getRoot());
-		} else {
-			node = sg.findStaticMeshNode("soccerball.obj");
+			return findBall(sg.getRoot());
 		}
+		return sg.findStaticMeshNode("soccerball.obj");
 	}
 
 	private static StaticMeshNode findBall(Node n)
@@ -36,6 +36,7 @@ class Main {
 fun main(args: Array<String>) {
     // parse parameters and config
     config = Config(args)
+    General.followLogFile = args.contains("--logFollow")
     if (args.contains("--logMode") || General.logReplayFile.isNotEmpty()) {
         mode = Mode.LOG
     }
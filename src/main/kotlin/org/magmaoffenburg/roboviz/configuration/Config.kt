@@ -44,6 +44,11 @@ class Config(args: Array<String>) {
         var logReplayFile = ""
         var lookAndFeel = "system"
         var drawingFilter = ".*"
+        var keyframeInterval = 100 // frames between world state snapshots for seeking in logfiles, 0 disables them
+        var keyframeCacheSize = 64 // MB
+        var spillKeyframes = false // keep snapshots exceeding the cache size in a temporary file
+        var followLogFile = false // play the logfile while it is still being written
+        var followDelay = 3 // seconds playback stays behind the end of a followed logfile
     }
 
     object Graphics {
@@ -57,6 +62,7 @@ class Config(args: Array<String>) {
         var useFsaa = true
         var fsaaSamples = 8
         var targetFPS = 60
+        var interpolateTransforms = true
         var firstPersonFOV = 120
         var thirdPersonFOV = 80
 
@@ -84,6 +90,8 @@ class Config(args: Array<String>) {
 
         var monitorStep = 0.04
         var useBuffer = false
+        var receiveBufferSize = 0 // bytes, 0 uses the default of the operating system
+        var coalesceFrames = false // merge diffs waiting to be rendered instead of applying every message
     }
 
     object OverlayVisibility {
@@ -136,6 +144,10 @@ class Config(args: Array<String>) {
         parser.getValue("Record Logfiles")?.let { General.recordLogs = it.toBoolean() }
         parser.getValue("Logfile Directory")?.let { General.logfileDirectory = it }
         parser.getValue("Look and Feel")?.let { General.lookAndFeel = it }
+        parser.getValue("Keyframe Interval")?.let { General.keyframeInterval = it.toInt() }
+        parser.getValue("Keyframe Cache Size")?.let { General.keyframeCacheSize = it.toInt() }
+        parser.getValue("Spill Keyframes")?.let { General.spillKeyframes = it.toBoolean() }
+        parser.getValue("Follow Delay")?.let { General.followDelay = it.toInt() }
 
         // Graphics
         parser.getValue("Bloom")?.let { Graphics.useBloom = it.toBoolean() }
@@ -148,6 +160,7 @@ class Config(args: Array<String>) {
         parser.getValue("FSAA")?.let { Graphics.useFsaa = it.toBoolean() }
         parser.getValue("FSAA Samples")?.let { Graphics.fsaaSamples = it.toInt() }
         parser.getValue("Target FPS")?.let { Graphics.targetFPS = it.toInt() }
+        parser.getValue("Interpolation")?.let { Graphics.interpolateTransforms = it.toBoolean() }
         parser.getValue("First Person FOV")?.let { Graphics.firstPersonFOV = it.toInt() }
         parser.getValue("Third Person FOV")?.let { Graphics.thirdPersonFOV = it.toInt() }
 
@@ -165,6 +178,8 @@ class Config(args: Array<String>) {
         parser.getValue("Drawing Port")?.let { Networking.listenPort = it.toInt() }
         parser.getValue("Monitor Step")?.let { Networking.monitorStep = it.toDouble() }
         parser.getValue("Network Buffer")?.let { Networking.useBuffer = it.toBoolean() }
+        parser.getValue("Receive Buffer Size")?.let { Networking.receiveBufferSize = it.toInt() }
+        parser.getValue("Coalesce Frames")?.let { Networking.coalesceFrames = it.toBoolean() }
 
         parser.getValuePairList("Server").forEach {
             Networking.servers.add(Pair(it.first, it.second.toInt()))
@@ -210,6 +225,10 @@ class Config(args: Array<String>) {
         parser.setValue("Record Logfiles", General.recordLogs.toString())
         parser.setValue("Logfile Directory", General.logfileDirectory)
         parser.setValue("Look and Feel", General.lookAndFeel)
+        parser.setValue("Keyframe Interval", General.keyframeInterval.toString())
+        parser.setValue("Keyframe Cache Size", General.keyframeCacheSize.toString())
+        parser.setValue("Spill Keyframes", General.spillKeyframes.toString())
+        parser.setValue("Follow Delay", General.followDelay.toString())
 
         // Graphics
         parser.setValue("Bloom", Graphics.useBloom.toString())
@@ -222,6 +241,7 @@ class Config(args: Array<String>) {
         parser.setValue("FSAA", Graphics.useFsaa.toString())
         parser.setValue("FSAA Samples", Graphics.fsaaSamples.toString())
         parser.setValue("Target FPS", Graphics.targetFPS.toString())
+        parser.setValue("Interpolation", Graphics.interpolateTransforms.toString())
         parser.setValue("First Person FOV", Graphics.firstPersonFOV.toString())
         parser.setValue("Third Person FOV", Graphics.thirdPersonFOV.toString())
 
@@ -243,6 +263,8 @@ class Config(args: Array<String>) {
 
         parser.setValue("Monitor Step", Networking.monitorStep.toString())
         parser.setValue("Network Buffer", Networking.useBuffer.toString())
+        parser.setValue("Receive Buffer Size", Networking.receiveBufferSize.toString())
+        parser.setValue("Coalesce Frames", Networking.coalesceFrames.toString())
 
         // OverlayVisibility
         parser.setValue("Server Speed", OverlayVisibility.serverSpeed.toString())
@@ -1,14 +1,20 @@
 package org.magmaoffenburg.roboviz.etc.menuactions
 
+import org.apache.logging.log4j.kotlin.logger
 import org.magmaoffenburg.roboviz.configuration.Config
 import org.magmaoffenburg.roboviz.gui.MainWindow
 import org.magmaoffenburg.roboviz.rendering.Renderer
 import rv.ui.DrawingListPanel
 import rv.ui.screens.LiveGameScreen
 import rv.ui.screens.TextOverlay
+import java.io.File
+import java.io.IOException
+import java.util.Calendar
 
 class ViewActions {
 
+    private val logger = logger()
+
     fun openDrawingsPanel() {
         DrawingListPanel(Renderer.drawings, Config.General.drawingFilter).showFrame(MainWindow.instance)
     }
@@ -41,6 +47,23 @@ class ViewActions {
         ))
     }
 
+    fun toggleLatencyOverlay() {
+        Renderer.activeScreen.latencyOverlay.isVisible = !Renderer.activeScreen.latencyOverlay.isVisible
+    }
+
+    fun dumpLatencyStatistics() {
+        val time = Calendar.getInstance().time.toString().replace(Regex("[\\s:]+"), "_")
+        val file = File("roboviz_latency_$time.csv")
+        val message = try {
+            Renderer.world.latencyMonitor.writeCsv(file)
+            "Latency statistics written to ${file.path}"
+        } catch (e: IOException) {
+            logger.error(e) { "Unable to write latency statistics" }
+            "Unable to write latency statistics"
+        }
+        Renderer.activeScreen.textOverlays.add(TextOverlay(message, Renderer.world, 2000))
+    }
+
     fun toggleShowServerSpeed() {
         Renderer.activeScreen.toggleShowServerSpeed()
     }
@@ -26,6 +26,8 @@ class ViewMenu : MenuBase() {
         addItem("Toggle Drawings", KeyEvent.VK_T) { actions.toggleDrawings() }
         addItem("Toggle Fouls", KeyEvent.VK_Q) { actions.toggleFouls() }
         addItem("Toggle Penalty View", KeyEvent.VK_P, KeyEvent.CTRL_DOWN_MASK) { actions.togglePenaltyView() }
+        addItem("Toggle Latency Overlay", KeyEvent.VK_Z) { actions.toggleLatencyOverlay() }
+        addItem("Dump Latency Statistics", KeyEvent.VK_Z, KeyEvent.SHIFT_DOWN_MASK) { actions.dumpLatencyStatistics() }
     }
 
 }
\ No newline at end of file
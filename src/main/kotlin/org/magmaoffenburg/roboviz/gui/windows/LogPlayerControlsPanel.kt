@@ -221,6 +221,19 @@ class LogPlayerControlsPanel : JFrame(), LogPlayer.StateChangeListener {
         updateSlider()
 
         CameraController.trackerCamera.setPlaybackSpeed(logPlayer.playBackSpeed)
+        updateTitle()
+    }
+
+    /**
+     * show the frame rate playback achieves, to see whether it keeps up with the playback speed
+     */
+    private fun updateTitle() {
+        val newTitle = if (logPlayer.isPlaying && logPlayer.effectiveFps > 0) {
+            String.format("Log Player - %.1f/%.1f fps", logPlayer.effectiveFps, logPlayer.targetFps)
+        } else {
+            "Log Player"
+        }
+        if (newTitle != title) title = newTitle
     }
 
     override fun logfileChanged() {
@@ -110,6 +110,8 @@ class Renderer : GLProgram(MainWindow.instance.width, MainWindow.instance.height
 
         world = WorldModel()
         world.init(gl, contentManager, Main.mode)
+        // network and log threads publish frames, which are swapped in at the start of each frame
+        world.setBufferUpdates(true)
 
         drawings = Drawings()
 
@@ -171,12 +173,27 @@ class Renderer : GLProgram(MainWindow.instance.width, MainWindow.instance.height
         if (!isInitialized) return
 
         val gl2 = gl?.gL2
+        world.applyPublishedUpdates()
+        updateInterpolation()
         contentManager.update(gl2)
         cameraController.update(elapsedMS)
         world.update(gl2, elapsedMS)
         drawings.update()
     }
 
+    /**
+     * frames usually arrive at a lower rate than they are rendered, so transforms are interpolated
+     * from the previous to the current frame
+     */
+    private fun updateInterpolation() {
+        val progress = when {
+            !Graphics.interpolateTransforms -> 1.0
+            Main.mode == Mode.LIVE -> world.getUpdateProgress(System.nanoTime())
+            else -> logPlayer.frameProgress
+        }
+        world.setInterpolation(Graphics.interpolateTransforms, progress)
+    }
+
     override fun render(gl: GL?) {
         if (!isInitialized) return
 
@@ -225,6 +242,7 @@ class Renderer : GLProgram(MainWindow.instance.width, MainWindow.instance.height
             activeScreen.render(gl2, glu, glut, screen)
 
             gl2.glDisable(GL.GL_BLEND)
+            world.latencyMonitor.frameRendered(averageFrameTimeMS, frameTimeJitterMS)
         }
 
     }
@@ -253,7 +271,7 @@ class Renderer : GLProgram(MainWindow.instance.width, MainWindow.instance.height
 
     private fun initLogPlayer() {
         val helperFile = File(General.logReplayFile)
-        logPlayer = LogPlayer(helperFile, world)
+        logPlayer = LogPlayer(helperFile, world, General.followLogFile)
         Thread.sleep(10) // there needs to be a short delay, or else the logMode wont happen FIXME
         logPlayer.addListener(MainWindow.logPlayerControls)
         logPlayer.addListener(MainWindow.instance)
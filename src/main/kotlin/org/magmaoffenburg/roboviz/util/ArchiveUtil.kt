@@ -2,6 +2,8 @@ package org.magmaoffenburg.roboviz.util
 
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
 import org.apache.commons.compress.compressors.CompressorStreamFactory
+import rv.comm.rcssserver.BlockLogfile
+import rv.util.ParallelBZip2InputStream
 import java.io.BufferedInputStream
 import java.io.BufferedReader
 import java.io.File
@@ -12,7 +14,28 @@ import java.io.InputStreamReader
 import java.util.zip.ZipFile
 import kotlin.math.max
 
+private val archiveSuffixes = setOf("bz2", "gz", "rvl", "tar", "tbz2", "tgz", "zip")
+
+/**
+ * @return true if [createBufferedReader] has to decompress or unpack the file instead of reading it as is
+ */
+fun isArchive(file: File) = file.name.lowercase().substringAfterLast('.') in archiveSuffixes
+
 fun createBufferedReader(file: File): BufferedReader {
+    if (BlockLogfile.isBlockLogfile(file)) {
+        return BufferedReader(InputStreamReader(BlockLogfile.newInputStream(file), Charsets.UTF_8))
+    }
+    return BufferedReader(InputStreamReader(createInputStream(file)))
+}
+
+/**
+ * @return a stream of the uncompressed lines of the logfile, unpacking or decompressing it if necessary
+ */
+fun createInputStream(file: File): InputStream {
+    if (BlockLogfile.isBlockLogfile(file)) {
+        return BlockLogfile.newInputStream(file)
+    }
+
     // Extract suffixes from filename to determine extraction method
     val suffixes = file.name.lowercase().split('.').let { it.subList(max(0, it.size - 2), it.size) }.map {
         // Fix a few common shortened suffixes
@@ -23,11 +46,18 @@ fun createBufferedReader(file: File): BufferedReader {
         }
     }.flatten()
 
-    var inputStream: InputStream = BufferedInputStream(FileInputStream(file))
+    // bzip2 blocks are decompressed on all cores, which requires mapping the file
+    var inputStream: InputStream = if (suffixes.last() == "bz2" && file.length() < Int.MAX_VALUE) {
+        ParallelBZip2InputStream(file)
+    } else {
+        BufferedInputStream(FileInputStream(file))
+    }
     for (suffix in suffixes.asReversed()) {
         when (suffix) {
-            "bz2" -> inputStream =
-                CompressorStreamFactory().createCompressorInputStream(CompressorStreamFactory.BZIP2, inputStream)
+            "bz2" -> if (inputStream !is ParallelBZip2InputStream) {
+                inputStream =
+                    CompressorStreamFactory().createCompressorInputStream(CompressorStreamFactory.BZIP2, inputStream)
+            }
 
             "gz" -> inputStream =
                 CompressorStreamFactory().createCompressorInputStream(CompressorStreamFactory.GZIP, inputStream)
@@ -76,5 +106,5 @@ fun createBufferedReader(file: File): BufferedReader {
             else -> break
         }
     }
-    return BufferedReader(InputStreamReader(inputStream))
+    return inputStream
 }
@@ -0,0 +1,150 @@
+package rv.comm.rcssserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import rv.comm.rcssserver.BlockLogfile.Codec;
+
+/**
+ * Writes logfiles in the block format and reads them back
+ */
+public class BlockLogfileTest
+{
+	/** small blocks, so the frames are spread across many blocks */
+	private static final int BLOCK_SIZE = 4096;
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void readsFramesInOrder() throws IOException
+	{
+		for (Codec codec : Codec.values()) {
+			List<String> frames = createFrames(500);
+			File file = write(frames, codec);
+
+			try (BlockLogfile logfile = new BlockLogfile(file, false)) {
+				assertEquals(frames.size(), logfile.getNumFrames());
+				assertTrue(logfile.isAtBeginningOfLog());
+				for (int i = 0; i < frames.size(); i++) {
+					assertEquals(i, logfile.getCurrentFrame());
+					assertEquals(frames.get(i), logfile.getCurrentFrameMessage(), codec + " frame " + i);
+					logfile.stepForward();
+				}
+				assertTrue(logfile.isAtEndOfLog());
+			}
+		}
+	}
+
+	@Test
+	public void seeksToFrames() throws IOException
+	{
+		List<String> frames = createFrames(500);
+		File file = write(frames, Codec.DEFLATE);
+
+		try (BlockLogfile logfile = new BlockLogfile(file, false)) {
+			int[] targets = {250, 0, 499, 17, 18, 16, 300};
+			for (int frame : targets) {
+				logfile.stepAnywhere(frame);
+				assertEquals(frame, logfile.getCurrentFrame());
+				assertEquals(frames.get(frame), logfile.getCurrentFrameMessage(), "frame " + frame);
+			}
+
+			logfile.stepBackward();
+			assertEquals(frames.get(299), logfile.getCurrentFrameMessage());
+			logfile.rewind();
+			assertEquals(frames.get(0), logfile.getCurrentFrameMessage());
+		}
+	}
+
+	@Test
+	public void keepsEmptyAndNonAsciiFrames() throws IOException
+	{
+		List<String> frames = List.of("(RSG 0 0)", "", "(team äöü 日本)", "", "(end)");
+		File file = write(frames, Codec.BZIP2);
+
+		try (BlockLogfile logfile = new BlockLogfile(file, false)) {
+			for (String frame : frames) {
+				assertEquals(frame, logfile.getCurrentFrameMessage());
+				logfile.stepForward();
+			}
+		}
+	}
+
+	@Test
+	public void convertsLogfile() throws IOException
+	{
+		List<String> frames = createFrames(300);
+		File input = tempDir.resolve("match.log").toFile();
+		Files.write(input.toPath(), frames, StandardCharsets.UTF_8);
+		File output = LogfileConverter.getDefaultOutput(input);
+		assertEquals("match" + BlockLogfile.SUFFIX, output.getName());
+
+		assertEquals(frames.size(), LogfileConverter.convert(input, output, Codec.DEFLATE, BLOCK_SIZE));
+		assertTrue(BlockLogfile.isBlockLogfile(output));
+		assertEquals(frames, Files.readAllLines(read(output), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void rejectsOtherFiles() throws IOException
+	{
+		File file = tempDir.resolve("plain" + BlockLogfile.SUFFIX).toFile();
+		Files.writeString(file.toPath(), "(RSG 0 0)\n(RDS 0 0)\n");
+		assertThrows(IOException.class, () -> new BlockLogfile(file, false));
+	}
+
+	/**
+	 * @return the lines of the block logfile, as read sequentially
+	 */
+	private Path read(File file) throws IOException
+	{
+		Path lines = tempDir.resolve("lines.log");
+		try (InputStream in = BlockLogfile.newInputStream(file)) {
+			Files.copy(in, lines);
+		}
+		return lines;
+	}
+
+	private File write(List<String> frames, Codec codec) throws IOException
+	{
+		File file = tempDir.resolve(codec + BlockLogfile.SUFFIX).toFile();
+		try (BlockLogfileWriter writer = new BlockLogfileWriter(file, codec, BLOCK_SIZE)) {
+			for (String frame : frames) {
+				writer.addFrame(frame);
+			}
+			assertEquals(frames.size(), writer.getFrameCount());
+		}
+		return file;
+	}
+
+	/**
+	 * @return frames that look like server messages, of varying length
+	 */
+	private static List<String> createFrames(int count)
+	{
+		Random random = new Random(count);
+		List<String> frames = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			StringBuilder frame = new StringBuilder("((time " + i * 0.02f + ")(playMode 2))(RDS 0 0");
+			int nodes = random.nextInt(40);
+			for (int node = 0; node < nodes; node++) {
+				frame.append("(nd (SLT ").append(random.nextFloat()).append(' ').append(random.nextFloat());
+				frame.append("))");
+			}
+			frames.add(frame.append(')').toString());
+		}
+		return frames;
+	}
+}
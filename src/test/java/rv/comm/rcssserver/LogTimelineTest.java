@@ -0,0 +1,115 @@
+package rv.comm.rcssserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import rv.comm.rcssserver.LogTimeline.Event;
+import rv.comm.rcssserver.LogTimeline.EventType;
+
+/**
+ * Stores timelines next to logfiles and loads them again
+ */
+public class LogTimelineTest
+{
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void loadsStoredTimeline() throws IOException
+	{
+		File logfile = createLogfile("game.log", 1000);
+		LogTimeline timeline = createTimeline();
+		long checksum = LogTimeline.computeChecksum(logfile);
+		timeline.store(logfile, checksum);
+		assertTrue(LogTimeline.getTimelineFile(logfile).isFile());
+
+		LogTimeline loaded = new LogTimeline();
+		assertTrue(loaded.load(logfile, LogTimeline.computeChecksum(logfile)));
+		assertEquals(timeline.getEvents(), loaded.getEvents());
+		assertEquals(0.04f, loaded.getStepSize());
+		assertEquals(3000, loaded.getNumFrames());
+
+		Event goal = loaded.getNext(EventType.SCORE, 0);
+		assertEquals(1200, goal.frame());
+		assertEquals(1, goal.value());
+		assertNull(goal.description());
+		assertEquals("PlayOn", loaded.getPrevious(EventType.PLAY_MODE, 2999).description());
+		assertEquals(2, loaded.getEvents(EventType.PLAY_MODE).size());
+	}
+
+	@Test
+	public void ignoresTimelineOfOtherContents() throws IOException
+	{
+		File logfile = createLogfile("game.log", 1000);
+		createTimeline().store(logfile, LogTimeline.computeChecksum(logfile));
+
+		// same size, different contents
+		createLogfile("game.log", 1000, "(RDS 1 0)");
+		LogTimeline loaded = new LogTimeline();
+		assertFalse(loaded.load(logfile, LogTimeline.computeChecksum(logfile)));
+		assertTrue(loaded.getEvents().isEmpty());
+	}
+
+	@Test
+	public void ignoresMissingTimeline() throws IOException
+	{
+		File logfile = createLogfile("game.log", 10);
+		assertFalse(new LogTimeline().load(logfile, LogTimeline.computeChecksum(logfile)));
+	}
+
+	@Test
+	public void checksumCoversStartAndEnd() throws IOException
+	{
+		// larger than the parts that are checksummed
+		File logfile = createLogfile("large.log", 300_000);
+		long checksum = LogTimeline.computeChecksum(logfile);
+		long modified = logfile.lastModified();
+		assertEquals(checksum, LogTimeline.computeChecksum(logfile));
+
+		byte[] contents = Files.readAllBytes(logfile.toPath());
+		contents[contents.length - 3] = '9';
+		Files.write(logfile.toPath(), contents);
+		assertTrue(logfile.setLastModified(modified));
+		assertNotEquals(checksum, LogTimeline.computeChecksum(logfile));
+
+		contents[1] = 'X';
+		Files.write(logfile.toPath(), contents);
+		assertTrue(logfile.setLastModified(modified));
+		assertNotEquals(checksum, LogTimeline.computeChecksum(logfile));
+	}
+
+	private static LogTimeline createTimeline()
+	{
+		LogTimeline timeline = new LogTimeline();
+		timeline.add(new Event(EventType.PLAY_MODE, 0, 0, -1, 0, "BeforeKickOff"));
+		timeline.add(new Event(EventType.KICK_OFF, 10, 0.4f, 0, 0, null));
+		timeline.add(new Event(EventType.PLAY_MODE, 10, 0.4f, -1, 0, "PlayOn"));
+		timeline.add(new Event(EventType.FOUL, 700, 28, 1, 7, "charging"));
+		timeline.add(new Event(EventType.SCORE, 1200, 48, 0, 1, null));
+		timeline.add(new Event(EventType.HALF, 1500, 60, -1, 2, null));
+		timeline.finish(0.04f, 3000);
+		return timeline;
+	}
+
+	private File createLogfile(String name, int frames) throws IOException
+	{
+		return createLogfile(name, frames, "(RDS 0 0)");
+	}
+
+	private File createLogfile(String name, int frames, String frame) throws IOException
+	{
+		Path logfile = tempDir.resolve(name);
+		Files.write(logfile, Collections.nCopies(frames, frame));
+		return logfile.toFile();
+	}
+}
@@ -0,0 +1,215 @@
+package rv.comm.rcssserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the allocation free number parsers of {@link SExp} with the ones of the JDK
+ */
+public class SExpTest
+{
+	private static final int FUZZ_ITERATIONS = 100_000;
+
+	@Test
+	public void parsesExactlyRepresentableNumbersOnFastPath()
+	{
+		// significant digits and power of ten are exact, so a single division or multiplication
+		String[] numbers = {"0", "1", "-1", "+7", "0.5", "-0.25", "1.5", "3.14159", "-123.456", "0.001",
+				"100", "9007199254740991", "1e22", "1e-22", "-2.5e3", "16777215", "0.0000000001", "7.", ".7",
+				"1E5", "12.5e-3"};
+		for (String number : numbers) {
+			assertParsedLikeJdk(number);
+		}
+	}
+
+	@Test
+	public void parsesOtherNumbersLikeJdk()
+	{
+		// too many significant digits, or powers of ten that are not exact
+		String[] numbers = {"1e23", "1e-23", "1e300", "-1e-300", "4.9e-324", "2.4703282292062327e-324",
+				"1.7976931348623157e308", "1e309", "1e-400", "9007199254740993", "123456789012345678901234567890",
+				"3.4028235e38", "3.4028236e38", "1.4e-45", "16777217", "1e11", "0.1e-10", "1e00005"};
+		for (String number : numbers) {
+			assertParsedLikeJdk(number);
+		}
+	}
+
+	@Test
+	public void parsesLongMantissasLikeJdk()
+	{
+		String[] numbers = {"0.1000000000000000055511151231257827021181583404541015625",
+				"2.2250738585072011e-308", "2.2250738585072012e-308", "0.30000000000000004440892098500626",
+				"123456789012345678", "1234567890123456789", "-99999999999999999999.99999999999999999",
+				"0.000000000000000000000000000000000001", "1.00000005960464477550", "1.00000005960464477539"};
+		for (String number : numbers) {
+			assertParsedLikeJdk(number);
+		}
+	}
+
+	@Test
+	public void parsesNegativeZero()
+	{
+		String[] numbers = {"-0", "-0.0", "-0e5", "-.0", "-0.000", "0.0", "+0", "-0e-400", "-1e-400"};
+		for (String number : numbers) {
+			assertParsedLikeJdk(number);
+		}
+	}
+
+	@Test
+	public void parsesNanAndInfinityLikePrintf()
+	{
+		assertEquals(Double.NaN, parseDouble("nan"));
+		assertEquals(Double.NaN, parseDouble("-nan"));
+		assertEquals(Double.POSITIVE_INFINITY, parseDouble("inf"));
+		assertEquals(Double.NEGATIVE_INFINITY, parseDouble("-inf"));
+		assertEquals(Float.NaN, parseFloat("nan"));
+		assertEquals(Float.POSITIVE_INFINITY, parseFloat("+inf"));
+		assertEquals(Float.NEGATIVE_INFINITY, parseFloat("-inf"));
+
+		// the JDK spellings are passed on to the JDK parser
+		assertParsedLikeJdk("NaN");
+		assertParsedLikeJdk("-Infinity");
+	}
+
+	@Test
+	public void rejectsMalformedNumbers()
+	{
+		String[] numbers = {"", "-", ".", "e5", "1e", "1e+", "1.2.3", "1x", "--1", "nanx", "infinity"};
+		for (String number : numbers) {
+			assertThrows(NumberFormatException.class, () -> parseDouble(number), number);
+			assertThrows(NumberFormatException.class, () -> parseFloat(number), number);
+		}
+	}
+
+	@Test
+	public void parsesRandomNumbersLikeJdk()
+	{
+		Random random = new Random(42);
+		for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+			assertParsedLikeJdk(randomNumber(random));
+		}
+	}
+
+	@Test
+	public void parsesRandomDoublesLikeJdk()
+	{
+		Random random = new Random(7);
+		for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+			double value = Double.longBitsToDouble(random.nextLong());
+			if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+				assertParsedLikeJdk(Double.toString(value));
+				assertParsedLikeJdk(Float.toString((float) value));
+				assertParsedLikeJdk(String.format(Locale.ROOT, "%.6f", value % 1000));
+			}
+		}
+	}
+
+	@Test
+	public void parsesIntegers()
+	{
+		String[] numbers = {"0", "-0", "+5", "42", "-42", "2147483647", "-2147483648", "0000000000012"};
+		for (String number : numbers) {
+			assertEquals(Integer.parseInt(number), parseInt(number), number);
+		}
+	}
+
+	@Test
+	public void rejectsIntegersOutOfRange()
+	{
+		String[] numbers = {"2147483648", "-2147483649", "4294967296", "99999999999999999999999", "", "-", "1.0",
+				"12a"};
+		for (String number : numbers) {
+			assertThrows(NumberFormatException.class, () -> parseInt(number), number);
+		}
+	}
+
+	@Test
+	public void parsesSliceOfBuffer()
+	{
+		byte[] data = "(pos 1.25 -3 7e1)".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(1.25, SExp.parseDouble(data, 5, 4));
+		assertEquals(-3f, SExp.parseFloat(data, 10, 2));
+		assertEquals(70.0, SExp.parseDouble(data, 13, 3));
+		assertEquals(-3, SExp.parseInt(data, 10, 2));
+	}
+
+	/**
+	 * @return a number in the syntax the parser accepts, with varying numbers of digits, signs and
+	 *         exponents, so both the fast path and the fallback are taken
+	 */
+	private static String randomNumber(Random random)
+	{
+		StringBuilder number = new StringBuilder();
+		switch (random.nextInt(3)) {
+		case 0 -> number.append('-');
+		case 1 -> number.append('+');
+		default -> {
+		}
+		}
+
+		int integerDigits = random.nextInt(random.nextBoolean() ? 4 : 22);
+		int fractionDigits = random.nextInt(random.nextBoolean() ? 7 : 25);
+		if (integerDigits == 0 && fractionDigits == 0) {
+			integerDigits = 1;
+		}
+		appendDigits(random, number, integerDigits);
+		if (fractionDigits > 0 || random.nextInt(10) == 0) {
+			number.append('.');
+			appendDigits(random, number, fractionDigits);
+		}
+		if (random.nextInt(4) == 0) {
+			number.append(random.nextBoolean() ? 'e' : 'E');
+			if (random.nextBoolean()) {
+				number.append(random.nextBoolean() ? '-' : '+');
+			}
+			number.append(random.nextInt(random.nextBoolean() ? 30 : 400));
+		}
+		return number.toString();
+	}
+
+	private static void appendDigits(Random random, StringBuilder number, int count)
+	{
+		for (int i = 0; i < count; i++) {
+			// favor zeros, so there are leading and trailing zeros
+			number.append(random.nextInt(3) == 0 ? '0' : (char) ('0' + random.nextInt(10)));
+		}
+	}
+
+	private static void assertParsedLikeJdk(String number)
+	{
+		// assertEquals compares the bits, so -0.0 and 0.0 differ
+		assertEquals(Double.parseDouble(number), parseDouble(number), number);
+		assertEquals(Float.parseFloat(number), parseFloat(number), number);
+	}
+
+	private static double parseDouble(String number)
+	{
+		byte[] data = pad(number);
+		return SExp.parseDouble(data, 1, data.length - 2);
+	}
+
+	private static float parseFloat(String number)
+	{
+		byte[] data = pad(number);
+		return SExp.parseFloat(data, 1, data.length - 2);
+	}
+
+	private static int parseInt(String number)
+	{
+		byte[] data = pad(number);
+		return SExp.parseInt(data, 1, data.length - 2);
+	}
+
+	/**
+	 * Surrounds the number with brackets, so parsing beyond the slice is noticed
+	 */
+	private static byte[] pad(String number)
+	{
+		return ("(" + number + ")").getBytes(StandardCharsets.US_ASCII);
+	}
+}
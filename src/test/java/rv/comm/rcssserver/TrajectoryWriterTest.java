@@ -0,0 +1,111 @@
+package rv.comm.rcssserver;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Writes trajectory files and reads them back with {@link TrajectoryReader}
+ */
+public class TrajectoryWriterTest
+{
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void readsWrittenRows() throws IOException
+	{
+		// more than one block, and a partial last block
+		int rows = TrajectoryWriter.BLOCK_ROWS * 2 + 123;
+		Random random = new Random(1);
+		int[] frames = new int[rows];
+		float[] times = new float[rows];
+		byte[] teams = new byte[rows];
+		byte[] unums = new byte[rows];
+		float[][] values = new float[7][rows];
+
+		File file = tempDir.resolve("game" + TrajectoryExporter.SUFFIX).toFile();
+		try (TrajectoryWriter writer = new TrajectoryWriter(file)) {
+			for (int i = 0; i < rows; i++) {
+				frames[i] = i / 23;
+				times[i] = frames[i] * 0.04f;
+				teams[i] = (byte) random.nextInt(3);
+				unums[i] = (byte) random.nextInt(12);
+				double[] position = {random.nextGaussian() * 10, random.nextGaussian() * 5, random.nextFloat()};
+				double[] rotation = {random.nextFloat(), -random.nextFloat(), random.nextFloat(), 0};
+				for (int v = 0; v < 3; v++) {
+					values[v][i] = (float) position[v];
+					values[v + 3][i] = (float) rotation[v];
+				}
+				values[6][i] = 0;
+				writer.add(frames[i], times[i], teams[i], unums[i], position, rotation);
+			}
+			writer.setTeams("Left Team", "Right Team");
+			writer.setNumFrames(frames[rows - 1] + 1);
+			assertEquals(rows, writer.getNumRows());
+		}
+
+		try (TrajectoryReader reader = new TrajectoryReader(file)) {
+			assertEquals(rows, reader.getNumRows());
+			assertEquals(frames[rows - 1] + 1, reader.getNumFrames());
+			assertEquals("Left Team", reader.getTeamLeft());
+			assertEquals("Right Team", reader.getTeamRight());
+			for (TrajectoryColumn column : TrajectoryColumn.values()) {
+				assertTrue(reader.hasColumn(column), column.getName());
+			}
+
+			assertArrayEquals(frames, reader.readInts(TrajectoryColumn.FRAME));
+			assertArrayEquals(times, reader.readFloats(TrajectoryColumn.TIME));
+			assertArrayEquals(teams, reader.readBytes(TrajectoryColumn.TEAM));
+			assertArrayEquals(unums, reader.readBytes(TrajectoryColumn.UNUM));
+			assertArrayEquals(values[0], reader.readFloats(TrajectoryColumn.X));
+			assertArrayEquals(values[1], reader.readFloats(TrajectoryColumn.Y));
+			assertArrayEquals(values[2], reader.readFloats(TrajectoryColumn.Z));
+			assertArrayEquals(values[3], reader.readFloats(TrajectoryColumn.QW));
+			assertArrayEquals(values[4], reader.readFloats(TrajectoryColumn.QX));
+			assertArrayEquals(values[5], reader.readFloats(TrajectoryColumn.QY));
+			assertArrayEquals(values[6], reader.readFloats(TrajectoryColumn.QZ));
+		}
+	}
+
+	@Test
+	public void readsEmptyFile() throws IOException
+	{
+		File file = tempDir.resolve("empty" + TrajectoryExporter.SUFFIX).toFile();
+		try (TrajectoryWriter writer = new TrajectoryWriter(file)) {
+			writer.setTeams("", "");
+		}
+
+		try (TrajectoryReader reader = new TrajectoryReader(file)) {
+			assertEquals(0, reader.getNumRows());
+			assertEquals(0, reader.readInts(TrajectoryColumn.FRAME).length);
+			assertEquals(0, reader.readFloats(TrajectoryColumn.X).length);
+		}
+	}
+
+	@Test
+	public void rejectsOtherFiles() throws IOException
+	{
+		File file = tempDir.resolve("game.log").toFile();
+		Files.writeString(file.toPath(), "(RSG 0 0)\n(RDS 0 0)\n(RDS 0 0)\n");
+		assertThrows(IOException.class, () -> new TrajectoryReader(file));
+	}
+
+	@Test
+	public void shufflesBytesBySignificance()
+	{
+		byte[] values = {1, 2, 3, 4, 5, 6, 7, 8};
+		byte[] shuffled = new byte[values.length];
+		TrajectoryWriter.shuffle(values, shuffled, 2, 4);
+		assertArrayEquals(new byte[] {1, 5, 2, 6, 3, 7, 4, 8}, shuffled);
+	}
+}